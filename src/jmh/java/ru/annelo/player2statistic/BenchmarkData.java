@@ -0,0 +1,53 @@
+package ru.annelo.player2statistic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.bukkit.plugin.java.JavaPlugin;
+import org.mockito.Mockito;
+
+// Общие синтетические данные для бенчмарков
+final class BenchmarkData {
+    private BenchmarkData() {}
+
+    static PlayerStats randomStats(Random random, int number) {
+        PlayerStats stats = new PlayerStats();
+        stats.setUuid(new UUID(random.nextLong(), random.nextLong()));
+        stats.setPlayerName("Player" + number);
+        stats.setPlayTime(random.nextInt(100_000));
+        stats.setMobsKilled(random.nextInt(50_000));
+        stats.setItemsEaten(random.nextInt(10_000));
+        stats.setDistanceTraveled(random.nextInt(10_000_000) / 10.0);
+        stats.setBlocksBroken(random.nextInt(1_000_000));
+        stats.setDeaths(random.nextInt(5_000));
+        stats.setItemsCrafted(random.nextInt(100_000));
+        stats.setItemsUsed(random.nextInt(100_000));
+        stats.setChestsOpened(random.nextInt(20_000));
+        stats.setMessagesSent(random.nextInt(50_000));
+        return stats;
+    }
+
+    // Плагин-заглушка, у которого есть только папка данных
+    static JavaPlugin pluginWithDataFolder(File dataFolder) {
+        JavaPlugin plugin = Mockito.mock(JavaPlugin.class);
+        Mockito.when(plugin.getDataFolder()).thenReturn(dataFolder);
+        return plugin;
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
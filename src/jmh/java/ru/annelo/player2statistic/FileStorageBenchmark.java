@@ -0,0 +1,66 @@
+package ru.annelo.player2statistic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// Сохранение и загрузка одного игрока в файловом хранилище во временной папке
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class FileStorageBenchmark {
+    private static final int PLAYERS = 256;
+
+    private Path dataFolder;
+    private FileStorage storage;
+    private final List<PlayerStats> players = new ArrayList<>();
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataFolder = Files.createTempDirectory("stats-bench");
+        storage = new FileStorage(BenchmarkData.pluginWithDataFolder(dataFolder.toFile()));
+        Random random = new Random(42);
+        for (int i = 0; i < PLAYERS; i++) {
+            PlayerStats stats = BenchmarkData.randomStats(random, i);
+            players.add(stats);
+            storage.savePlayerStats(stats);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.close();
+        BenchmarkData.deleteRecursively(dataFolder);
+    }
+
+    private PlayerStats nextPlayer() {
+        next = (next + 1) % PLAYERS;
+        return players.get(next);
+    }
+
+    @Benchmark
+    public void save() {
+        PlayerStats stats = nextPlayer();
+        stats.setBlocksBroken(stats.getBlocksBroken() + 1);
+        storage.savePlayerStats(stats);
+    }
+
+    @Benchmark
+    public PlayerStats load() {
+        return storage.loadPlayerStats(nextPlayer().getUuid());
+    }
+}
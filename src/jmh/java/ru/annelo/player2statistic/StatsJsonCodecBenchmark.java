@@ -0,0 +1,68 @@
+package ru.annelo.player2statistic;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class StatsJsonCodecBenchmark {
+    private PlayerStats stats;
+    private JsonObject json;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        stats = BenchmarkData.randomStats(new Random(42), 1);
+        json = StatsJsonCodec.toJson(stats);
+        text = json.toString();
+    }
+
+    @Benchmark
+    public JsonObject toJson() {
+        return StatsJsonCodec.toJson(stats);
+    }
+
+    @Benchmark
+    public PlayerStats fromJson() {
+        return StatsJsonCodec.fromJson(json, stats.getUuid());
+    }
+
+    // Полный путь файла: текст -> дерево -> статистика
+    @Benchmark
+    public PlayerStats parseAndDecode() {
+        return StatsJsonCodec.fromJson(JsonParser.parseString(text).getAsJsonObject(),
+                stats.getUuid());
+    }
+
+    @Benchmark
+    public String encodeToText() {
+        return StatsJsonCodec.toJson(stats).toString();
+    }
+
+    // Потоковый путь FileStorage: без дерева, в буферы потока
+    @Benchmark
+    public ByteBuffer streamingEncode() throws IOException {
+        return StatsJsonCodec.encode(stats);
+    }
+
+    @Benchmark
+    public PlayerStats streamingRead() throws IOException {
+        return StatsJsonCodec.read(new JsonReader(new StringReader(text)), stats.getUuid());
+    }
+}
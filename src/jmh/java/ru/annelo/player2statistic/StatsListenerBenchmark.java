@@ -0,0 +1,72 @@
+package ru.annelo.player2statistic;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Стоимость onPlayerMove на главном потоке: подсчёт в каждом событии, поворот головы
+// и режим выборки MovementTracker, в котором обработчик сразу возвращается
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class StatsListenerBenchmark {
+    private StatsListener perEvent;
+    private StatsListener sampled;
+    private PlayerMoveEvent step;
+    private PlayerMoveEvent headTurn;
+
+    @Setup
+    public void setUp() {
+        JavaPlugin plugin = Mockito.mock(JavaPlugin.class);
+        FileConfiguration fileConfig = Mockito.mock(FileConfiguration.class, Mockito.RETURNS_DEEP_STUBS);
+        Mockito.when(plugin.getConfig()).thenReturn(fileConfig);
+        Mockito.when(fileConfig.getBoolean("features.movementTracking", true)).thenReturn(true);
+        Config config = new Config(plugin);
+
+        StatsManager statsManager = new StatsManager(null, null, 200, 0, 0, null, new StatsMetrics());
+        UUID uuid = UUID.randomUUID();
+        statsManager.createEmptyStats(uuid, "Walker");
+        Player player = Mockito.mock(Player.class);
+        Mockito.when(player.getUniqueId()).thenReturn(uuid);
+
+        perEvent = new StatsListener(statsManager, config, null, new StatsMetrics());
+        sampled = new StatsListener(statsManager, config, new MovementTracker(statsManager),
+                new StatsMetrics());
+
+        World world = Mockito.mock(World.class);
+        Location from = new Location(world, 10, 64, 10);
+        step = new PlayerMoveEvent(player, from, new Location(world, 10.2, 64, 10.1));
+        Location turned = from.clone();
+        turned.setYaw(90);
+        headTurn = new PlayerMoveEvent(player, from, turned);
+    }
+
+    @Benchmark
+    public void perEventStep() {
+        perEvent.onPlayerMove(step);
+    }
+
+    @Benchmark
+    public void perEventHeadTurn() {
+        perEvent.onPlayerMove(headTurn);
+    }
+
+    @Benchmark
+    public void sampledStep() {
+        sampled.onPlayerMove(step);
+    }
+}
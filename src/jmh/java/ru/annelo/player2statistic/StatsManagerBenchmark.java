@@ -0,0 +1,78 @@
+package ru.annelo.player2statistic;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.Material;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+// Счётчики онлайн-игроков под конкуренцией: главный поток, чат и асинхронные задачи.
+// shared=true - все потоки пишут одному игроку, false - каждый своему
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class StatsManagerBenchmark {
+    private static final int PLAYERS = 64;
+
+    @Param({"true", "false"})
+    public boolean shared;
+
+    private StatsManager statsManager;
+    private UUID[] players;
+    private final AtomicInteger nextThread = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        UUID uuid;
+
+        @Setup
+        public void setUp(StatsManagerBenchmark benchmark) {
+            int thread = benchmark.nextThread.getAndIncrement();
+            uuid = benchmark.players[benchmark.shared ? 0 : thread % PLAYERS];
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        // Ни хранилище, ни планировщик не нужны, пока не вызван start()
+        statsManager = new StatsManager(null, null, 200, 0, 0, null, new StatsMetrics());
+        players = new UUID[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            players[i] = UUID.randomUUID();
+            statsManager.createEmptyStats(players[i], "Player" + i);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void increment1(ThreadState state) {
+        statsManager.incrementBlocksBroken(state.uuid, Material.STONE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void increment4(ThreadState state) {
+        statsManager.incrementBlocksBroken(state.uuid, Material.STONE);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void increment16(ThreadState state) {
+        statsManager.incrementBlocksBroken(state.uuid, Material.STONE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addDistance4(ThreadState state) {
+        statsManager.addDistanceTraveled(state.uuid, 0.2);
+    }
+}
@@ -0,0 +1,65 @@
+package ru.annelo.player2statistic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// /stats top по синтетическим игрокам: полный проход по файлам хранилища против индекса в памяти.
+// Подготовка 100k файлов занимает заметное время, но делается один раз на параметр
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class TopStatsBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int players;
+
+    private Path dataFolder;
+    private FileStorage storage;
+    private StatsManager statsManager;
+    private LeaderboardIndex index;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataFolder = Files.createTempDirectory("stats-top-bench");
+        storage = new FileStorage(BenchmarkData.pluginWithDataFolder(dataFolder.toFile()));
+        // Без start() у менеджера нет индекса, и топ считает хранилище
+        statsManager = new StatsManager(null, storage, 200, 0, 0, null, new StatsMetrics());
+        index = new LeaderboardIndex();
+        Random random = new Random(42);
+        for (int i = 0; i < players; i++) {
+            PlayerStats stats = BenchmarkData.randomStats(random, i);
+            storage.savePlayerStats(stats);
+            index.update(stats);
+        }
+        index.markReady();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.close();
+        BenchmarkData.deleteRecursively(dataFolder);
+    }
+
+    @Benchmark
+    public List<PlayerStats> storageTop() {
+        return statsManager.getTopStats(StatType.BLOCKS_BROKEN, 10);
+    }
+
+    @Benchmark
+    public List<PlayerStats> indexTop() {
+        return index.top(StatType.BLOCKS_BROKEN, 10);
+    }
+}
@@ -0,0 +1,131 @@
+package ru.annelo.player2statistic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Автосохранение по частям: вызывается каждый тик в главном потоке. Раунд начинается раз в
+// интервал (первый - через интервал после запуска, не сразу) со списка игроков в памяти и
+// раздаёт их по тикам до конца интервала. За тик в очередь записи ставится примерно
+// остаток / оставшиеся тики изменившихся игроков; неизменившиеся пропускаются и не
+// расходуют квоту, так что при малом числе изменений раунд заканчивается раньше. Время тика
+// ограничено бюджетом, при просевшем TPS квота уменьшается, а раунд растягивается.
+final class AutosaveScheduler<T> implements Runnable {
+    // Ниже FULL_PACE_TPS квота линейно уменьшается до MIN_PACE при MIN_PACE_TPS
+    static final double FULL_PACE_TPS = 19.0;
+    static final double MIN_PACE_TPS = 10.0;
+    static final double MIN_PACE = 0.1;
+
+    private final Supplier<? extends Iterable<T>> candidates;
+    private final Predicate<T> dirty;
+    private final Consumer<T> submit;
+    private final DoubleSupplier tps;
+    private final LongSupplier nanoTime;
+    private final long intervalTicks;
+    private final long budgetNanos;
+
+    private long tick;
+    private long nextRound;
+    private long roundEnd;
+    private List<T> round = new ArrayList<>();
+    private int cursor;
+    private int submitted;
+    // Итог последнего завершённого раунда: поставлено в очередь / просмотрено
+    private int lastSubmitted;
+    private int lastScanned;
+
+    AutosaveScheduler(Supplier<? extends Iterable<T>> candidates, Predicate<T> dirty,
+            Consumer<T> submit, DoubleSupplier tps, LongSupplier nanoTime, long intervalTicks,
+            long budgetNanos) {
+        this.candidates = candidates;
+        this.dirty = dirty;
+        this.submit = submit;
+        this.tps = tps;
+        this.nanoTime = nanoTime;
+        this.intervalTicks = Math.max(1, intervalTicks);
+        this.budgetNanos = Math.max(0, budgetNanos);
+        this.nextRound = this.intervalTicks;
+    }
+
+    @Override
+    public void run() {
+        tick++;
+        if (cursor >= round.size()) {
+            if (tick < nextRound) {
+                return;
+            }
+            startRound();
+        }
+        long start = nanoTime.getAsLong();
+        int quota = quota();
+        int done = 0;
+        // Хотя бы один игрок за тик, иначе раунд не закончится при любом бюджете
+        while (cursor < round.size() && done < quota) {
+            T candidate = round.get(cursor);
+            round.set(cursor++, null);
+            if (dirty.test(candidate)) {
+                submit.accept(candidate);
+                done++;
+            }
+            if (nanoTime.getAsLong() - start >= budgetNanos) {
+                break;
+            }
+        }
+        submitted += done;
+        if (cursor >= round.size()) {
+            finishRound();
+        }
+    }
+
+    // Ссылки копируются один раз за раунд: игроки, вошедшие позже, попадут в следующий
+    private void startRound() {
+        round = new ArrayList<>();
+        for (T candidate : candidates.get()) {
+            round.add(candidate);
+        }
+        cursor = 0;
+        submitted = 0;
+        roundEnd = tick + intervalTicks - 1;
+        nextRound = tick + intervalTicks;
+    }
+
+    private void finishRound() {
+        lastSubmitted = submitted;
+        lastScanned = round.size();
+        round = new ArrayList<>();
+        cursor = 0;
+        // Затянувшийся раунд не начинает следующий в том же тике
+        nextRound = Math.max(nextRound, tick + 1);
+    }
+
+    private int quota() {
+        int remaining = round.size() - cursor;
+        long ticksLeft = Math.max(1, roundEnd - tick + 1);
+        int quota = (int) ((remaining + ticksLeft - 1) / ticksLeft);
+        return Math.max(1, (int) Math.ceil(quota * pace(tps.getAsDouble())));
+    }
+
+    static double pace(double tps) {
+        if (tps >= FULL_PACE_TPS) {
+            return 1.0;
+        }
+        double pace = (tps - MIN_PACE_TPS) / (FULL_PACE_TPS - MIN_PACE_TPS);
+        return Math.max(MIN_PACE, pace);
+    }
+
+    boolean isRoundActive() {
+        return cursor < round.size();
+    }
+
+    int lastSubmitted() {
+        return lastSubmitted;
+    }
+
+    int lastScanned() {
+        return lastScanned;
+    }
+}
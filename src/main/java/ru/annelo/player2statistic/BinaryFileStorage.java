@@ -0,0 +1,297 @@
+package ru.annelo.player2statistic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.java.JavaPlugin;
+
+// Все игроки в одном файле stats.bin из записей фиксированной длины, отображённом в память.
+// Сохранение - запись 80 байт на место игрока, полный обход - последовательное чтение файла.
+// Разбивки по блокам и мобам в записи не помещаются и этим хранилищем не сохраняются.
+class BinaryFileStorage implements IStorage {
+    private static final int MAGIC = 0x50325342; // "P2SB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int COUNT_OFFSET = 12;
+    static final int RECORD_SIZE = 80;
+    private static final int NAME_OFFSET = 60;
+    private static final int NAME_MAX_BYTES = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final File file;
+    // Дневные корзины оконной статистики - отдельными файлами в daily/
+    private final DailyStatsFiles daily;
+    private final Map<UUID, Integer> index = new HashMap<>();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+
+    public BinaryFileStorage(JavaPlugin plugin) {
+        this.file = new File(plugin.getDataFolder(), "stats.bin");
+        this.daily = new DailyStatsFiles(new File(plugin.getDataFolder(), "daily").toPath());
+        open();
+    }
+
+    private synchronized void open() {
+        try {
+            File dataFolder = file.getParentFile();
+            if (!dataFolder.exists()) {
+                dataFolder.mkdirs();
+            }
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // Заголовок проверяется до map(): отображение чужого файла расширило бы его
+            boolean fresh = channel.size() == 0;
+            int stored = fresh ? 0 : readHeader();
+            map(Math.max(INITIAL_CAPACITY, stored * 2));
+            if (fresh) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, RECORD_SIZE);
+                buffer.putInt(COUNT_OFFSET, 0);
+            }
+            count = stored;
+            // Индекс UUID -> номер записи строится одним проходом по файлу
+            for (int slot = 0; slot < count; slot++) {
+                int offset = offset(slot);
+                index.put(new UUID(buffer.getLong(offset), buffer.getLong(offset + 8)), slot);
+            }
+        } catch (IOException e) {
+            // Хранилище остаётся закрытым: загрузки возвращают ошибку, записи отклоняются
+            Bukkit.getLogger().severe("Error opening binary stats storage " + file);
+            e.printStackTrace();
+            buffer = null;
+            index.clear();
+            count = 0;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException closeError) {
+                    // уже сообщено выше
+                }
+                channel = null;
+            }
+        }
+    }
+
+    // Число записей из проверенного заголовка существующего файла
+    private int readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Truncated header of " + file.getName());
+            }
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(8) != RECORD_SIZE) {
+            throw new IOException("Unknown format of " + file.getName());
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported version " + header.getInt(4) + " of " + file.getName());
+        }
+        int stored = header.getInt(COUNT_OFFSET);
+        if (stored < 0 || HEADER_SIZE + (long) stored * RECORD_SIZE > channel.size()) {
+            throw new IOException("Corrupt record count " + stored + " in " + file.getName());
+        }
+        return stored;
+    }
+
+    // Отображение можно только пересоздать; старое освободит GC
+    private void map(int records) throws IOException {
+        capacity = records;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (long) records * RECORD_SIZE);
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    @Override
+    public synchronized void savePlayerStats(PlayerStats stats) {
+        try {
+            write(stats);
+        } catch (IOException e) {
+            Bukkit.getLogger().severe("Error saving player stats for " + stats.getUuid());
+            e.printStackTrace();
+        }
+    }
+
+    // Все записи пачки попадают в файл одним force()
+    @Override
+    public synchronized boolean savePlayerStatsBatch(List<PlayerStats> batch) {
+        try {
+            checkOpen();
+            for (PlayerStats stats : batch) {
+                write(stats);
+            }
+            buffer.force();
+            return true;
+        } catch (IOException e) {
+            Bukkit.getLogger().severe("Error saving batch of " + batch.size() + " player stats");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Binary stats storage is not open");
+        }
+    }
+
+    private void write(PlayerStats stats) throws IOException {
+        checkOpen();
+        Integer slot = index.get(stats.getUuid());
+        if (slot == null) {
+            if (count == capacity) {
+                map(capacity * 2);
+            }
+            slot = count++;
+            index.put(stats.getUuid(), slot);
+        }
+        encode(buffer, offset(slot), stats);
+        // Счётчик записей обновляется после самой записи
+        buffer.putInt(COUNT_OFFSET, count);
+    }
+
+    static void encode(ByteBuffer target, int offset, PlayerStats stats) {
+        target.putLong(offset, stats.getUuid().getMostSignificantBits());
+        target.putLong(offset + 8, stats.getUuid().getLeastSignificantBits());
+        target.putInt(offset + 16, stats.getPlayTime());
+        target.putInt(offset + 20, stats.getMobsKilled());
+        target.putInt(offset + 24, stats.getItemsEaten());
+        target.putInt(offset + 28, stats.getBlocksBroken());
+        target.putInt(offset + 32, stats.getDeaths());
+        target.putInt(offset + 36, stats.getItemsCrafted());
+        target.putInt(offset + 40, stats.getItemsUsed());
+        target.putInt(offset + 44, stats.getChestsOpened());
+        target.putInt(offset + 48, stats.getMessagesSent());
+        target.putDouble(offset + 52, stats.getDistanceTraveled());
+        byte[] name = stats.getPlayerName() == null ? new byte[0]
+                : stats.getPlayerName().getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(name.length, NAME_MAX_BYTES);
+        target.put(offset + NAME_OFFSET, (byte) length);
+        target.put(offset + NAME_OFFSET + 1, name, 0, length);
+    }
+
+    static PlayerStats decode(ByteBuffer source, int offset) {
+        PlayerStats stats = new PlayerStats();
+        stats.setUuid(new UUID(source.getLong(offset), source.getLong(offset + 8)));
+        stats.setPlayTime(source.getInt(offset + 16));
+        stats.setMobsKilled(source.getInt(offset + 20));
+        stats.setItemsEaten(source.getInt(offset + 24));
+        stats.setBlocksBroken(source.getInt(offset + 28));
+        stats.setDeaths(source.getInt(offset + 32));
+        stats.setItemsCrafted(source.getInt(offset + 36));
+        stats.setItemsUsed(source.getInt(offset + 40));
+        stats.setChestsOpened(source.getInt(offset + 44));
+        stats.setMessagesSent(source.getInt(offset + 48));
+        stats.setDistanceTraveled(source.getDouble(offset + 52));
+        int length = source.get(offset + NAME_OFFSET);
+        if (length > 0) {
+            byte[] name = new byte[length];
+            source.get(offset + NAME_OFFSET + 1, name);
+            stats.setPlayerName(new String(name, StandardCharsets.UTF_8));
+        }
+        return stats;
+    }
+
+    @Override
+    public synchronized PlayerStats loadPlayerStats(UUID uuid) {
+        if (buffer == null) {
+            // Файл не открыт - это ошибка чтения, а не новый игрок
+            return null;
+        }
+        Integer slot = index.get(uuid);
+        if (slot != null) {
+            return decode(buffer, offset(slot));
+        }
+        // Запись появится при первом сохранении с ненулевой статистикой
+        PlayerStats newStats = new PlayerStats();
+        newStats.setUuid(uuid);
+        return newStats;
+    }
+
+    @Override
+    public synchronized List<PlayerStats> loadAllPlayers() {
+        List<PlayerStats> statsList = new ArrayList<>(count);
+        for (int slot = 0; slot < count; slot++) {
+            statsList.add(decode(buffer, offset(slot)));
+        }
+        return statsList;
+    }
+
+    // Монитор берётся на каждую запись, так что сохранения идут и во время долгого обхода
+    @Override
+    public boolean forEachPlayer(Consumer<PlayerStats> action) {
+        for (int slot = 0; ; slot++) {
+            PlayerStats stats;
+            synchronized (this) {
+                if (buffer == null) {
+                    return false;
+                }
+                if (slot >= count) {
+                    return true;
+                }
+                stats = decode(buffer, offset(slot));
+            }
+            action.accept(stats);
+        }
+    }
+
+    @Override
+    public List<DailyStats> saveDailyStats(List<DailyStats> deltas) {
+        return daily.add(deltas);
+    }
+
+    @Override
+    public boolean forEachDailyStats(int fromDay, Consumer<DailyStats> action) {
+        return daily.forEach(fromDay, action);
+    }
+
+    @Override
+    public synchronized void saveAllPlayers() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    @Override
+    public void reloadStorage() {
+        // Файл всегда актуален
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (buffer != null) {
+                buffer.force();
+                buffer = null;
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            Bukkit.getLogger().severe("Error closing binary stats storage");
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public List<PlayerStats> getTopStats(StatType statType, int limit) {
+        return IStorage.selectTop(loadAllPlayers(), statType, limit);
+    }
+}
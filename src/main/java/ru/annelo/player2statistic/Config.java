@@ -2,6 +2,7 @@ package ru.annelo.player2statistic;
 
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
+import java.util.UUID;
 import java.util.logging.Logger;
 
 public class Config {
@@ -9,6 +10,8 @@ public class Config {
     private final Logger logger;
 
     private JavaPlugin localPlugin;
+    // display.format, разобранный при загрузке и перезагрузке конфигурации
+    private volatile DisplayTemplate displayTemplate;
 
     public Config(JavaPlugin plugin) {
         config = plugin.getConfig();
@@ -16,6 +19,7 @@ public class Config {
 
         localPlugin = plugin;
         logger = plugin.getLogger();
+        displayTemplate = DisplayTemplate.compile(getDisplayFormat());
     }
 
     // Геттеры для всех настроек из config.yml
@@ -27,6 +31,11 @@ public class Config {
         return config.getInt("autosave.interval");
     }
 
+    // Сколько микросекунд тика автосохранение может занимать в главном потоке
+    public long getAutosaveTickBudgetMicros() {
+        return config.getLong("autosave.tickBudgetMicros", 500);
+    }
+
     public boolean isFeatureEnabled(String feature) {
         return config.getBoolean("features." + feature, true);
     }
@@ -35,9 +44,17 @@ public class Config {
         return config.getString("display.format");
     }
 
+    public DisplayTemplate getDisplayTemplate() {
+        return displayTemplate;
+    }
+
     public boolean isDatabase() {
-        String type = config.getString("storage.type", "file");
-        return "database".equalsIgnoreCase(type);
+        return "database".equals(getStorageType());
+    }
+
+    // file, database или binary
+    public String getStorageType() {
+        return config.getString("storage.type", "file").toLowerCase();
     }
 
     public String getDatabaseHost() {
@@ -60,6 +77,103 @@ public class Config {
         return config.getString("storage.database.password");
     }
 
+    // Аддитивная запись приращений для нескольких серверов с общей базой
+    public boolean isDatabaseAdditive() {
+        return config.getBoolean("storage.database.additive", false);
+    }
+
+    // Идентификатор сервера для журнала пачек; создаётся и сохраняется при первом обращении
+    public String getServerId() {
+        String serverId = config.getString("storage.database.serverId", "");
+        if (serverId == null || serverId.isBlank()) {
+            serverId = UUID.randomUUID().toString();
+            config.set("storage.database.serverId", serverId);
+            localPlugin.saveConfig();
+        }
+        return serverId;
+    }
+
+    // Сколько миллисекунд держать результат топа из базы; 0 - не кэшировать
+    public long getTopCacheMillis() {
+        return Math.max(0, config.getLong("storage.database.topCacheMillis", 5000));
+    }
+
+    // Журнал сохранений для файлового хранилища
+    public boolean isFileJournalEnabled() {
+        return config.getBoolean("storage.file.journal", false);
+    }
+
+    // Период переноса журнала в файлы игроков в секундах
+    public long getJournalCompactInterval() {
+        return Math.max(1, config.getLong("storage.file.compactInterval", 300));
+    }
+
+    // Сколько игроков записывается одной пачкой
+    public int getWriteChunkSize() {
+        return config.getInt("storage.writeBehind.chunkSize", 200);
+    }
+
+    // Сколько секунд выключение ждёт записи; остальное уходит в recovery.json
+    public long getShutdownTimeoutSeconds() {
+        return config.getLong("storage.writeBehind.shutdownTimeout", 20);
+    }
+
+    // Задержка фоновой записи в миллисекундах
+    public long getWriteFlushInterval() {
+        return config.getLong("storage.writeBehind.flushInterval", 1000);
+    }
+
+    // Потоки для работы с хранилищем (загрузка, запись, построение топа)
+    public int getIoThreads() {
+        return config.getInt("storage.io.threads", 2);
+    }
+
+    public int getIoQueueSize() {
+        return config.getInt("storage.io.queueSize", 1000);
+    }
+
+    // caller-runs, discard-oldest или defer
+    public PersistenceExecutor.OverflowPolicy getIoOverflowPolicy() {
+        return PersistenceExecutor.OverflowPolicy.parse(config.getString("storage.io.overflow", "defer"));
+    }
+
+    public boolean isIoVirtualThreads() {
+        return config.getBoolean("storage.io.virtualThreads", false);
+    }
+
+    // Сколько вышедших игроков держать в памяти; 0 - выгружать сразу при выходе
+    public int getRecentCacheSize() {
+        return config.getInt("cache.recent.maxEntries", 500);
+    }
+
+    // Через сколько секунд после выхода игрок вытесняется из памяти
+    public long getRecentCacheIdleSeconds() {
+        return config.getLong("cache.recent.idleSeconds", 600);
+    }
+
+    // Сколько потоков пишут пачки при /stats dbtype
+    public int getMigrationParallelism() {
+        return config.getInt("storage.migration.parallelism", 4);
+    }
+
+    public int getMigrationBatchSize() {
+        return config.getInt("storage.migration.batchSize", 500);
+    }
+
+    // Как часто сообщать о ходе миграции, в секундах
+    public int getMigrationProgressInterval() {
+        return config.getInt("storage.migration.progressInterval", 5);
+    }
+
+    // HTTP-эндпоинт /metrics в формате Prometheus (только localhost)
+    public boolean isMetricsHttpEnabled() {
+        return config.getBoolean("metrics.http.enabled", false);
+    }
+
+    public int getMetricsHttpPort() {
+        return config.getInt("metrics.http.port", 9464);
+    }
+
     public String getLogPath() {
         return config.getString("log.path");
     }
@@ -81,6 +195,11 @@ public class Config {
         return isFeatureEnabled("movementTracking");
     }
 
+    // Период выборки позиций игроков в тиках; 0 - считать расстояние в каждом PlayerMoveEvent
+    public int getMovementSampleTicks() {
+        return config.getInt("features.movementSampleTicks", 10);
+    }
+
     public boolean isEnableChestOpening() {
         return isFeatureEnabled("chestOpening");
     }
@@ -97,13 +216,27 @@ public class Config {
         return isFeatureEnabled("messagesSent");
     }
 
+    public boolean isEnableDeaths() {
+        return isFeatureEnabled("deaths");
+    }
+
+    public boolean isEnableCrafting() {
+        return isFeatureEnabled("crafting");
+    }
+
+    // Правый клик с предметом в основной руке
+    public boolean isEnableItemUsage() {
+        return isFeatureEnabled("itemUsage");
+    }
+
     public void reload() {
         localPlugin.reloadConfig();
         config = localPlugin.getConfig();
+        displayTemplate = DisplayTemplate.compile(getDisplayFormat());
     }
 
-    public void setDatabase(boolean isDatabase) {
-        config.set("storage.type", isDatabase ? "database" : "file");
+    public void setStorageType(String type) {
+        config.set("storage.type", type);
     }
 
     public void save() {
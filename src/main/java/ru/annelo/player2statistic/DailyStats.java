@@ -0,0 +1,17 @@
+package ru.annelo.player2statistic;
+
+import java.util.UUID;
+
+// Приращения статистики игрока за один день (номер дня от 1970-01-01 по времени сервера).
+// values индексированы как поля StatCounters, расстояние - в его фиксированной точке
+final class DailyStats {
+    final UUID uuid;
+    final int day;
+    final long[] values;
+
+    DailyStats(UUID uuid, int day, long[] values) {
+        this.uuid = uuid;
+        this.day = day;
+        this.values = values;
+    }
+}
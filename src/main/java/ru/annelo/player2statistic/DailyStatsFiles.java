@@ -0,0 +1,146 @@
+package ru.annelo.player2statistic;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import org.bukkit.Bukkit;
+
+// Дневные приращения для файловых хранилищ: файл <uuid>.daily рядом с данными игрока, по строке
+// на день ("день v0 v1 ... v9"). Хранятся только дни, ещё попадающие в самое длинное окно.
+final class DailyStatsFiles {
+    private static final String SUFFIX = ".daily";
+
+    private final Path dir;
+
+    DailyStatsFiles(Path dir) {
+        this.dir = dir;
+    }
+
+    // Приращения добавляются к тому, что уже записано за этот день. Файлы пишутся по одному:
+    // возвращаются приращения игроков, чей файл не записан, - повтор только их не удвоит
+    // уже записанные дни
+    synchronized List<DailyStats> add(List<DailyStats> deltas) {
+        Map<UUID, List<DailyStats>> byPlayer = new LinkedHashMap<>();
+        int newestDay = Integer.MIN_VALUE;
+        for (DailyStats delta : deltas) {
+            byPlayer.computeIfAbsent(delta.uuid, k -> new ArrayList<>()).add(delta);
+            newestDay = Math.max(newestDay, delta.day);
+        }
+        int oldestKept = newestDay - WindowedStats.DAYS + 1;
+        List<UUID> written = new ArrayList<>(byPlayer.size());
+        try {
+            Files.createDirectories(dir);
+            for (Map.Entry<UUID, List<DailyStats>> entry : byPlayer.entrySet()) {
+                Path file = dir.resolve(entry.getKey() + SUFFIX);
+                TreeMap<Integer, long[]> days = read(file);
+                for (DailyStats delta : entry.getValue()) {
+                    long[] values = days.computeIfAbsent(delta.day,
+                            d -> new long[StatCounters.FIELD_COUNT]);
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] += delta.values[i];
+                    }
+                }
+                days.headMap(oldestKept).clear();
+                write(file, days);
+                written.add(entry.getKey());
+            }
+            return Collections.emptyList();
+        } catch (IOException e) {
+            Bukkit.getLogger().severe("Error saving daily stats for "
+                    + (byPlayer.size() - written.size()) + " players");
+            e.printStackTrace();
+            byPlayer.keySet().removeAll(written);
+            List<DailyStats> unsaved = new ArrayList<>();
+            for (List<DailyStats> player : byPlayer.values()) {
+                unsaved.addAll(player);
+            }
+            return unsaved;
+        }
+    }
+
+    synchronized boolean forEach(int fromDay, Consumer<DailyStats> action) {
+        if (!Files.isDirectory(dir)) {
+            return true;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                UUID uuid;
+                try {
+                    uuid = UUID.fromString(name.substring(0, name.length() - SUFFIX.length()));
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                for (Map.Entry<Integer, long[]> day : read(file).tailMap(fromDay).entrySet()) {
+                    action.accept(new DailyStats(uuid, day.getKey(), day.getValue()));
+                }
+            }
+            return true;
+        } catch (IOException | DirectoryIteratorException e) {
+            Bukkit.getLogger().severe("Error reading daily stats from " + dir);
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Повреждённые строки пропускаются
+    private static TreeMap<Integer, long[]> read(Path file) throws IOException {
+        TreeMap<Integer, long[]> days = new TreeMap<>();
+        if (!Files.exists(file)) {
+            return days;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length != StatCounters.FIELD_COUNT + 1) {
+                    continue;
+                }
+                try {
+                    long[] values = new long[StatCounters.FIELD_COUNT];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = Long.parseLong(parts[i + 1]);
+                    }
+                    days.put(Integer.parseInt(parts[0]), values);
+                } catch (NumberFormatException e) {
+                    // неполная строка
+                }
+            }
+        }
+        return days;
+    }
+
+    private static void write(Path file, TreeMap<Integer, long[]> days) throws IOException {
+        if (days.isEmpty()) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.US_ASCII)) {
+            for (Map.Entry<Integer, long[]> day : days.entrySet()) {
+                writer.write(Integer.toString(day.getKey()));
+                for (long value : day.getValue()) {
+                    writer.write(' ');
+                    writer.write(Long.toString(value));
+                }
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
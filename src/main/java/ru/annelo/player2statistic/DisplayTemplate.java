@@ -0,0 +1,115 @@
+package ru.annelo.player2statistic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.md_5.bungee.api.ChatColor;
+
+// Формат display.format, разобранный один раз при загрузке конфигурации: чередование готового
+// текста (цвета уже переведены из &-кодов) и плейсхолдеров. Вывод - один проход по сегментам
+// в один StringBuilder. Неизвестные {имена} остаются в тексте как есть.
+final class DisplayTemplate {
+    // Плейсхолдер имени игрока; остальные - индексы полей StatCounters
+    static final int PLAYER_NAME = -1;
+    static final int UNKNOWN = -2;
+
+    // {player_name}, колонки StatType ({play_time}, {items_eaten}, ...) и короткий {distance}
+    private static final Map<String, Integer> PLACEHOLDERS = new HashMap<>();
+
+    static {
+        PLACEHOLDERS.put("player_name", PLAYER_NAME);
+        for (StatType type : StatType.values()) {
+            PLACEHOLDERS.put(type.column, type.field);
+        }
+        PLACEHOLDERS.put("distance", StatCounters.DISTANCE_TRAVELED);
+    }
+
+    // literals[i] идёт перед плейсхолдером fields[i]; последний литерал - хвост после них
+    private final String[] literals;
+    private final int[] fields;
+    private final int literalLength;
+
+    private DisplayTemplate(String[] literals, int[] fields) {
+        this.literals = literals;
+        this.fields = fields;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    static DisplayTemplate compile(String format) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> fields = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        String source = format != null ? format : "";
+        int position = 0;
+        while (position < source.length()) {
+            int open = source.indexOf('{', position);
+            int close = open >= 0 ? source.indexOf('}', open + 1) : -1;
+            if (close < 0) {
+                literal.append(source, position, source.length());
+                break;
+            }
+            literal.append(source, position, open);
+            int field = placeholder(source.substring(open + 1, close));
+            if (field == UNKNOWN) {
+                literal.append(source, open, close + 1);
+            } else {
+                literals.add(ChatColor.translateAlternateColorCodes('&', literal.toString()));
+                fields.add(field);
+                literal.setLength(0);
+            }
+            position = close + 1;
+        }
+        literals.add(ChatColor.translateAlternateColorCodes('&', literal.toString()));
+
+        int[] fieldArray = new int[fields.size()];
+        for (int i = 0; i < fieldArray.length; i++) {
+            fieldArray[i] = fields.get(i);
+        }
+        return new DisplayTemplate(literals.toArray(new String[0]), fieldArray);
+    }
+
+    // Поле StatCounters, PLAYER_NAME или UNKNOWN
+    static int placeholder(String name) {
+        Integer field = PLACEHOLDERS.get(name);
+        return field != null ? field : UNKNOWN;
+    }
+
+    String render(PlayerStats stats) {
+        // Числа и ник редко длиннее 16 символов
+        StringBuilder out = new StringBuilder(literalLength + fields.length * 16);
+        for (int i = 0; i < fields.length; i++) {
+            out.append(literals[i]);
+            if (fields[i] == PLAYER_NAME) {
+                out.append(stats.getPlayerName());
+            } else {
+                appendValue(out, fields[i], stats.getValue(fields[i]));
+            }
+        }
+        return out.append(literals[fields.length]).toString();
+    }
+
+    // Значение без единиц измерения; расстояние - в блоках с двумя знаками после точки
+    static void appendValue(StringBuilder out, int field, long value) {
+        if (field != StatCounters.DISTANCE_TRAVELED) {
+            out.append(value);
+            return;
+        }
+        long hundredths = Math.round(value * 100 / StatCounters.DISTANCE_SCALE);
+        if (hundredths < 0) {
+            out.append('-');
+            hundredths = -hundredths;
+        }
+        long fraction = hundredths % 100;
+        out.append(hundredths / 100).append('.');
+        if (fraction < 10) {
+            out.append('0');
+        }
+        out.append(fraction);
+    }
+}
@@ -0,0 +1,107 @@
+package ru.annelo.player2statistic;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// In-memory leaderboards for every StatType, so /stats top does not read storage. Built once from
+// storage, then fed with snapshots of online players and with every write that lands.
+// Stats only grow, so an update never lowers a value that is already indexed.
+final class LeaderboardIndex {
+    private final Map<StatType, RankTree> trees = new EnumMap<>(StatType.class);
+    private final Map<UUID, Indexed> players = new HashMap<>();
+    private volatile boolean ready;
+
+    LeaderboardIndex() {
+        for (StatType type : StatType.values()) {
+            trees.put(type, new RankTree());
+        }
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    void markReady() {
+        ready = true;
+    }
+
+    synchronized void update(PlayerStats stats) {
+        long[] values = StatCounters.fields(stats);
+        Indexed indexed = players.get(stats.getUuid());
+        if (indexed == null) {
+            indexed = new Indexed(new long[StatCounters.FIELD_COUNT]);
+            players.put(stats.getUuid(), indexed);
+        }
+        if (stats.getPlayerName() != null) {
+            indexed.name = stats.getPlayerName();
+        }
+        for (Map.Entry<StatType, RankTree> entry : trees.entrySet()) {
+            int field = entry.getKey().field;
+            long current = indexed.values[field];
+            long value = values[field];
+            if (value <= current) {
+                continue;
+            }
+            RankTree tree = entry.getValue();
+            if (current > 0) {
+                tree.remove(current, stats.getUuid());
+            }
+            tree.insert(value, stats.getUuid());
+            indexed.values[field] = value;
+        }
+    }
+
+    // Only players with a non-zero value are ranked
+    synchronized List<PlayerStats> top(StatType type, int limit) {
+        RankTree tree = trees.get(type);
+        List<RankTree.Entry> entries = tree.top(limit > 0 ? limit : tree.size());
+        List<PlayerStats> result = new ArrayList<>(entries.size());
+        for (RankTree.Entry entry : entries) {
+            result.add(toStats(type, entry));
+        }
+        return result;
+    }
+
+    // Position of the player and up to radius neighbours on each side, O(radius * log n)
+    synchronized StatRank rank(StatType type, UUID uuid, int radius) {
+        Indexed indexed = players.get(uuid);
+        long value = indexed != null ? indexed.values[type.field] : 0;
+        if (value <= 0) {
+            return StatRank.UNRANKED;
+        }
+        RankTree tree = trees.get(type);
+        int rank = tree.rank(value, uuid);
+        int first = Math.max(1, rank - radius);
+        List<PlayerStats> rows = new ArrayList<>(2 * radius + 1);
+        for (int position = first; position <= rank + radius; position++) {
+            RankTree.Entry entry = tree.get(position);
+            if (entry == null) {
+                break;
+            }
+            rows.add(toStats(type, entry));
+        }
+        return new StatRank(rank, first, rows);
+    }
+
+    private PlayerStats toStats(StatType type, RankTree.Entry entry) {
+        long[] values = new long[StatCounters.FIELD_COUNT];
+        values[type.field] = entry.value();
+        PlayerStats stats = StatCounters.fromFields(values);
+        stats.setUuid(entry.uuid());
+        stats.setPlayerName(players.get(entry.uuid()).name);
+        return stats;
+    }
+
+    private static final class Indexed {
+        private final long[] values;
+        private String name;
+
+        private Indexed(long[] values) {
+            this.values = values;
+        }
+    }
+}
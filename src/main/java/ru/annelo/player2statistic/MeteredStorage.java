@@ -0,0 +1,154 @@
+package ru.annelo.player2statistic;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+// Обёртка хранилища, замеряющая загрузку, запись и топ. Гистограммы с меткой типа хранилища
+// создаются один раз, при смене хранилища командой /stats dbtype пишутся в свои.
+final class MeteredStorage implements IStorage {
+    private final IStorage delegate;
+    private final StatsMetrics.Histogram load;
+    private final StatsMetrics.Histogram save;
+    private final StatsMetrics.Histogram top;
+    private final StatsMetrics.Histogram lookup;
+
+    MeteredStorage(IStorage delegate, StatsMetrics metrics, String backend) {
+        this.delegate = delegate;
+        this.load = metrics.histogram("stats_storage_load_seconds",
+                "Player load latency by storage backend", "backend", backend);
+        this.save = metrics.histogram("stats_storage_save_seconds",
+                "Save latency (single player or batch) by storage backend", "backend", backend);
+        this.top = metrics.histogram("stats_storage_top_seconds",
+                "Leaderboard query latency by storage backend", "backend", backend);
+        this.lookup = metrics.histogram("stats_storage_lookup_seconds",
+                "Player lookup by name latency by storage backend", "backend", backend);
+    }
+
+    @Override
+    public void savePlayerStats(PlayerStats stats) {
+        long start = System.nanoTime();
+        try {
+            delegate.savePlayerStats(stats);
+        } finally {
+            save.recordSince(start);
+        }
+    }
+
+    @Override
+    public boolean savePlayerStatsBatch(List<PlayerStats> batch) {
+        long start = System.nanoTime();
+        try {
+            return delegate.savePlayerStatsBatch(batch);
+        } finally {
+            save.recordSince(start);
+        }
+    }
+
+    @Override
+    public boolean isAdditive() {
+        return delegate.isAdditive();
+    }
+
+    @Override
+    public boolean applyDeltas(long sequence, List<PlayerStats> deltas) {
+        long start = System.nanoTime();
+        try {
+            return delegate.applyDeltas(sequence, deltas);
+        } finally {
+            save.recordSince(start);
+        }
+    }
+
+    @Override
+    public long lastCommittedSequence() {
+        return delegate.lastCommittedSequence();
+    }
+
+    @Override
+    public PlayerStats loadPlayerStats(UUID uuid) {
+        long start = System.nanoTime();
+        try {
+            return delegate.loadPlayerStats(uuid);
+        } finally {
+            load.recordSince(start);
+        }
+    }
+
+    @Override
+    public UUID findPlayerByName(String playerName) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findPlayerByName(playerName);
+        } finally {
+            lookup.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<PlayerStats> loadAllPlayers() {
+        return delegate.loadAllPlayers();
+    }
+
+    @Override
+    public boolean forEachPlayer(Consumer<PlayerStats> action) {
+        return delegate.forEachPlayer(action);
+    }
+
+    @Override
+    public void saveAllPlayers() {
+        delegate.saveAllPlayers();
+    }
+
+    @Override
+    public void reloadStorage() {
+        delegate.reloadStorage();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public List<PlayerStats> getTopStats(StatType statType, int limit) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getTopStats(statType, limit);
+        } finally {
+            top.recordSince(start);
+        }
+    }
+
+    @Override
+    public StatRank getRank(StatType statType, UUID uuid, int radius) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRank(statType, uuid, radius);
+        } finally {
+            top.recordSince(start);
+        }
+    }
+
+    @Override
+    public boolean hasFastTopQueries() {
+        return delegate.hasFastTopQueries();
+    }
+
+    @Override
+    public List<DailyStats> saveDailyStats(List<DailyStats> deltas) {
+        return delegate.saveDailyStats(deltas);
+    }
+
+    @Override
+    public boolean forEachDailyStats(int fromDay, Consumer<DailyStats> action) {
+        return delegate.forEachDailyStats(fromDay, action);
+    }
+
+    @Override
+    public HikariPoolMXBean connectionPool() {
+        return delegate.connectionPool();
+    }
+}
@@ -0,0 +1,99 @@
+package ru.annelo.player2statistic;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+// Samples player positions every few ticks instead of doing distance math in every
+// PlayerMoveEvent. Runs on the main thread only, together with the events that feed it.
+// A sample is the straight line between two positions, so a path that curves within one
+// period counts a little shorter than per-event counting would.
+final class MovementTracker implements Runnable {
+    private final StatsManager statsManager;
+    private final Map<UUID, Sample> samples = new HashMap<>();
+    private final Location scratch = new Location(null, 0, 0, 0);
+
+    MovementTracker(StatsManager statsManager) {
+        this.statsManager = statsManager;
+    }
+
+    @Override
+    public void run() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            sample(player);
+        }
+    }
+
+    // Counts the way walked up to the teleport origin and restarts sampling at the target,
+    // so the jump itself is never added
+    void teleported(UUID uuid, Location from, Location to) {
+        fold(uuid, from);
+        Sample sample = samples.get(uuid);
+        if (sample != null) {
+            sample.set(to);
+        }
+    }
+
+    void quit(Player player) {
+        sample(player);
+        samples.remove(player.getUniqueId());
+    }
+
+    // PlayerMoveEvent does not fire for a passenger, so a ride is not counted either: the
+    // sample only follows the vehicle and counting resumes where the player got off
+    private void sample(Player player) {
+        Location location = player.getLocation(scratch);
+        if (!player.isInsideVehicle()) {
+            fold(player.getUniqueId(), location);
+            return;
+        }
+        Sample sample = samples.get(player.getUniqueId());
+        if (sample != null) {
+            sample.set(location);
+        } else {
+            samples.put(player.getUniqueId(), new Sample(location));
+        }
+    }
+
+    private void fold(UUID uuid, Location location) {
+        Sample sample = samples.get(uuid);
+        if (sample == null) {
+            samples.put(uuid, new Sample(location));
+            return;
+        }
+        // A world change is a teleport we did not see: restart from the new position
+        if (sample.world == location.getWorld()) {
+            double dx = location.getX() - sample.x;
+            double dy = location.getY() - sample.y;
+            double dz = location.getZ() - sample.z;
+            double distanceSquared = dx * dx + dy * dy + dz * dz;
+            if (distanceSquared > 0) {
+                statsManager.addDistanceTraveled(uuid, Math.sqrt(distanceSquared));
+            }
+        }
+        sample.set(location);
+    }
+
+    private static final class Sample {
+        private World world;
+        private double x;
+        private double y;
+        private double z;
+
+        private Sample(Location location) {
+            set(location);
+        }
+
+        private void set(Location location) {
+            world = location.getWorld();
+            x = location.getX();
+            y = location.getY();
+            z = location.getZ();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package ru.annelo.player2statistic;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.bukkit.Bukkit;
+
+// Ники по UUID для топов и обратный индекс ника без учёта регистра для /stats player:
+// пополняется при входе игроков и из загруженной статистики, хранится в names.txt
+// ("uuid ник" на строку). Чтение никогда не блокируется; файл читается и пишется только
+// в потоках хранилища.
+final class NameCache {
+    // null - только в памяти
+    private final Path file;
+    private final Map<UUID, String> names = new ConcurrentHashMap<>();
+    // Ник в нижнем регистре -> UUID; при совпадении ников побеждает последний вошедший
+    private final Map<String, UUID> byName = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+    private volatile boolean loaded;
+
+    NameCache(Path file) {
+        this.file = file;
+        this.loaded = file == null;
+    }
+
+    String get(UUID uuid) {
+        return names.get(uuid);
+    }
+
+    // null - ник не встречался
+    UUID find(String name) {
+        return byName.get(key(name));
+    }
+
+    // Свежий ник, например при входе игрока
+    void put(UUID uuid, String name) {
+        if (name == null) {
+            return;
+        }
+        String previous = names.put(uuid, name);
+        if (!name.equals(previous)) {
+            if (previous != null) {
+                byName.remove(key(previous), uuid);
+            }
+            byName.put(key(name), uuid);
+            dirty = true;
+        }
+    }
+
+    // Ник из хранилища может быть старше уже известного
+    void putIfAbsent(UUID uuid, String name) {
+        if (remember(uuid, name)) {
+            dirty = true;
+        }
+    }
+
+    private boolean remember(UUID uuid, String name) {
+        if (name == null || names.putIfAbsent(uuid, name) != null) {
+            return false;
+        }
+        byName.putIfAbsent(key(name), uuid);
+        return true;
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    // Ники, запомненные до окончания загрузки, новее файла и не перезаписываются.
+    // Повреждённые строки пропускаются
+    synchronized boolean load() {
+        if (loaded) {
+            return true;
+        }
+        try {
+            if (Files.exists(file)) {
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int space = line.indexOf(' ');
+                        if (space <= 0 || space == line.length() - 1) {
+                            continue;
+                        }
+                        try {
+                            remember(UUID.fromString(line.substring(0, space)),
+                                    line.substring(space + 1));
+                        } catch (IllegalArgumentException e) {
+                            // неполная строка
+                        }
+                    }
+                }
+            }
+            loaded = true;
+            return true;
+        } catch (IOException e) {
+            Bukkit.getLogger().severe("Error loading player names from " + file);
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Пишется только загруженный индекс: иначе файл потерял бы ещё не прочитанные ники
+    synchronized boolean save() {
+        if (file == null || !loaded || !dirty) {
+            return true;
+        }
+        dirty = false;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<UUID, String> entry : names.entrySet()) {
+                    writer.write(entry.getKey().toString());
+                    writer.write(' ');
+                    writer.write(entry.getValue());
+                    writer.newLine();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            dirty = true;
+            Bukkit.getLogger().severe("Error saving player names to " + file);
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Проставляет ники строкам топа: сначала из индекса (он новее ника в хранилище), затем
+    // ник строки, затем fallback. Вызывается не в главном потоке: fallback может читать диск
+    void fill(List<PlayerStats> rows, Function<UUID, String> fallback) {
+        for (PlayerStats row : rows) {
+            UUID uuid = row.getUuid();
+            String name = names.get(uuid);
+            if (name == null) {
+                name = row.getPlayerName();
+                if (name == null) {
+                    name = fallback.apply(uuid);
+                }
+                putIfAbsent(uuid, name);
+            }
+            row.setPlayerName(name);
+        }
+    }
+}
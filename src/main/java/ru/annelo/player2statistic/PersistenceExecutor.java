@@ -0,0 +1,166 @@
+package ru.annelo.player2statistic;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.bukkit.Bukkit;
+
+// Собственные потоки плагина для работы с хранилищем вместо общего асинхронного пула Bukkit.
+// Число потоков и длина очереди ограничены; задача с ключом, который уже ждёт в очереди, не
+// добавляется второй раз - задачи читают состояние в момент выполнения, так что выполнится
+// одна, с самыми свежими данными.
+final class PersistenceExecutor {
+    enum OverflowPolicy {
+        // Задача выполняется в вызывающем потоке; из главного потока сервера - как DEFER,
+        // чтобы загрузка или запись в хранилище не останавливала тик
+        CALLER_RUNS,
+        // Из очереди выбрасывается самая старая задача
+        DISCARD_OLDEST,
+        // Новая задача не ставится в очередь, владелец повторит её позже
+        DEFER;
+
+        static OverflowPolicy parse(String value) {
+            switch (value == null ? "" : value.toLowerCase()) {
+                case "caller-runs": return CALLER_RUNS;
+                case "discard-oldest": return DISCARD_OLDEST;
+                default: return DEFER;
+            }
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final OverflowPolicy policy;
+    private final Map<Object, Task> queued = new ConcurrentHashMap<>();
+    private final BooleanSupplier mainThread;
+
+    PersistenceExecutor(int threads, int queueSize, OverflowPolicy policy, boolean virtualThreads) {
+        this(threads, queueSize, policy, virtualThreads, Bukkit::isPrimaryThread);
+    }
+
+    PersistenceExecutor(int threads, int queueSize, OverflowPolicy policy, boolean virtualThreads,
+            BooleanSupplier mainThread) {
+        this.policy = policy;
+        this.mainThread = mainThread;
+        int size = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(size, size, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), threadFactory(virtualThreads),
+                new Overflow());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory threadFactory(boolean virtualThreads) {
+        if (virtualThreads) {
+            // Виртуальные потоки дёшевы, но одновременно их работает не больше threads
+            return Thread.ofVirtual().name("StatsPlugin-io-", 1).factory();
+        }
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "StatsPlugin-io-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // onDiscard вызывается, если задача так и не будет выполнена: переполнение или остановка
+    void submit(Object key, Runnable action, Runnable onDiscard) {
+        Task task = new Task(key, action, onDiscard);
+        if (queued.putIfAbsent(key, task) != null) {
+            return;
+        }
+        executor.execute(task);
+    }
+
+    int queueSize() {
+        return executor.getQueue().size();
+    }
+
+    // Дожидается задач, которые уже выполняются; ожидающие в очереди отбрасываются
+    void close() {
+        close(TimeUnit.SECONDS.toNanos(10));
+    }
+
+    // Задачи из очереди отбрасываются, выполняющиеся ждут не дольше timeoutNanos
+    void close(long timeoutNanos) {
+        executor.shutdown();
+        for (Runnable task : executor.getQueue().toArray(new Runnable[0])) {
+            if (executor.remove(task)) {
+                discard((Task) task);
+            }
+        }
+        try {
+            if (!executor.awaitTermination(Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS)) {
+                Bukkit.getLogger().warning("Stats I/O tasks did not finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void discard(Task task) {
+        queued.remove(task.key, task);
+        if (task.onDiscard != null) {
+            task.onDiscard.run();
+        }
+    }
+
+    private final class Overflow implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor pool) {
+            Task task = (Task) runnable;
+            if (pool.isShutdown()) {
+                discard(task);
+                return;
+            }
+            switch (policy) {
+                case CALLER_RUNS:
+                    if (mainThread.getAsBoolean()) {
+                        discard(task);
+                    } else {
+                        task.run();
+                    }
+                    break;
+                case DISCARD_OLDEST:
+                    Runnable oldest = pool.getQueue().poll();
+                    if (oldest != null) {
+                        discard((Task) oldest);
+                    }
+                    pool.execute(task);
+                    break;
+                default:
+                    discard(task);
+                    break;
+            }
+        }
+    }
+
+    private final class Task implements Runnable {
+        private final Object key;
+        private final Runnable action;
+        private final Runnable onDiscard;
+
+        private Task(Object key, Runnable action, Runnable onDiscard) {
+            this.key = key;
+            this.action = action;
+            this.onDiscard = onDiscard;
+        }
+
+        @Override
+        public void run() {
+            // Изменения после этого момента уже требуют новой задачи
+            queued.remove(key, this);
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                Bukkit.getLogger().severe("Error in stats I/O task " + key);
+                e.printStackTrace();
+            }
+        }
+    }
+}
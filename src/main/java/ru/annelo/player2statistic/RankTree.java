@@ -0,0 +1,166 @@
+package ru.annelo.player2statistic;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Order-statistic treap of (value, uuid) pairs, highest value first. Besides insert and remove it
+// answers "first N" in O(N + log n) and "position of a key" in O(log n). Not thread-safe.
+final class RankTree {
+    private Node root;
+
+    record Entry(UUID uuid, long value) {
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    void insert(long value, UUID uuid) {
+        Node[] parts = split(root, value, uuid);
+        root = merge(merge(parts[0], new Node(value, uuid)), parts[1]);
+    }
+
+    void remove(long value, UUID uuid) {
+        Node[] parts = split(root, value, uuid);
+        Node rest = parts[1];
+        if (rest != null && compare(value, uuid, first(rest)) == 0) {
+            rest = removeFirst(rest);
+        }
+        root = merge(parts[0], rest);
+    }
+
+    List<Entry> top(int limit) {
+        List<Entry> result = new ArrayList<>(Math.min(limit, size()));
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        Node node = root;
+        while ((node != null || !stack.isEmpty()) && result.size() < limit) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+            node = stack.pop();
+            result.add(new Entry(node.uuid, node.value));
+            node = node.right;
+        }
+        return result;
+    }
+
+    // 1-based position of the key, or 0 if it is not in the tree
+    int rank(long value, UUID uuid) {
+        int before = 0;
+        Node node = root;
+        while (node != null) {
+            int cmp = compare(value, uuid, node);
+            if (cmp < 0) {
+                node = node.left;
+            } else if (cmp > 0) {
+                before += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return before + size(node.left) + 1;
+            }
+        }
+        return 0;
+    }
+
+    // Entry at a 1-based position, or null if out of range
+    Entry get(int rank) {
+        int index = rank - 1;
+        Node node = root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return new Entry(node.uuid, node.value);
+            }
+        }
+        return null;
+    }
+
+    // Negative when the key ranks before the node
+    private static int compare(long value, UUID uuid, Node node) {
+        int cmp = Long.compare(node.value, value);
+        return cmp != 0 ? cmp : uuid.compareTo(node.uuid);
+    }
+
+    // Splits into keys ranked before (value, uuid) and the rest
+    private static Node[] split(Node node, long value, UUID uuid) {
+        if (node == null) {
+            return new Node[2];
+        }
+        if (compare(value, uuid, node) > 0) {
+            Node[] parts = split(node.right, value, uuid);
+            node.right = parts[0];
+            node.update();
+            parts[0] = node;
+            return parts;
+        }
+        Node[] parts = split(node.left, value, uuid);
+        node.left = parts[1];
+        node.update();
+        parts[1] = node;
+        return parts;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private static Node first(Node node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private static Node removeFirst(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        node.left = removeFirst(node.left);
+        node.update();
+        return node;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node {
+        private final long value;
+        private final UUID uuid;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private Node left;
+        private Node right;
+        private int size = 1;
+
+        private Node(long value, UUID uuid) {
+            this.value = value;
+            this.uuid = uuid;
+        }
+
+        private void update() {
+            size = 1 + RankTree.size(left) + RankTree.size(right);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ru.annelo.player2statistic;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+// Изменения, не дошедшие до хранилища к сроку выключения: recovery.json в папке плагина.
+// Читается при следующем запуске до первой загрузки игроков и удаляется, когда всё записано.
+// Формат: {"chunks": [{"kind": "snapshots", "sequence": 0, "stats": [<как файл игрока>]}]}
+final class RecoveryFile {
+    enum Kind {
+        // Абсолютные значения, записываются поверх хранилища
+        SNAPSHOTS,
+        // Приращения, прибавляются к хранилищу. sequence > 0 - номер пачки аддитивного режима,
+        // повтор которого хранилище пропустит; 0 - номер ещё не назначен
+        DELTAS
+    }
+
+    static final class Chunk {
+        final Kind kind;
+        final long sequence;
+        final List<PlayerStats> stats;
+
+        Chunk(Kind kind, long sequence, List<PlayerStats> stats) {
+            this.kind = kind;
+            this.sequence = sequence;
+            this.stats = stats;
+        }
+    }
+
+    private final Path file;
+
+    RecoveryFile(Path file) {
+        this.file = file;
+    }
+
+    boolean exists() {
+        return Files.exists(file);
+    }
+
+    // Пишется во временный файл, сбрасывается на диск и атомарно подменяет прежний
+    void write(List<Chunk> chunks) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter buffered = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8);
+             JsonWriter out = new JsonWriter(buffered)) {
+            out.beginObject().name("chunks").beginArray();
+            for (Chunk chunk : chunks) {
+                out.beginObject();
+                out.name("kind").value(chunk.kind.name().toLowerCase());
+                out.name("sequence").value(chunk.sequence);
+                out.name("stats").beginArray();
+                for (PlayerStats stats : chunk.stats) {
+                    StatsJsonCodec.write(out, stats);
+                }
+                out.endArray().endObject();
+            }
+            out.endArray().endObject();
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    List<Chunk> read() throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             JsonReader in = new JsonReader(reader)) {
+            in.beginObject();
+            while (in.hasNext()) {
+                if (!in.nextName().equals("chunks")) {
+                    in.skipValue();
+                    continue;
+                }
+                in.beginArray();
+                while (in.hasNext()) {
+                    chunks.add(readChunk(in));
+                }
+                in.endArray();
+            }
+            in.endObject();
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Malformed recovery file " + file, e);
+        }
+        return chunks;
+    }
+
+    private static Chunk readChunk(JsonReader in) throws IOException {
+        Kind kind = Kind.SNAPSHOTS;
+        long sequence = 0;
+        List<PlayerStats> stats = new ArrayList<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "kind" -> kind = Kind.valueOf(in.nextString().toUpperCase());
+                case "sequence" -> sequence = in.nextLong();
+                case "stats" -> {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        stats.add(StatsJsonCodec.read(in, null));
+                    }
+                    in.endArray();
+                }
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Chunk(kind, sequence, stats);
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
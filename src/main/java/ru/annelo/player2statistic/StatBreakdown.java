@@ -0,0 +1,281 @@
+package ru.annelo.player2statistic;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.bukkit.Material;
+import org.bukkit.entity.EntityType;
+
+// Разбивки счётчиков по виду блока или моба. Ключ в памяти - ordinal константы, в хранилище -
+// её имя: ordinal меняется между версиями Minecraft, имя - нет
+enum BreakdownType {
+    BLOCKS_BROKEN("blocks", Material.class),
+    MOBS_KILLED("kills", EntityType.class);
+
+    static final int COUNT = values().length;
+
+    // Имя разбивки в JSON и в таблице player_stats_breakdown
+    final String key;
+    private final Enum<?>[] constants;
+    private final Map<String, Integer> ordinals = new HashMap<>();
+
+    BreakdownType(String key, Class<? extends Enum<?>> type) {
+        this.key = key;
+        this.constants = type.getEnumConstants();
+        for (Enum<?> constant : constants) {
+            ordinals.put(constant.name(), constant.ordinal());
+        }
+    }
+
+    // Число констант: ordinal всегда меньше
+    int size() {
+        return constants.length;
+    }
+
+    String name(int ordinal) {
+        return constants[ordinal].name();
+    }
+
+    // -1 - такой константы в этой версии сервера нет
+    int ordinal(String name) {
+        Integer ordinal = ordinals.get(name);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    static BreakdownType byKey(String key) {
+        for (BreakdownType type : values()) {
+            if (type.key.equals(key)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
+
+// Счётчики по ordinal без упаковки: открытая адресация с линейным пробированием в массивах
+// int/long. Память растёт только с числом ненулевых ключей. Копия, снятая snapshot, помнит,
+// какие ключи изменились с последней записи - как changedFields у PlayerStats.
+final class StatBreakdown {
+    interface EntryConsumer {
+        void accept(int key, long value);
+    }
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    // ordinal + 1; 0 - пустая ячейка
+    private int[] keys;
+    private long[] values;
+    // Только у снимков: ключ изменился с последней записи
+    private boolean[] changed;
+    private int size;
+
+    StatBreakdown() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private StatBreakdown(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+    }
+
+    synchronized void add(int key, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        int index = find(key);
+        if (keys[index] != 0) {
+            values[index] += delta;
+            return;
+        }
+        keys[index] = key + 1;
+        values[index] = delta;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    synchronized long get(int key) {
+        int index = find(key);
+        return keys[index] != 0 ? values[index] : 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized void forEach(EntryConsumer action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0 && values[i] != 0) {
+                action.accept(keys[i] - 1, values[i]);
+            }
+        }
+    }
+
+    // Для снимка - только изменившиеся ключи, для остальных копий - все
+    synchronized void forEachChanged(EntryConsumer action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0 && (changed == null || changed[i])) {
+                action.accept(keys[i] - 1, values[i]);
+            }
+        }
+    }
+
+    synchronized StatBreakdown copy() {
+        StatBreakdown copy = new StatBreakdown(keys.length);
+        System.arraycopy(keys, 0, copy.keys, 0, keys.length);
+        System.arraycopy(values, 0, copy.values, 0, values.length);
+        copy.size = size;
+        return copy;
+    }
+
+    // Копия с пометками ключей, значение которых отличается от persisted
+    StatBreakdown snapshot(StatBreakdown persisted) {
+        return copy().markChanged(persisted);
+    }
+
+    // Только для своей свежей копии, ещё не видной другим потокам
+    StatBreakdown markChanged(StatBreakdown persisted) {
+        changed = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                changed[i] = values[i] != persisted.get(keys[i] - 1);
+            }
+        }
+        return this;
+    }
+
+    // Ненулевые разности this - base
+    StatBreakdown minus(StatBreakdown base) {
+        StatBreakdown delta = new StatBreakdown();
+        forEach((key, value) -> delta.add(key, value - base.get(key)));
+        return delta;
+    }
+
+    void addAll(StatBreakdown other) {
+        other.forEach(this::add);
+    }
+
+    // Значения становятся равны other
+    synchronized void setAll(StatBreakdown other) {
+        other.forEach((key, value) -> {
+            int index = find(key);
+            if (keys[index] == 0) {
+                add(key, value);
+            } else {
+                values[index] = value;
+            }
+        });
+    }
+
+    synchronized void clear() {
+        if (keys.length > INITIAL_CAPACITY) {
+            keys = new int[INITIAL_CAPACITY];
+            values = new long[INITIAL_CAPACITY];
+        } else {
+            Arrays.fill(keys, 0);
+            Arrays.fill(values, 0);
+        }
+        changed = null;
+        size = 0;
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int index = (key * 0x9E3779B9 >>> 16) & mask;
+        while (keys[index] != 0 && keys[index] != key + 1) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int index = find(oldKeys[i] - 1);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
+
+// Живые счётчики разбивки в слоте игрока. Событие делает один атомарный add без монитора:
+// ключи - ordinal, значения лежат страницами по 64 в AtomicLongArray, страница создаётся
+// CAS при первом ключе из неё. Копия StatBreakdown снимается только потоком записи.
+final class LiveBreakdown {
+    private static final int PAGE_BITS = 6;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final AtomicReferenceArray<AtomicLongArray> pages;
+
+    LiveBreakdown(int keyCount) {
+        pages = new AtomicReferenceArray<>((keyCount + PAGE_SIZE - 1) >>> PAGE_BITS);
+    }
+
+    void add(int key, long delta) {
+        int index = key >>> PAGE_BITS;
+        AtomicLongArray page = pages.get(index);
+        if (page == null) {
+            AtomicLongArray created = new AtomicLongArray(PAGE_SIZE);
+            page = pages.compareAndExchange(index, null, created);
+            if (page == null) {
+                page = created;
+            }
+        }
+        page.getAndAdd(key & (PAGE_SIZE - 1), delta);
+    }
+
+    void addAll(StatBreakdown other) {
+        other.forEach(this::add);
+    }
+
+    boolean isEmpty() {
+        for (int p = 0; p < pages.length(); p++) {
+            AtomicLongArray page = pages.get(p);
+            if (page == null) {
+                continue;
+            }
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                if (page.get(i) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Копия с пометками изменившихся с последней записи ключей
+    StatBreakdown snapshot(StatBreakdown persisted) {
+        StatBreakdown copy = new StatBreakdown();
+        for (int p = 0; p < pages.length(); p++) {
+            AtomicLongArray page = pages.get(p);
+            if (page == null) {
+                continue;
+            }
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                long value = page.get(i);
+                if (value != 0) {
+                    copy.add((p << PAGE_BITS) + i, value);
+                }
+            }
+        }
+        return copy.markChanged(persisted);
+    }
+
+    void clear() {
+        for (int p = 0; p < pages.length(); p++) {
+            pages.set(p, null);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package ru.annelo.player2statistic;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// In-memory counters for online players. Every player owns a slot: a row of primitive
+// longs inside a shared segment, updated with atomic adds instead of object monitors.
+final class StatCounters {
+    static final int PLAY_TIME = 0;
+    static final int MOBS_KILLED = 1;
+    static final int ITEMS_EATEN = 2;
+    static final int DISTANCE_TRAVELED = 3;
+    static final int BLOCKS_BROKEN = 4;
+    static final int DEATHS = 5;
+    static final int ITEMS_CRAFTED = 6;
+    static final int ITEMS_USED = 7;
+    static final int CHESTS_OPENED = 8;
+    static final int MESSAGES_SENT = 9;
+    static final int FIELD_COUNT = 10;
+
+    // Distance is kept in fixed point (1/1000 of a block) so that it is a plain long add too
+    static final double DISTANCE_SCALE = 1000.0;
+
+    static final int ALL_FIELDS = (1 << FIELD_COUNT) - 1;
+
+    // A row holds the live values followed by the values last written to storage. 32 longs =
+    // 256 bytes: two players never share a cache line (or an adjacent-line prefetch pair), so
+    // threads updating different players do not false-share
+    private static final int STRIDE = 32;
+    private static final int PERSISTED = FIELD_COUNT;
+    private static final int SEGMENT_SIZE = 64;
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final List<long[]> segments = new ArrayList<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private int nextSlot;
+
+    synchronized Slot acquire(UUID uuid, String playerName) {
+        Integer free = freeSlots.poll();
+        int index = free != null ? free : nextSlot++;
+        int segment = index / SEGMENT_SIZE;
+        if (segment == segments.size()) {
+            // One spare row before the first and after the last slot keeps the array header
+            // and neighbouring heap objects off the slot cache lines
+            segments.add(new long[(SEGMENT_SIZE + 2) * STRIDE]);
+        }
+        long[] row = segments.get(segment);
+        int base = (index % SEGMENT_SIZE + 1) * STRIDE;
+        return new Slot(index, uuid, playerName, row, base);
+    }
+
+    // Idempotent: a departed slot can reach the writer twice (queued again while its last
+    // chunk is in flight), and a second push would hand one row to two players
+    synchronized void release(Slot slot) {
+        if (slot.released) {
+            return;
+        }
+        slot.released = true;
+        // An add that missed the flag is still running; once it is done every later add sees
+        // the flag, so nothing reaches the row after it is zeroed
+        while (slot.adding.get() != 0) {
+            Thread.onSpinWait();
+        }
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            LONGS.setRelease(slot.row, slot.base + i, 0L);
+            LONGS.setRelease(slot.row, slot.base + PERSISTED + i, 0L);
+        }
+        for (int i = 0; i < BreakdownType.COUNT; i++) {
+            slot.breakdowns[i].clear();
+            slot.persistedBreakdowns[i].clear();
+        }
+        freeSlots.add(slot.index);
+    }
+
+    synchronized int capacity() {
+        return segments.size() * SEGMENT_SIZE;
+    }
+
+    static final class Slot {
+        final int index;
+        final UUID uuid;
+        volatile String playerName;
+        // Set when the player left; the slot is released after its last write
+        volatile boolean departed;
+        // Set once the row went back to the free list; the slot must not be written or read again
+        volatile boolean released;
+        // Until stored values are loaded the row holds only this session's counts
+        volatile boolean loaded;
+        // Main thread only: the load was started, and how many sessions the slot has served
+        boolean loadScheduled;
+        int visits;
+        private final long[] row;
+        private final int base;
+        // Adds in progress. An add raises it before checking released and the release sets
+        // released before waiting for it to drop, so one of the two always sees the other
+        private final AtomicInteger adding = new AtomicInteger();
+        // Breakdowns by block or mob type, live and as last written. They change together with
+        // their counter field, so the row's dirty check covers them. The live ones take lock-free
+        // adds from event threads; the written ones belong to the writer thread
+        private final LiveBreakdown[] breakdowns = new LiveBreakdown[BreakdownType.COUNT];
+        private final StatBreakdown[] persistedBreakdowns = new StatBreakdown[BreakdownType.COUNT];
+
+        private Slot(int index, UUID uuid, String playerName, long[] row, int base) {
+            this.index = index;
+            this.uuid = uuid;
+            this.playerName = playerName;
+            this.row = row;
+            this.base = base;
+            for (int i = 0; i < BreakdownType.COUNT; i++) {
+                breakdowns[i] = new LiveBreakdown(BreakdownType.values()[i].size());
+                persistedBreakdowns[i] = new StatBreakdown();
+            }
+        }
+
+        // Adds to a released slot are dropped; one racing with the release finishes before the
+        // row is zeroed, so a stale slot never reaches the row's next owner
+        void add(int field, long delta) {
+            adding.incrementAndGet();
+            try {
+                if (!released) {
+                    LONGS.getAndAdd(row, base + field, delta);
+                }
+            } finally {
+                adding.decrementAndGet();
+            }
+        }
+
+        // Called before add() of its field: a snapshot that sees the new field value sees the
+        // breakdown value too
+        void addBreakdown(BreakdownType type, int key) {
+            breakdowns[type.ordinal()].add(key, 1);
+        }
+
+        void addDistance(double distance) {
+            add(DISTANCE_TRAVELED, Math.round(distance * DISTANCE_SCALE));
+        }
+
+        long get(int field) {
+            return (long) LONGS.getAcquire(row, base + field);
+        }
+
+        private long persisted(int field) {
+            return (long) LONGS.getAcquire(row, base + PERSISTED + field);
+        }
+
+        boolean isDirty() {
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                if (get(i) != persisted(i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Stored values are added on top of whatever was counted before the load finished,
+        // same as PlayerStats.merge. They are already in storage, so they do not make the row dirty
+        void load(PlayerStats stats) {
+            long[] values = fields(stats);
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                LONGS.getAndAdd(row, base + PERSISTED + i, values[i]);
+                add(i, values[i]);
+            }
+            for (BreakdownType type : BreakdownType.values()) {
+                StatBreakdown stored = stats.getBreakdown(type);
+                if (stored != null) {
+                    persistedBreakdowns[type.ordinal()].addAll(stored);
+                    breakdowns[type.ordinal()].addAll(stored);
+                }
+            }
+        }
+
+        // Called by the writer once a snapshot is in storage. Only the writer thread moves the
+        // persisted values, so a plain store is enough
+        void markPersisted(PlayerStats snapshot) {
+            long[] values = fields(snapshot);
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                LONGS.setRelease(row, base + PERSISTED + i, values[i]);
+            }
+            for (BreakdownType type : BreakdownType.values()) {
+                StatBreakdown written = snapshot.getBreakdown(type);
+                if (written != null) {
+                    persistedBreakdowns[type.ordinal()].setAll(written);
+                }
+            }
+        }
+
+        // Difference between a snapshot of this row and the values last written to storage.
+        // Must be taken by the writer thread, before markPersisted moves the baseline
+        PlayerStats delta(PlayerStats snapshot) {
+            long[] values = fields(snapshot);
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                values[i] -= persisted(i);
+            }
+            PlayerStats delta = fromFields(values);
+            for (BreakdownType type : BreakdownType.values()) {
+                StatBreakdown current = snapshot.getBreakdown(type);
+                if (current != null) {
+                    StatBreakdown changed = current.minus(persistedBreakdowns[type.ordinal()]);
+                    delta.setBreakdown(type, changed.isEmpty() ? null : changed);
+                }
+            }
+            delta.setUuid(uuid);
+            delta.setPlayerName(snapshot.getPlayerName());
+            delta.setChangedFields(snapshot.getChangedFields());
+            return delta;
+        }
+
+        // The counters alone, without breakdown copies or the dirty mask: for rendering
+        PlayerStats values() {
+            long[] values = new long[FIELD_COUNT];
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                values[i] = get(i);
+            }
+            PlayerStats stats = fromFields(values);
+            stats.setUuid(uuid);
+            stats.setPlayerName(playerName);
+            return stats;
+        }
+
+        // Reads never block writers: each field is read atomically, the row as a whole is not.
+        // Fields that differ from the last persisted values are flagged in changedFields
+        PlayerStats snapshot() {
+            long[] values = new long[FIELD_COUNT];
+            int changed = 0;
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                values[i] = get(i);
+                if (values[i] != persisted(i)) {
+                    changed |= 1 << i;
+                }
+            }
+            PlayerStats stats = fromFields(values);
+            for (int i = 0; i < BreakdownType.COUNT; i++) {
+                if (!breakdowns[i].isEmpty()) {
+                    stats.setBreakdown(BreakdownType.values()[i],
+                            breakdowns[i].snapshot(persistedBreakdowns[i]));
+                }
+            }
+            stats.setUuid(uuid);
+            stats.setPlayerName(playerName);
+            stats.setChangedFields(changed);
+            return stats;
+        }
+    }
+
+    static PlayerStats fromFields(long[] values) {
+        PlayerStats stats = new PlayerStats();
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            stats.setValue(i, values[i]);
+        }
+        return stats;
+    }
+
+    static long[] fields(PlayerStats stats) {
+        long[] values = new long[FIELD_COUNT];
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            values[i] = stats.getValue(i);
+        }
+        return values;
+    }
+}
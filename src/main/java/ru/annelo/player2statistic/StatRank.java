@@ -0,0 +1,19 @@
+package ru.annelo.player2statistic;
+
+import java.util.List;
+
+// Место игрока в топе по одной статистике и соседние строки: rows идут подряд с позиции
+// firstRank, игрок - на позиции rank. rank == 0 - игрок не в рейтинге (нулевое значение)
+final class StatRank {
+    static final StatRank UNRANKED = new StatRank(0, 0, List.of());
+
+    final int rank;
+    final int firstRank;
+    final List<PlayerStats> rows;
+
+    StatRank(int rank, int firstRank, List<PlayerStats> rows) {
+        this.rank = rank;
+        this.firstRank = firstRank;
+        this.rows = rows;
+    }
+}
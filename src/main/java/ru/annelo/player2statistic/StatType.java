@@ -1,5 +1,99 @@
 package ru.annelo.player2statistic;
 
+import java.util.Locale;
+
+// Реестр статистик: индекс поля в StatCounters, имя в JSON, колонка в базе и подписи для чата.
+// Кодек, схема базы, чтение строк и топы строятся по этому списку. Новая статистика - новая
+// константа здесь и индекс поля в StatCounters
 public enum StatType {
-    PLAY_TIME, MOBS_KILLED, ITEMS_EATEN, BLOCKS_BROKEN, DISTANCE_TRAVELED, CHEST_OPENED
+    PLAY_TIME(StatCounters.PLAY_TIME, "playTime", "play_time", "времени игры", "минут"),
+    MOBS_KILLED(StatCounters.MOBS_KILLED, "mobsKilled", "mobs_killed",
+            "количеству убитых мобов", "мобов"),
+    ITEMS_EATEN(StatCounters.ITEMS_EATEN, "itemsEaten", "items_eaten",
+            "количеству съеденных еды", "еды"),
+    BLOCKS_BROKEN(StatCounters.BLOCKS_BROKEN, "blocksBroken", "blocks_broken",
+            "количеству сломанных блоков", "блоков"),
+    DISTANCE_TRAVELED(StatCounters.DISTANCE_TRAVELED, "distanceTraveled", "distance_traveled",
+            "количеству пройденного пути", "метров"),
+    CHEST_OPENED(StatCounters.CHESTS_OPENED, "chestsOpened", "chests_opened",
+            "количеству открытий сундуков", "сундуков"),
+    DEATHS(StatCounters.DEATHS, "deaths", "deaths", "количеству смертей", "смертей"),
+    ITEMS_CRAFTED(StatCounters.ITEMS_CRAFTED, "itemsCrafted", "items_crafted",
+            "количеству созданных предметов", "предметов"),
+    ITEMS_USED(StatCounters.ITEMS_USED, "itemsUsed", "items_used",
+            "количеству использованных предметов", "раз"),
+    MESSAGES_SENT(StatCounters.MESSAGES_SENT, "messagesSent", "messages_sent",
+            "количеству сообщений", "сообщений");
+
+    private static final StatType[] BY_FIELD = new StatType[StatCounters.FIELD_COUNT];
+
+    static {
+        for (StatType type : values()) {
+            BY_FIELD[type.field] = type;
+        }
+    }
+
+    // Индекс поля в StatCounters
+    final int field;
+    // Имя поля в JSON-файле игрока
+    final String key;
+    // Колонка в player_stats; она же имя в /stats top
+    final String column;
+    // "Топ игроков по ..."
+    final String title;
+    final String unit;
+
+    StatType(int field, String key, String column, String title, String unit) {
+        this.field = field;
+        this.key = key;
+        this.column = column;
+        this.title = title;
+        this.unit = unit;
+    }
+
+    // Имя поля в JSON; null - не статистика
+    static StatType byKey(String key) {
+        for (StatType type : values()) {
+            if (type.key.equals(key)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    static StatType byField(int field) {
+        return BY_FIELD[field];
+    }
+
+    // Имя колонки или константы; null - нет такой статистики
+    static StatType parse(String name) {
+        for (StatType type : values()) {
+            if (type.column.equalsIgnoreCase(name) || type.name().equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    // Расстояние хранится в базе как DOUBLE в блоках, остальное - целые
+    boolean isDistance() {
+        return field == StatCounters.DISTANCE_TRAVELED;
+    }
+
+    String sqlType() {
+        return isDistance() ? "DOUBLE" : "INT";
+    }
+
+    // Значение статистики; расстояние - в фиксированной точке StatCounters
+    long get(PlayerStats stats) {
+        return stats.getValue(field);
+    }
+
+    // Значение для чата с единицей измерения
+    String format(long value) {
+        if (isDistance()) {
+            return String.format(Locale.ROOT, "%.2f %s", value / StatCounters.DISTANCE_SCALE, unit);
+        }
+        return value + " " + unit;
+    }
 }
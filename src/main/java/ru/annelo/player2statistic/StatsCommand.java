@@ -1,18 +1,21 @@
 package ru.annelo.player2statistic;
 
+import java.io.File;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
 import net.md_5.bungee.api.ChatColor;
 
 public class StatsCommand implements CommandExecutor {
-
     private final StatsManager statsManager;
     private final Config config;
     private final StatsPlugin plugin;
+    private final AtomicBoolean migrationRunning = new AtomicBoolean();
 
     public StatsCommand(StatsPlugin plugin, StatsManager statsManager, Config config) {
         this.statsManager = statsManager;
@@ -34,6 +37,10 @@ public class StatsCommand implements CommandExecutor {
                         return migrateDatabase(player, args);
                     case "top":
                         return getTopStats(player, args);
+                    case "metrics":
+                        return showMetrics(player);
+                    case "rank":
+                        return getRank(player, args);
                     default:
                         break;
                 }
@@ -47,8 +54,7 @@ public class StatsCommand implements CommandExecutor {
             try {
                 config.reload();
                 plugin.getStorage().close();
-                plugin.setStorage(config.isDatabase() ? new DatabaseStorage(config)
-                        : new FileStorage(plugin));
+                plugin.setStorage(plugin.createStorage(config.getStorageType()));
                 player.sendMessage(ChatColor.GREEN + "Плагин успешно перезагружен.");
                 return true;
             } catch (Exception e) {
@@ -66,21 +72,25 @@ public class StatsCommand implements CommandExecutor {
             return false;
         }
 
-        Player target = player.getServer().getPlayer(args[1]);
-        if (target == null) {
-            player.sendMessage(ChatColor.RED + "Игрок не найден (поддерживаются только онлайн игроки).");
-            return false;
-        }
-
         if (!player.hasPermission("player2statistic.stats")) {
             player.sendMessage(ChatColor.RED + "У вас нет прав для использования этой команды.");
             return false;
         }
 
-        PlayerStats stats = statsManager.getStats(target.getUniqueId());
-        if (stats == null) {
-            // Fallback to storage if not in cache (rare case for online player)
-            stats = plugin.getStorage().loadPlayerStats(target.getUniqueId());
+        Player target = player.getServer().getPlayer(args[1]);
+        PlayerStats stats;
+        if (target != null) {
+            stats = statsManager.getStats(target.getUniqueId());
+            if (stats == null) {
+                // Fallback to storage if not in cache (rare case for online player)
+                stats = plugin.getStorage().loadPlayerStats(target.getUniqueId());
+            }
+        } else {
+            // Недавно вышедшие игроки ещё в памяти
+            stats = statsManager.getDepartedStats(args[1]);
+            if (stats == null) {
+                return getOfflineStats(player, args[1]);
+            }
         }
 
         if (stats == null) {
@@ -88,14 +98,26 @@ public class StatsCommand implements CommandExecutor {
             return false;
         }
 
-        String format = config.getDisplayFormat();
-        format = format.replace("{player_name}", String.valueOf(stats.getPlayerName()))
-                .replace("{play_time}", String.valueOf(stats.getPlayTime()))
-                .replace("{blocks_broken}", String.valueOf(stats.getBlocksBroken()))
-                .replace("{mobs_killed}", String.valueOf(stats.getMobsKilled()))
-                .replace("{chests_opened}", String.valueOf(stats.getChestsOpened()))
-                .replace("{messages_sent}", String.valueOf(stats.getMessagesSent()));
-        player.sendMessage(ChatColor.translateAlternateColorCodes('&', format));
+        player.sendMessage(config.getDisplayTemplate().render(stats));
+        return true;
+    }
+
+    // Поиск по индексу ников и чтение хранилища - в потоках ввода-вывода, ответ - в главном потоке
+    private boolean getOfflineStats(Player player, String playerName) {
+        player.sendMessage(ChatColor.GRAY + "Поиск игрока...");
+        statsManager.submitIo(() -> {
+            PlayerStats stats = statsManager.findOfflineStats(playerName);
+            plugin.getServer().getScheduler().runTask(plugin, () -> {
+                if (!player.isOnline()) {
+                    return;
+                }
+                if (stats == null) {
+                    player.sendMessage(ChatColor.RED + "Игрок " + playerName + " не найден.");
+                    return;
+                }
+                player.sendMessage(config.getDisplayTemplate().render(stats));
+            });
+        }, () -> replyBusy(player));
         return true;
     }
 
@@ -107,52 +129,90 @@ public class StatsCommand implements CommandExecutor {
 
         if (args.length < 2) {
             player.sendMessage(ChatColor.RED
-                    + "Использование: /stats dbtype <file|database>");
+                    + "Использование: /stats dbtype <file|database|binary> [confirm]");
             return false;
         }
 
         String newDbType = args[1];
-        if (!newDbType.equals("file") && !newDbType.equals("database")) {
+        if (!newDbType.equals("file") && !newDbType.equals("database") && !newDbType.equals("binary")) {
             player.sendMessage(ChatColor.RED
-                    + "Недопустимый тип базы данных. Используйте \"file\" или \"database\".");
+                    + "Недопустимый тип базы данных. Используйте \"file\", \"database\" или \"binary\".");
             return false;
         }
 
-        boolean isDatabase = newDbType.equals("database");
-        if (isDatabase == config.isDatabase()) {
+        if (newDbType.equals(config.getStorageType())) {
             player.sendMessage(ChatColor.RED + "Текущий тип базы данных уже установлен.");
             return false;
         }
 
+        // Бинарное хранилище не сохраняет разбивки по блокам и мобам: перенос в него с потерей
+        // разбивок только с явным подтверждением
+        boolean dropBreakdowns = args.length >= 3 && args[2].equalsIgnoreCase("confirm");
+
+        if (!migrationRunning.compareAndSet(false, true)) {
+            player.sendMessage(ChatColor.RED + "Миграция уже выполняется.");
+            return false;
+        }
+
         player.sendMessage(ChatColor.YELLOW + "Начинаю миграцию данных... Это может занять некоторое время.");
 
-        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+        statsManager.submitIo(() -> {
+            BukkitTask progress = null;
+            IStorage newStorage = null;
+            // Сбрасывается, когда хранилище передано главному потоку для переключения
+            boolean closeNewStorage = true;
             try {
                 IStorage oldStorage = plugin.getStorage();
-                // Load all stats from old storage
-                List<PlayerStats> allStats = oldStorage.loadAllPlayers();
-
+                if (newDbType.equals("binary") && !dropBreakdowns
+                        && StatsMigration.hasBreakdowns(oldStorage)) {
+                    plugin.getServer().getScheduler().runTask(plugin, () -> player.sendMessage(
+                            ChatColor.RED + "Бинарное хранилище не сохраняет разбивки по блокам и мобам,"
+                                    + " а в текущем они есть. Чтобы перенести статистику без них,"
+                                    + " выполните /stats dbtype binary confirm"));
+                    return;
+                }
                 // Initialize new storage
-                IStorage newStorage = isDatabase ? new DatabaseStorage(config) : new FileStorage(plugin);
-
-                // Save to new storage
-                int count = 0;
-                for (PlayerStats stats : allStats) {
-                    newStorage.savePlayerStats(stats);
-                    count++;
+                newStorage = plugin.createStorage(newDbType);
+
+                File checkpointFile = new File(plugin.getDataFolder(),
+                        "migration-" + config.getStorageType() + "-to-" + newDbType + ".checkpoint");
+                StatsMigration migration = new StatsMigration(oldStorage, newStorage, checkpointFile,
+                        config.getMigrationParallelism(), config.getMigrationBatchSize());
+                long interval = Math.max(1, config.getMigrationProgressInterval()) * 20L;
+                // Скорость считается только по записям этого запуска, без перенесённых ранее
+                progress = plugin.getServer().getScheduler().runTaskTimer(plugin, () -> player.sendMessage(
+                        ChatColor.YELLOW + "Перенесено " + (migration.migrated() + migration.skipped())
+                                + " записей (" + Math.round(migration.rowsPerSecond()) + " в секунду)."),
+                        interval, interval);
+
+                statsManager.beginMigration();
+                boolean complete = migration.run();
+                progress.cancel();
+                // Игроки, записанные в старое хранилище после того, как их строка перенесена
+                complete = complete && statsManager.switchStorage(oldStorage, newStorage);
+
+                if (!complete) {
+                    plugin.getServer().getScheduler().runTask(plugin, () -> player.sendMessage(
+                            ChatColor.RED + "Ошибка при миграции данных. Хранилище не изменено, "
+                                    + "повторите команду, чтобы продолжить с места остановки."));
+                    return;
                 }
 
-                final int migratedCount = count;
+                final long migratedCount = migration.migrated() + migration.skipped();
+                final long rate = Math.round(migration.rowsPerSecond());
 
                 // Update plugin storage on main thread
+                IStorage migratedStorage = newStorage;
+                closeNewStorage = false;
                 plugin.getServer().getScheduler().runTask(plugin, () -> {
                     try {
                         oldStorage.close();
-                        plugin.setStorage(newStorage);
-                        config.setDatabase(isDatabase);
+                        plugin.setStorage(migratedStorage);
+                        config.setStorageType(newDbType);
                         config.save();
-                        player.sendMessage(ChatColor.GREEN + "Миграция завершена успешно. Перенесено " + migratedCount + " записей.");
-                        player.sendMessage(ChatColor.GREEN + "База данных переключена на " + (isDatabase ? "базу данных" : "файловую систему."));
+                        player.sendMessage(ChatColor.GREEN + "Миграция завершена успешно. Перенесено "
+                                + migratedCount + " записей (" + rate + " в секунду).");
+                        player.sendMessage(ChatColor.GREEN + "База данных переключена на " + storageTitle(newDbType));
                     } catch (Exception e) {
                         player.sendMessage(ChatColor.RED + "Ошибка при переключении хранилища.");
                         e.printStackTrace();
@@ -164,12 +224,59 @@ public class StatsCommand implements CommandExecutor {
                     player.sendMessage(ChatColor.RED + "Ошибка при миграции данных.");
                     e.printStackTrace();
                 });
+            } finally {
+                statsManager.endMigration();
+                if (progress != null) {
+                    progress.cancel();
+                }
+                try {
+                    if (closeNewStorage && newStorage != null) {
+                        newStorage.close();
+                    }
+                } finally {
+                    migrationRunning.set(false);
+                }
             }
+        }, () -> {
+            migrationRunning.set(false);
+            replyBusy(player);
         });
 
         return true;
     }
 
+    // Очередь ввода-вывода переполнена: команда не выполнена, игрок повторит её сам.
+    // При выключении плагина задачи планировщику уже не отдаются
+    private void replyBusy(Player player) {
+        if (!plugin.isEnabled()) {
+            return;
+        }
+        plugin.getServer().getScheduler().runTask(plugin, () -> player.sendMessage(
+                ChatColor.RED + "Хранилище занято, повторите команду позже."));
+    }
+
+    private static String storageTitle(String type) {
+        switch (type) {
+            case "database": return "базу данных";
+            case "binary": return "бинарный файл.";
+            default: return "файловую систему.";
+        }
+    }
+
+    public boolean showMetrics(Player player) {
+        if (!player.hasPermission("player2statistic.metrics")) {
+            player.sendMessage(ChatColor.RED + "У вас нет прав для использования этой команды.");
+            return false;
+        }
+
+        List<String> lines = plugin.getMetrics().summary();
+        player.sendMessage(ChatColor.GOLD + "Метрики плагина (время в нс/мкс/мс):");
+        for (String line : lines) {
+            player.sendMessage(ChatColor.GRAY + line);
+        }
+        return true;
+    }
+
     public boolean getTopStats(Player player, String[] args) {
         if (!player.hasPermission("player2statistic.top")) {
             player.sendMessage(ChatColor.RED + "У вас нет прав для использования этой команды.");
@@ -177,29 +284,35 @@ public class StatsCommand implements CommandExecutor {
         }
 
         if (args.length < 2) {
-            player.sendMessage(ChatColor.RED + "Использование: /stats top <type> [limit]");
+            player.sendMessage(ChatColor.RED + "Использование: /stats top <type> [limit] [day|week|month]");
             return false;
         }
 
         String type = args[1].toLowerCase();
         int limit = 10;
-        if (args.length > 2) {
+        WindowedStats.Window window = null;
+        // Лимит и период можно указать в любом порядке
+        for (int i = 2; i < args.length; i++) {
+            WindowedStats.Window parsed = WindowedStats.Window.parse(args[i]);
+            if (parsed != null) {
+                window = parsed;
+                continue;
+            }
             try {
-                limit = Integer.parseInt(args[2]);
+                limit = Integer.parseInt(args[i]);
             } catch (NumberFormatException e) {
-                player.sendMessage(ChatColor.RED + "Лимит должен быть числом.");
+                player.sendMessage(ChatColor.RED + "Лимит должен быть числом, период - day, week или month.");
                 return false;
             }
         }
+        if (limit < 1) {
+            player.sendMessage(ChatColor.RED + "Лимит должен быть от 1 до " + StatsManager.MAX_TOP_LIMIT + ".");
+            return false;
+        }
+        limit = Math.min(limit, StatsManager.MAX_TOP_LIMIT);
 
-        StatType statType;
-        try {
-            if (type.equals("chests_opened")) {
-                statType = StatType.CHEST_OPENED;
-            } else {
-                statType = StatType.valueOf(type.toUpperCase());
-            }
-        } catch (IllegalArgumentException e) {
+        StatType statType = StatType.parse(type);
+        if (statType == null) {
             player.sendMessage(ChatColor.RED + "Неверный тип статистики.");
             return false;
         }
@@ -209,10 +322,15 @@ public class StatsCommand implements CommandExecutor {
         // We should run this async and send message later.
         final int finalLimit = limit;
         final StatType finalStatType = statType;
+        final WindowedStats.Window finalWindow = window;
         player.sendMessage(ChatColor.GRAY + "Загрузка топа...");
 
-        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
-            List<PlayerStats> topPlayers = plugin.getStorage().getTopStats(finalStatType, finalLimit);
+        statsManager.submitIo(() -> {
+            List<PlayerStats> topPlayers = statsManager.getTopStats(finalStatType, finalLimit,
+                    finalWindow);
+            if (topPlayers != null) {
+                statsManager.resolveNames(topPlayers);
+            }
 
             plugin.getServer().getScheduler().runTask(plugin, () -> {
                  if (topPlayers == null || topPlayers.isEmpty()) {
@@ -220,41 +338,90 @@ public class StatsCommand implements CommandExecutor {
                     return;
                 }
 
-                String title = "";
-                switch (type) {
-                     case "play_time": title = "Топ игроков по времени игры:"; break;
-                     case "blocks_broken": title = "Топ игроков по количеству сломанных блоков:"; break;
-                     case "mobs_killed": title = "Топ игроков по количеству убитых мобов:"; break;
-                     case "chests_opened": title = "Топ игроков по количеству открытий сундуков:"; break;
-                     case "items_eaten": title = "Топ игроков по количеству съеденных еды:"; break;
-                     case "distance_traveled": title = "Топ игроков по количеству пройденного пути:"; break;
+                String title = "Топ игроков по " + finalStatType.title;
+                if (finalWindow != null) {
+                    title += " " + windowTitle(finalWindow);
                 }
-
-                player.sendMessage(ChatColor.GOLD + title);
+                player.sendMessage(ChatColor.GOLD + title + ":");
                 for (int i = 0; i < topPlayers.size(); i++) {
                     PlayerStats stats = topPlayers.get(i);
 
                     String playerName = stats.getPlayerName();
-                    if (playerName == null) {
-                         playerName = plugin.getServer().getOfflinePlayer(stats.getUuid()).getName();
-                    }
                     playerName = playerName == null ? "Неизвестный игрок" : playerName;
 
-                    String value = "";
-                    switch (type) {
-                        case "play_time": value = stats.getPlayTime() + " секунд"; break; // Wait, playTime is minutes in PlayerStats? logic says seconds in output but minutes in field comments.
-                        case "blocks_broken": value = stats.getBlocksBroken() + " блоков"; break;
-                        case "mobs_killed": value = stats.getMobsKilled() + " мобов"; break;
-                        case "chests_opened": value = stats.getChestsOpened() + " сундуков"; break;
-                        case "items_eaten": value = stats.getItemsEaten() + " еды"; break;
-                        case "distance_traveled": value = String.format("%.2f метров", stats.getDistanceTraveled()); break;
-                    }
+                    String value = finalStatType.format(finalStatType.get(stats));
 
                     player.sendMessage(ChatColor.YELLOW + "#" + (i + 1) + " " + playerName + " - " + value);
                 }
             });
-        });
+        }, () -> replyBusy(player));
 
         return true;
     }
+
+    // Сколько соседей показывать выше и ниже игрока
+    private static final int RANK_RADIUS = 2;
+
+    public boolean getRank(Player player, String[] args) {
+        if (!player.hasPermission("player2statistic.stats")) {
+            player.sendMessage(ChatColor.RED + "У вас нет прав для использования этой команды.");
+            return false;
+        }
+        if (args.length < 2) {
+            player.sendMessage(ChatColor.RED + "Использование: /stats rank <type> [player]");
+            return false;
+        }
+        StatType statType = StatType.parse(args[1]);
+        if (statType == null) {
+            player.sendMessage(ChatColor.RED + "Неверный тип статистики.");
+            return false;
+        }
+        String targetName = args.length >= 3 ? args[2] : player.getName();
+        Player online = player.getServer().getPlayerExact(targetName);
+        UUID onlineUuid = online != null ? online.getUniqueId() : null;
+
+        // Поиск ника и COUNT(*) по индексам базы - в ограниченных потоках ввода-вывода
+        statsManager.submitIo(() -> {
+            UUID uuid = onlineUuid != null ? onlineUuid : statsManager.findPlayer(targetName);
+            StatRank rank = uuid != null ? statsManager.getRank(statType, uuid, RANK_RADIUS) : null;
+            if (rank != null) {
+                statsManager.resolveNames(rank.rows);
+            }
+
+            plugin.getServer().getScheduler().runTask(plugin, () -> {
+                if (uuid == null) {
+                    player.sendMessage(ChatColor.RED + "Игрок " + targetName + " не найден.");
+                    return;
+                }
+                if (rank == null) {
+                    player.sendMessage(ChatColor.RED + "Рейтинг ещё не готов, попробуйте позже.");
+                    return;
+                }
+                if (rank.rank == 0) {
+                    player.sendMessage(ChatColor.GRAY + targetName + " пока не в топе по "
+                            + statType.title + ".");
+                    return;
+                }
+                player.sendMessage(ChatColor.GOLD + "Место " + targetName + " по " + statType.title
+                        + ": #" + rank.rank);
+                for (int i = 0; i < rank.rows.size(); i++) {
+                    PlayerStats stats = rank.rows.get(i);
+                    String playerName = stats.getPlayerName();
+                    playerName = playerName == null ? "Неизвестный игрок" : playerName;
+                    ChatColor color = stats.getUuid().equals(uuid) ? ChatColor.GREEN : ChatColor.YELLOW;
+                    player.sendMessage(color + "#" + (rank.firstRank + i) + " " + playerName + " - "
+                            + statType.format(statType.get(stats)));
+                }
+            });
+        }, () -> replyBusy(player));
+        return true;
+    }
+
+    private static String windowTitle(WindowedStats.Window window) {
+        switch (window) {
+            case DAY: return "за сутки";
+            case WEEK: return "за неделю";
+            default: return "за месяц";
+        }
+    }
 }
@@ -0,0 +1,113 @@
+package ru.annelo.player2statistic;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Parallel scan of a directory of player files. The calling thread walks a DirectoryStream and
+// hands out batches of paths through a bounded queue; a fixed pool of workers parses them, each
+// into its own accumulator, and the accumulators are combined once all workers are done.
+final class StatsDirectoryScanner implements AutoCloseable {
+    private static final int BATCH_SIZE = 256;
+    // Marks the end of the stream for one worker
+    private static final List<Path> END = List.of();
+
+    private final int parallelism;
+    private final ExecutorService pool;
+
+    StatsDirectoryScanner(int parallelism) {
+        this.parallelism = parallelism;
+        AtomicInteger threads = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(parallelism, task -> {
+            Thread thread = new Thread(task, "StatsPlugin-scan-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // reader returns null for files that should be skipped; it must not throw for a bad file
+    <A> A scan(Path dir, String glob, Function<Path, PlayerStats> reader, Supplier<A> newAccumulator,
+            BiConsumer<A, PlayerStats> accumulate, BinaryOperator<A> combine)
+            throws IOException, InterruptedException {
+        BlockingQueue<List<Path>> queue = new ArrayBlockingQueue<>(parallelism * 2);
+        List<Future<A>> workers = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            workers.add(pool.submit(() -> {
+                A accumulator = newAccumulator.get();
+                RuntimeException failure = null;
+                // A failed worker keeps draining the queue so that the producer never blocks
+                for (List<Path> batch = queue.take(); batch != END; batch = queue.take()) {
+                    if (failure != null) {
+                        continue;
+                    }
+                    try {
+                        for (Path file : batch) {
+                            PlayerStats stats = reader.apply(file);
+                            if (stats != null) {
+                                accumulate.accept(accumulator, stats);
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                return accumulator;
+            }));
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            List<Path> batch = new ArrayList<>(BATCH_SIZE);
+            for (Path file : stream) {
+                batch.add(file);
+                if (batch.size() == BATCH_SIZE) {
+                    queue.put(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                queue.put(batch);
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            for (Future<A> worker : workers) {
+                worker.cancel(true);
+            }
+            throw e;
+        }
+        for (int i = 0; i < parallelism; i++) {
+            queue.put(END);
+        }
+
+        A result = null;
+        for (Future<A> worker : workers) {
+            try {
+                A accumulator = worker.get();
+                result = result == null ? accumulator : combine.apply(result, accumulator);
+            } catch (ExecutionException e) {
+                throw new IOException("Stats scan worker failed", e.getCause());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,71 @@
+package ru.annelo.player2statistic;
+
+import org.bukkit.OfflinePlayer;
+
+import me.clip.placeholderapi.expansion.PlaceholderExpansion;
+
+// Плейсхолдеры PlaceholderAPI: %player2statistic_<колонка>% (play_time, distance, ...) и
+// %player2statistic_display% - формат display.format целиком. Табло опрашивают их каждые
+// несколько тиков для каждого игрока, поэтому отдельное поле читается из счётчиков напрямую,
+// без снимка всей строки. Игроки, которых нет в памяти, дают пустую строку.
+final class StatsExpansion extends PlaceholderExpansion {
+    private final StatsManager statsManager;
+    private final Config config;
+    private final String version;
+
+    StatsExpansion(StatsManager statsManager, Config config, String version) {
+        this.statsManager = statsManager;
+        this.config = config;
+        this.version = version;
+    }
+
+    @Override
+    public String getIdentifier() {
+        return "player2statistic";
+    }
+
+    @Override
+    public String getAuthor() {
+        return "Annelo";
+    }
+
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+    // Не выгружается при /papi reload
+    @Override
+    public boolean persist() {
+        return true;
+    }
+
+    @Override
+    public String onRequest(OfflinePlayer player, String params) {
+        if (player == null) {
+            return null;
+        }
+        if (params.equals("display")) {
+            // Шаблон выводит только счётчики, разбивки не копируются
+            PlayerStats stats = statsManager.getValues(player.getUniqueId());
+            return stats != null ? config.getDisplayTemplate().render(stats) : "";
+        }
+        int field = DisplayTemplate.placeholder(params);
+        if (field == DisplayTemplate.UNKNOWN) {
+            return null;
+        }
+        if (field == DisplayTemplate.PLAYER_NAME) {
+            return player.getName();
+        }
+        long value = statsManager.getValue(player.getUniqueId(), field);
+        if (value == Long.MIN_VALUE) {
+            return "";
+        }
+        if (field != StatCounters.DISTANCE_TRAVELED) {
+            return Long.toString(value);
+        }
+        StringBuilder out = new StringBuilder(12);
+        DisplayTemplate.appendValue(out, field, value);
+        return out.toString();
+    }
+}
@@ -0,0 +1,349 @@
+package ru.annelo.player2statistic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import org.bukkit.Bukkit;
+
+// Append-only журнал сохранений для FileStorage. Пачка снимков дописывается в конец файла
+// одной записью с одним fsync; последние значения игроков держатся в памяти, пока компактор
+// не перенесёт их в файлы игроков. Файл начинается с заголовка (MAGIC, VERSION), каждая
+// запись - CRC32, длина и тело: запись формата BinaryFileStorage и ненулевые разбивки по
+// именам констант. Оборванный при падении хвост просто отбрасывается при чтении. Журнал
+// прежнего формата (без заголовка и без разбивок) читается и переписывается в новый.
+final class StatsJournal {
+    private static final int MAGIC = 0x534A524E; // "SJRN"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    // CRC32 и длина тела
+    private static final int ENTRY_HEADER = 8;
+    // Тело записи больше 1 МБ - мусор, а не запись
+    private static final int MAX_BODY = 1 << 20;
+    // Запись журнала первой версии: CRC32 и запись BinaryFileStorage
+    private static final int LEGACY_ENTRY_SIZE = 4 + BinaryFileStorage.RECORD_SIZE;
+
+    private final File file;
+    private final File compactingFile;
+    private FileChannel channel;
+    private Map<UUID, PlayerStats> latest = new HashMap<>();
+    // Значения, которые сейчас переносятся в файлы игроков
+    private Map<UUID, PlayerStats> compacting = new HashMap<>();
+
+    StatsJournal(File dataFolder) throws IOException {
+        this.file = new File(dataFolder, "journal.log");
+        this.compactingFile = new File(dataFolder, "journal.log.compacting");
+        if (!dataFolder.exists()) {
+            dataFolder.mkdirs();
+        }
+        // Компактирование, прерванное падением, доделывается при следующем compact()
+        if (compactingFile.exists()) {
+            replay(compactingFile, compacting);
+        }
+        if (replay(file, latest)) {
+            rewrite(file, latest.values());
+        }
+        channel = openForAppend(file);
+    }
+
+    private static FileChannel openForAppend(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.READ);
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(false);
+        }
+        channel.position(channel.size());
+        return channel;
+    }
+
+    // true - файл прежнего формата, его нужно переписать
+    private static boolean replay(File source, Map<UUID, PlayerStats> target) throws IOException {
+        if (!source.exists()) {
+            return false;
+        }
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && in.read(header) > 0) {
+                // заголовок читается целиком
+            }
+            header.flip();
+            boolean current = header.remaining() == HEADER_SIZE && header.getInt(0) == MAGIC;
+            if (current && header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported stats journal version " + header.getInt(4)
+                        + " in " + source.getName());
+            }
+            long valid = current ? replayEntries(in, target) : replayLegacy(in, target);
+            if (valid < in.size()) {
+                Bukkit.getLogger().warning("Discarding " + (in.size() - valid)
+                        + " bytes of incomplete stats journal in " + source.getName());
+                in.truncate(valid);
+            }
+            return !current && in.size() > 0;
+        }
+    }
+
+    private static long replayEntries(FileChannel in, Map<UUID, PlayerStats> target)
+            throws IOException {
+        in.position(HEADER_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        CRC32 crc = new CRC32();
+        long valid = HEADER_SIZE;
+        while (true) {
+            int read = in.read(buffer);
+            buffer.flip();
+            while (buffer.remaining() >= ENTRY_HEADER) {
+                int start = buffer.position();
+                int length = buffer.getInt(start + 4);
+                if (length < BinaryFileStorage.RECORD_SIZE || length > MAX_BODY) {
+                    return valid;
+                }
+                if (buffer.remaining() < ENTRY_HEADER + length) {
+                    break;
+                }
+                crc.reset();
+                crc.update(buffer.slice(start + ENTRY_HEADER, length));
+                if ((int) crc.getValue() != buffer.getInt(start)) {
+                    return valid;
+                }
+                PlayerStats stats = decode(buffer.slice(start + ENTRY_HEADER, length));
+                target.put(stats.getUuid(), stats);
+                buffer.position(start + ENTRY_HEADER + length);
+                valid += ENTRY_HEADER + length;
+            }
+            if (read < 0) {
+                return valid;
+            }
+            if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                // Запись длиннее буфера
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.compact();
+            }
+        }
+    }
+
+    private static long replayLegacy(FileChannel in, Map<UUID, PlayerStats> target)
+            throws IOException {
+        in.position(0);
+        ByteBuffer buffer = ByteBuffer.allocate(LEGACY_ENTRY_SIZE * 1024);
+        CRC32 crc = new CRC32();
+        long valid = 0;
+        while (in.read(buffer) > 0) {
+            buffer.flip();
+            while (buffer.remaining() >= LEGACY_ENTRY_SIZE) {
+                int start = buffer.position();
+                int checksum = buffer.getInt(start);
+                crc.reset();
+                crc.update(buffer.slice(start + 4, BinaryFileStorage.RECORD_SIZE));
+                if ((int) crc.getValue() != checksum) {
+                    return valid;
+                }
+                PlayerStats stats = BinaryFileStorage.decode(buffer, start + 4);
+                target.put(stats.getUuid(), stats);
+                buffer.position(start + LEGACY_ENTRY_SIZE);
+                valid += LEGACY_ENTRY_SIZE;
+            }
+            buffer.compact();
+        }
+        return valid;
+    }
+
+    // Журнал прежнего формата заменяется новым с теми же значениями
+    private static void rewrite(File target, Collection<PlayerStats> stats) throws IOException {
+        File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+        Files.deleteIfExists(tmp.toPath());
+        try (FileChannel out = openForAppend(tmp)) {
+            write(out, new ArrayList<>(stats));
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Group commit: вся пачка - одна последовательная запись и один force()
+    synchronized void append(List<PlayerStats> batch) throws IOException {
+        write(channel, batch);
+        for (PlayerStats stats : batch) {
+            latest.put(stats.getUuid(), stats);
+        }
+    }
+
+    private static void write(FileChannel out, List<PlayerStats> batch) throws IOException {
+        int size = 0;
+        for (PlayerStats stats : batch) {
+            size += ENTRY_HEADER + bodySize(stats);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        CRC32 crc = new CRC32();
+        for (PlayerStats stats : batch) {
+            int start = buffer.position();
+            int length = bodySize(stats);
+            ByteBuffer body = buffer.slice(start + ENTRY_HEADER, length);
+            encode(body, stats);
+            crc.reset();
+            crc.update(buffer.slice(start + ENTRY_HEADER, length));
+            buffer.putInt(start, (int) crc.getValue());
+            buffer.putInt(start + 4, length);
+            buffer.position(start + ENTRY_HEADER + length);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        out.force(false);
+    }
+
+    // Тело: запись BinaryFileStorage, число разбивок, для каждой - тип, число значений и пары
+    // (имя константы в UTF-8, значение)
+    private static int bodySize(PlayerStats stats) {
+        int size = BinaryFileStorage.RECORD_SIZE + 1;
+        for (BreakdownType type : BreakdownType.values()) {
+            StatBreakdown breakdown = stats.getBreakdown(type);
+            if (breakdown == null || breakdown.isEmpty()) {
+                continue;
+            }
+            int[] entries = {5};
+            breakdown.forEach((key, value) -> entries[0] +=
+                    2 + type.name(key).getBytes(StandardCharsets.UTF_8).length + 8);
+            size += entries[0];
+        }
+        return size;
+    }
+
+    private static void encode(ByteBuffer body, PlayerStats stats) {
+        BinaryFileStorage.encode(body, 0, stats);
+        body.position(BinaryFileStorage.RECORD_SIZE);
+        int typesAt = body.position();
+        body.put((byte) 0);
+        byte types = 0;
+        for (BreakdownType type : BreakdownType.values()) {
+            StatBreakdown breakdown = stats.getBreakdown(type);
+            if (breakdown == null || breakdown.isEmpty()) {
+                continue;
+            }
+            types++;
+            body.put((byte) type.ordinal());
+            int countAt = body.position();
+            body.putInt(0);
+            int[] count = {0};
+            breakdown.forEach((key, value) -> {
+                byte[] name = type.name(key).getBytes(StandardCharsets.UTF_8);
+                body.putShort((short) name.length).put(name).putLong(value);
+                count[0]++;
+            });
+            body.putInt(countAt, count[0]);
+        }
+        body.put(typesAt, types);
+    }
+
+    private static PlayerStats decode(ByteBuffer body) {
+        PlayerStats stats = BinaryFileStorage.decode(body, 0);
+        body.position(BinaryFileStorage.RECORD_SIZE);
+        int types = body.get();
+        BreakdownType[] all = BreakdownType.values();
+        for (int t = 0; t < types; t++) {
+            BreakdownType type = all[body.get()];
+            int count = body.getInt();
+            StatBreakdown breakdown = new StatBreakdown();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[body.getShort()];
+                body.get(name);
+                long value = body.getLong();
+                // Константы нет в этой версии сервера
+                int key = type.ordinal(new String(name, StandardCharsets.UTF_8));
+                if (key >= 0) {
+                    breakdown.add(key, value);
+                }
+            }
+            stats.setBreakdown(type, breakdown);
+        }
+        return stats;
+    }
+
+    synchronized PlayerStats get(UUID uuid) {
+        PlayerStats stats = latest.get(uuid);
+        return stats != null ? stats : compacting.get(uuid);
+    }
+
+    synchronized List<PlayerStats> all() {
+        Map<UUID, PlayerStats> merged = new HashMap<>(compacting);
+        merged.putAll(latest);
+        return new ArrayList<>(merged.values());
+    }
+
+    synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    // Переносит накопленные значения в файлы игроков. Журнал переименовывается и начинается
+    // заново, поэтому сохранения не ждут окончания компактирования. writer должен сбросить
+    // файлы на диск до возврата; переименования в writtenDir сбрасываются здесь, до удаления
+    // старого журнала
+    void compact(Predicate<PlayerStats> writer, Path writtenDir) throws IOException {
+        Map<UUID, PlayerStats> toWrite;
+        synchronized (this) {
+            if (!compactingFile.exists()) {
+                if (latest.isEmpty()) {
+                    return;
+                }
+                channel.close();
+                if (!file.renameTo(compactingFile)) {
+                    channel = openForAppend(file);
+                    throw new IOException("Cannot rotate " + file.getName());
+                }
+                compacting.putAll(latest);
+                latest = new HashMap<>();
+                channel = openForAppend(file);
+            }
+            toWrite = new HashMap<>(compacting);
+        }
+
+        for (PlayerStats stats : toWrite.values()) {
+            if (!writer.test(stats)) {
+                throw new IOException("Cannot write stats of " + stats.getUuid());
+            }
+        }
+
+        syncDirectory(writtenDir);
+        synchronized (this) {
+            compacting = new HashMap<>();
+            if (!compactingFile.delete()) {
+                throw new IOException("Cannot delete " + compactingFile.getName());
+            }
+        }
+    }
+
+    // На Windows каталог не открывается как канал, там этот шаг пропускается
+    static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // не поддерживается платформой
+        }
+    }
+
+    synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -1,26 +1,58 @@
 package ru.annelo.player2statistic;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import java.util.UUID;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 final class StatsJsonCodec {
     private StatsJsonCodec() {}
 
+    // Буферы потока переиспользуются между вызовами: файл игрока кодируется и читается
+    // без дерева JsonObject и без новых массивов на каждое сохранение
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+    // Разбивки пишутся разреженно: {"blocks": {"STONE": 12}, "kills": {"ZOMBIE": 3}}
+    private static final String BREAKDOWNS = "breakdowns";
+
     static JsonObject toJson(PlayerStats stats) {
         JsonObject json = new JsonObject();
         json.addProperty("uuid", stats.getUuid().toString());
         json.addProperty("player_name", stats.getPlayerName());
-        json.addProperty("playTime", stats.getPlayTime());
-        json.addProperty("mobsKilled", stats.getMobsKilled());
-        json.addProperty("itemsEaten", stats.getItemsEaten());
-        json.addProperty("distanceTraveled", stats.getDistanceTraveled());
-        json.addProperty("blocksBroken", stats.getBlocksBroken());
-        json.addProperty("deaths", stats.getDeaths());
-        json.addProperty("itemsCrafted", stats.getItemsCrafted());
-        json.addProperty("itemsUsed", stats.getItemsUsed());
-        json.addProperty("chestsOpened", stats.getChestsOpened());
-        json.addProperty("messagesSent", stats.getMessagesSent());
+        for (StatType type : StatType.values()) {
+            if (type.isDistance()) {
+                json.addProperty(type.key, stats.getDistanceTraveled());
+            } else {
+                json.addProperty(type.key, type.get(stats));
+            }
+        }
+        JsonObject breakdowns = new JsonObject();
+        for (BreakdownType type : BreakdownType.values()) {
+            StatBreakdown breakdown = stats.getBreakdown(type);
+            if (breakdown == null || breakdown.isEmpty()) {
+                continue;
+            }
+            JsonObject values = new JsonObject();
+            breakdown.forEach((key, value) -> values.addProperty(type.name(key), value));
+            breakdowns.add(type.key, values);
+        }
+        if (breakdowns.size() > 0) {
+            json.add(BREAKDOWNS, breakdowns);
+        }
         return json;
     }
 
@@ -30,20 +62,270 @@ final class StatsJsonCodec {
                 json.has("uuid") ? json.get("uuid").getAsString() : fallbackUuid.toString();
         stats.setUuid(UUID.fromString(uuidString));
         stats.setPlayerName(json.has("player_name") ? json.get("player_name").getAsString() : null);
-        stats.setPlayTime(json.has("playTime") ? json.get("playTime").getAsInt() : 0);
-        stats.setMobsKilled(json.has("mobsKilled") ? json.get("mobsKilled").getAsInt() : 0);
-        stats.setItemsEaten(json.has("itemsEaten") ? json.get("itemsEaten").getAsInt() : 0);
-        stats.setDistanceTraveled(
-                json.has("distanceTraveled") ? json.get("distanceTraveled").getAsDouble() : 0);
-        stats.setBlocksBroken(json.has("blocksBroken") ? json.get("blocksBroken").getAsInt() : 0);
-        stats.setDeaths(json.has("deaths") ? json.get("deaths").getAsInt() : 0);
-        stats.setItemsCrafted(
-                json.has("itemsCrafted") ? json.get("itemsCrafted").getAsInt() : 0);
-        stats.setItemsUsed(json.has("itemsUsed") ? json.get("itemsUsed").getAsInt() : 0);
-        stats.setChestsOpened(
-                json.has("chestsOpened") ? json.get("chestsOpened").getAsInt() : 0);
-        stats.setMessagesSent(
-                json.has("messagesSent") ? json.get("messagesSent").getAsInt() : 0);
+        for (StatType type : StatType.values()) {
+            if (!json.has(type.key)) {
+                continue;
+            }
+            if (type.isDistance()) {
+                stats.setDistanceTraveled(json.get(type.key).getAsDouble());
+            } else {
+                stats.setValue(type.field, json.get(type.key).getAsLong());
+            }
+        }
+        if (json.has(BREAKDOWNS)) {
+            for (Map.Entry<String, JsonElement> kind : json.getAsJsonObject(BREAKDOWNS).entrySet()) {
+                BreakdownType type = BreakdownType.byKey(kind.getKey());
+                if (type == null || !kind.getValue().isJsonObject()) {
+                    continue;
+                }
+                StatBreakdown breakdown = new StatBreakdown();
+                for (Map.Entry<String, JsonElement> entry
+                        : kind.getValue().getAsJsonObject().entrySet()) {
+                    int ordinal = type.ordinal(entry.getKey());
+                    if (ordinal >= 0) {
+                        breakdown.add(ordinal, entry.getValue().getAsLong());
+                    }
+                }
+                stats.setBreakdown(type, breakdown.isEmpty() ? null : breakdown);
+            }
+        }
+        return stats;
+    }
+
+    // Те же имена полей, что и у toJson; null-имя не пишется, как и у Gson без serializeNulls
+    static void write(JsonWriter out, PlayerStats stats) throws IOException {
+        out.beginObject();
+        out.name("uuid").value(stats.getUuid().toString());
+        if (stats.getPlayerName() != null) {
+            out.name("player_name").value(stats.getPlayerName());
+        }
+        for (StatType type : StatType.values()) {
+            if (type.isDistance()) {
+                out.name(type.key).value(stats.getDistanceTraveled());
+            } else {
+                out.name(type.key).value(type.get(stats));
+            }
+        }
+        boolean opened = false;
+        for (BreakdownType type : BreakdownType.values()) {
+            StatBreakdown breakdown = stats.getBreakdown(type);
+            if (breakdown == null || breakdown.isEmpty()) {
+                continue;
+            }
+            if (!opened) {
+                out.name(BREAKDOWNS).beginObject();
+                opened = true;
+            }
+            out.name(type.key).beginObject();
+            writeEntries(out, type, breakdown);
+            out.endObject();
+        }
+        if (opened) {
+            out.endObject();
+        }
+        out.endObject();
+    }
+
+    // Как fromJson: отсутствующие поля - 0, без uuid берётся fallbackUuid, лишние поля пропускаются
+    static PlayerStats read(JsonReader in, UUID fallbackUuid) throws IOException {
+        PlayerStats stats = new PlayerStats();
+        String uuidString = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "uuid" -> uuidString = in.nextString();
+                case "player_name" -> stats.setPlayerName(in.nextString());
+                case BREAKDOWNS -> readBreakdowns(in, stats);
+                default -> {
+                    StatType type = StatType.byKey(name);
+                    if (type == null) {
+                        in.skipValue();
+                    } else if (type.isDistance()) {
+                        stats.setDistanceTraveled(in.nextDouble());
+                    } else {
+                        stats.setValue(type.field, nextLong(in));
+                    }
+                }
+            }
+        }
+        in.endObject();
+        stats.setUuid(uuidString != null ? UUID.fromString(uuidString) : fallbackUuid);
         return stats;
     }
+
+    // Лямбда forEach не может бросать IOException, поэтому ошибка выносится наружу
+    private static void writeEntries(JsonWriter out, BreakdownType type, StatBreakdown breakdown)
+            throws IOException {
+        IOException[] failure = new IOException[1];
+        breakdown.forEach((key, value) -> {
+            if (failure[0] != null) {
+                return;
+            }
+            try {
+                out.name(type.name(key)).value(value);
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    // Неизвестные разбивки и константы, которых нет в этой версии сервера, пропускаются
+    private static void readBreakdowns(JsonReader in, PlayerStats stats) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            BreakdownType type = BreakdownType.byKey(in.nextName());
+            if (type == null || in.peek() != JsonToken.BEGIN_OBJECT) {
+                in.skipValue();
+                continue;
+            }
+            StatBreakdown breakdown = new StatBreakdown();
+            in.beginObject();
+            while (in.hasNext()) {
+                int ordinal = type.ordinal(in.nextName());
+                if (ordinal < 0 || in.peek() == JsonToken.NULL) {
+                    in.skipValue();
+                } else {
+                    breakdown.add(ordinal, nextLong(in));
+                }
+            }
+            in.endObject();
+            stats.setBreakdown(type, breakdown.isEmpty() ? null : breakdown);
+        }
+        in.endObject();
+    }
+
+    // getAsInt дерева принимал и дробные, и строковые числа; nextDouble тоже
+    private static long nextLong(JsonReader in) throws IOException {
+        return (long) in.nextDouble();
+    }
+
+    // Кодирует статистику в UTF-8 JSON. Буфер принадлежит потоку и годен до следующего вызова
+    static ByteBuffer encode(PlayerStats stats) throws IOException {
+        Buffers buffers = BUFFERS.get();
+        buffers.text.setLength(0);
+        JsonWriter out = new JsonWriter(buffers.textWriter);
+        out.setIndent("  ");
+        write(out, stats);
+        out.flush();
+        return buffers.encode();
+    }
+
+    // Читает файл игрока целиком в буферы потока и разбирает его без промежуточного дерева
+    static PlayerStats decode(FileChannel channel, UUID fallbackUuid) throws IOException {
+        Buffers buffers = BUFFERS.get();
+        buffers.readFully(channel);
+        return read(new JsonReader(buffers.reader), fallbackUuid);
+    }
+
+    private static final class Buffers {
+        private final StringBuilder text = new StringBuilder(512);
+        private final Writer textWriter = new Writer() {
+            @Override
+            public void write(char[] chars, int offset, int length) {
+                text.append(chars, offset, length);
+            }
+
+            @Override
+            public void write(int c) {
+                text.append((char) c);
+            }
+
+            @Override
+            public void write(String string, int offset, int length) {
+                text.append(string, offset, offset + length);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        private ByteBuffer bytes = ByteBuffer.allocate(1024);
+        private CharBuffer chars = CharBuffer.allocate(1024);
+        private final CharBufferReader reader = new CharBufferReader();
+
+        private ByteBuffer encode() throws CharacterCodingException {
+            // В UTF-8 символ BMP занимает не больше трёх байт
+            int maxBytes = text.length() * 3;
+            if (bytes.capacity() < maxBytes) {
+                bytes = ByteBuffer.allocate(Integer.highestOneBit(maxBytes) << 1);
+            }
+            bytes.clear();
+            encoder.reset();
+            CharBuffer source = CharBuffer.wrap(text);
+            check(encoder.encode(source, bytes, true));
+            check(encoder.flush(bytes));
+            bytes.flip();
+            return bytes;
+        }
+
+        private void readFully(FileChannel channel) throws IOException {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE / 2) {
+                throw new IOException("Stats file is too large: " + size + " bytes");
+            }
+            if (bytes.capacity() < size) {
+                bytes = ByteBuffer.allocate(Integer.highestOneBit((int) size) << 1);
+            }
+            bytes.clear();
+            while (bytes.position() < size) {
+                if (channel.read(bytes) < 0) {
+                    break;
+                }
+            }
+            bytes.flip();
+            if (chars.capacity() < bytes.remaining()) {
+                chars = CharBuffer.allocate(Integer.highestOneBit(bytes.remaining()) << 1);
+            }
+            chars.clear();
+            decoder.reset();
+            check(decoder.decode(bytes, chars, true));
+            check(decoder.flush(chars));
+            chars.flip();
+            reader.source = chars;
+        }
+
+        private static void check(CoderResult result) throws CharacterCodingException {
+            if (result.isError()) {
+                result.throwException();
+            }
+        }
+    }
+
+    // Reader поверх CharBuffer без копирования; JsonReader читает из него блоками
+    private static final class CharBufferReader extends Reader {
+        private CharBuffer source;
+
+        @Override
+        public int read(char[] target, int offset, int length) {
+            if (!source.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, source.remaining());
+            source.get(target, offset, count);
+            return count;
+        }
+
+        @Override
+        public int read() {
+            return source.hasRemaining() ? source.get() : -1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
@@ -1,63 +1,622 @@
 package ru.annelo.player2statistic;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.entity.EntityType;
 
 public class StatsManager {
+    private static final long LEADERBOARD_REFRESH_TICKS = 100;
+    private static final long RECENT_SWEEP_TICKS = 600;
+    private static final Object FLUSH_TASK = "flush";
+    private static final Object REBUILD_TASK = "leaderboard-rebuild";
+    private static final Object WINDOWS_TASK = "windows-load";
+    private static final Object NAMES_TASK = "names";
+    private static final long NAMES_SAVE_TICKS = 1200;
+    // Наибольший лимит /stats top
+    static final int MAX_TOP_LIMIT = 100;
+
     private final StatsPlugin plugin;
-    private IStorage storage;
-    private final Map<UUID, PlayerStats> cache = new ConcurrentHashMap<>();
+    private volatile IStorage storage;
+    private final StatCounters counters = new StatCounters();
+    private final WriteBehindWriter writer;
+    // null, когда топ считает само хранилище
+    private volatile LeaderboardIndex leaderboard;
+    private final Map<UUID, StatCounters.Slot> cache = new ConcurrentHashMap<>();
+    // Недавно вышедшие игроки: слот остаётся в памяти, и повторный вход не читает хранилище.
+    // Меняется только в главном потоке
+    private final Map<UUID, Departed> recent = new ConcurrentHashMap<>();
+    private final int recentCapacity;
+    private final long recentIdleMillis;
+    private long departures;
+    // Вытесненные игроки, чьи изменения ещё не записаны; убираются после записи в onPersisted
+    private final Map<UUID, StatCounters.Slot> pendingEvictions = new ConcurrentHashMap<>();
     private final Map<UUID, Long> sessionStartTimes = new ConcurrentHashMap<>();
+    // Весь ввод-вывод хранилища идёт через свои потоки, а не через общий пул Bukkit
+    private final PersistenceExecutor io;
+    // Загрузки, не поместившиеся в очередь; повторяются на следующем цикле записи
+    private final Set<StatCounters.Slot> deferredLoads = ConcurrentHashMap.newKeySet();
+    private volatile boolean rebuildDeferred;
+    // Топы за сутки, неделю и месяц; считаются всегда в памяти, для любого хранилища
+    private final WindowedStats windows = new WindowedStats();
+    private volatile boolean windowsDeferred;
+    // Ники для топов; строки хранилища от старых версий бывают без ника
+    private final NameCache names;
+    // Изменения, не записанные к сроку выключения; null - без папки плагина
+    private final RecoveryFile recovery;
+    private final StatsMetrics.Histogram flushTime;
+    // Игроки, записанные в хранилище во время миграции; null - миграция не идёт
+    private volatile Set<UUID> writtenDuringMigration;
 
-    public StatsManager(StatsPlugin plugin, IStorage storage) {
+    public StatsManager(StatsPlugin plugin, IStorage storage, int writeChunkSize,
+            int recentCapacity, long recentIdleMillis, PersistenceExecutor io, StatsMetrics metrics) {
         this.plugin = plugin;
         this.storage = storage;
+        this.io = io;
+        this.flushTime = metrics.histogram("stats_flush_seconds",
+                "Write-behind flush duration", "writer", "write-behind");
+        this.recentCapacity = recentCapacity;
+        this.recentIdleMillis = recentIdleMillis;
+        this.writer = new WriteBehindWriter(counters, () -> this.storage, writeChunkSize,
+                this::onPersisted);
+        this.names = new NameCache(plugin != null
+                ? new File(plugin.getDataFolder(), "names.txt").toPath() : null);
+        this.recovery = plugin != null
+                ? new RecoveryFile(new File(plugin.getDataFolder(), "recovery.json").toPath()) : null;
+    }
+
+    // Фоновая запись накопленных изменений и обновление топа онлайн-игроков
+    public void start(long flushIntervalTicks) {
+        replayRecovery();
+        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::requestFlush,
+                flushIntervalTicks, flushIntervalTicks);
+        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::refreshLeaderboard,
+                LEADERBOARD_REFRESH_TICKS, LEADERBOARD_REFRESH_TICKS);
+        Bukkit.getScheduler().runTaskTimer(plugin, this::sweepRecent,
+                RECENT_SWEEP_TICKS, RECENT_SWEEP_TICKS);
+        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::submitNames,
+                NAMES_SAVE_TICKS, NAMES_SAVE_TICKS);
+        rebuildLeaderboard();
+        submitWindowsLoad();
+        submitNames();
+    }
+
+    // Первая задача читает names.txt (и повторяет чтение после ошибки), следующие пишут
+    // изменения. Отклонённая задача просто ждёт следующего таймера
+    private void submitNames() {
+        io.submit(NAMES_TASK, () -> {
+            if (names.load()) {
+                names.save();
+            }
+        }, null);
+    }
+
+    // Ники строк топа без обращений к диску в главном потоке: вызывается из асинхронной задачи
+    public void resolveNames(List<PlayerStats> rows) {
+        names.fill(rows, uuid -> plugin.getServer().getOfflinePlayer(uuid).getName());
+    }
+
+    // Таймер только ставит задачу; пока прошлая запись ждёт в очереди, новая не добавляется
+    private void requestFlush() {
+        for (StatCounters.Slot slot : deferredLoads) {
+            if (deferredLoads.remove(slot) && !slot.loaded) {
+                submitLoad(slot);
+            }
+        }
+        if (rebuildDeferred) {
+            rebuildDeferred = false;
+            submitRebuild();
+        }
+        if (windowsDeferred) {
+            windowsDeferred = false;
+            submitWindowsLoad();
+        }
+        io.submit(FLUSH_TASK, this::flush, null);
+    }
+
+    private void flush() {
+        long start = System.nanoTime();
+        writer.flush();
+        flushTime.recordSince(start);
+        persistWindows();
+    }
+
+    // Дневные корзины пишутся только после загрузки: иначе загрузка прочитала бы их второй раз
+    private void persistWindows() {
+        if (!windows.isReady()) {
+            return;
+        }
+        List<DailyStats> batch = windows.drainPending();
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Возвращается только незаписанное: записанные приращения при повторе не удвоятся
+        List<DailyStats> unsaved = storage.saveDailyStats(batch);
+        if (!unsaved.isEmpty()) {
+            windows.restorePending(unsaved);
+        }
+    }
+
+    // Корзины читаются один раз при запуске; при смене хранилища остаются в памяти
+    private void submitWindowsLoad() {
+        io.submit(WINDOWS_TASK, () -> {
+            if (storage.forEachDailyStats(windows.oldestDay(), windows::load)) {
+                windows.markReady();
+            } else {
+                windows.resetToPending();
+                windowsDeferred = true;
+            }
+        }, () -> windowsDeferred = true);
+    }
+
+    // Команды (топ, поиск игрока, миграция) обращаются к хранилищу через те же ограниченные
+    // потоки. onDiscard - очередь переполнена или плагин выключается
+    public void submitIo(Runnable action, Runnable onDiscard) {
+        io.submit(new Object(), action, onDiscard);
+    }
+
+    // Фоновым задачам достаётся не больше половины оставшегося до deadline времени,
+    // остальное - последней записи в saveAllCachedSync
+    public void close(long deadlineNanos) {
+        io.close((deadlineNanos - System.nanoTime()) / 2);
+    }
+
+    // Изменения, не записанные при прошлом выключении, пишутся в потоке запуска до первой
+    // загрузки игрока: иначе загрузка прочитала бы значения без них, а следующая запись
+    // затёрла бы их. Не записанное остаётся в файле до следующего запуска
+    private void replayRecovery() {
+        if (recovery == null || !recovery.exists()) {
+            return;
+        }
+        List<RecoveryFile.Chunk> chunks;
+        try {
+            chunks = recovery.read();
+        } catch (IOException e) {
+            plugin.getLogger().severe("Не удалось прочитать файл восстановления статистики.");
+            e.printStackTrace();
+            return;
+        }
+        // Номера пачек из файла не должны достаться новым пачкам
+        long reserved = 0;
+        for (RecoveryFile.Chunk chunk : chunks) {
+            reserved = Math.max(reserved, chunk.sequence);
+        }
+        writer.reserveSequence(reserved);
+        // Файл переписывается после каждой пачки: сбой посреди восстановления не повторит
+        // уже прибавленные приращения
+        IStorage target = storage;
+        List<RecoveryFile.Chunk> remaining = new ArrayList<>(chunks);
+        int players = 0;
+        while (!remaining.isEmpty()) {
+            RecoveryFile.Chunk chunk = remaining.get(0);
+            if (chunk.kind == RecoveryFile.Kind.DELTAS && chunk.sequence == 0 && target.isAdditive()) {
+                // Номер попадает в файл до записи, как у пачки writer'а в полёте
+                long last = target.lastCommittedSequence();
+                if (last < 0) {
+                    break;
+                }
+                reserved = Math.max(last, reserved) + 1;
+                writer.reserveSequence(reserved);
+                chunk = new RecoveryFile.Chunk(RecoveryFile.Kind.DELTAS, reserved, chunk.stats);
+                remaining.set(0, chunk);
+                if (!writeRecovery(remaining)) {
+                    break;
+                }
+            }
+            if (!replay(target, chunk)) {
+                break;
+            }
+            players += chunk.stats.size();
+            remaining.remove(0);
+            if (!writeRecovery(remaining)) {
+                break;
+            }
+        }
+        if (players > 0) {
+            plugin.getLogger().info("Записана статистика " + players
+                    + " игроков, не сохранённая при прошлом выключении.");
+        }
+        if (!remaining.isEmpty()) {
+            plugin.getLogger().severe("Не удалось записать статистику из recovery.json;"
+                    + " повтор при следующем запуске.");
+        }
+    }
+
+    private boolean replay(IStorage target, RecoveryFile.Chunk chunk) {
+        if (chunk.kind == RecoveryFile.Kind.SNAPSHOTS) {
+            return target.savePlayerStatsBatch(chunk.stats);
+        }
+        if (target.isAdditive()) {
+            return target.applyDeltas(chunk.sequence, chunk.stats);
+        }
+        // Приращения поверх сохранённых значений
+        List<PlayerStats> merged = new ArrayList<>(chunk.stats.size());
+        for (PlayerStats delta : chunk.stats) {
+            PlayerStats stored = target.loadPlayerStats(delta.getUuid());
+            if (stored == null) {
+                // Ошибка чтения: приращение нельзя записать как итоговое значение, пачка ждёт
+                return false;
+            }
+            stored.merge(delta);
+            if (delta.getPlayerName() != null) {
+                stored.setPlayerName(delta.getPlayerName());
+            }
+            merged.add(stored);
+        }
+        return target.savePlayerStatsBatch(merged);
+    }
+
+    // Пустой список удаляет файл
+    private boolean writeRecovery(List<RecoveryFile.Chunk> chunks) {
+        if (recovery == null) {
+            return false;
+        }
+        try {
+            if (chunks.isEmpty()) {
+                recovery.delete();
+            } else {
+                recovery.write(chunks);
+            }
+            return true;
+        } catch (IOException e) {
+            plugin.getLogger().severe("Не удалось записать файл восстановления статистики.");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Начинается до первого чтения миграции: запись, которую перенос мог прочитать до неё,
+    // будет скопирована ещё раз при переключении
+    public void beginMigration() {
+        writtenDuringMigration = ConcurrentHashMap.newKeySet();
+    }
+
+    public void endMigration() {
+        writtenDuringMigration = null;
+    }
+
+    // Вызывается в потоке миграции после переноса. Пока writer остановлен, игроки, записанные в
+    // старое хранилище во время переноса, копируются в новое целиком, и дальше writer пишет уже
+    // в него. false - досылка не удалась, хранилище не переключено
+    public boolean switchStorage(IStorage source, IStorage target) {
+        return writer.whilePaused(() -> {
+            Set<UUID> written = writtenDuringMigration;
+            if (written == null) {
+                return false;
+            }
+            List<PlayerStats> batch = new ArrayList<>(written.size());
+            for (UUID uuid : written) {
+                PlayerStats stats = source.loadPlayerStats(uuid);
+                if (stats == null) {
+                    return false;
+                }
+                // Все поля: запись по маске changedFields не перепишет остальные колонки
+                stats.setChangedFields(StatCounters.ALL_FIELDS);
+                batch.add(stats);
+            }
+            if (!batch.isEmpty() && !target.savePlayerStatsBatch(batch)) {
+                return false;
+            }
+            writtenDuringMigration = null;
+            storage = target;
+            return true;
+        });
     }
 
     public void setStorage(IStorage storage) {
         this.storage = storage;
+        rebuildLeaderboard();
+    }
+
+    // window == null - за всё время; пока корзины не загружены, оконный топ пуст
+    public List<PlayerStats> getTopStats(StatType statType, int limit, WindowedStats.Window window) {
+        if (window == null) {
+            return getTopStats(statType, limit);
+        }
+        return windows.isReady() ? windows.top(window, statType, clampTopLimit(limit))
+                : Collections.emptyList();
+    }
+
+    // Лимит топа приходит из команды: все пути (индекс, хранилище, окна) получают 1..MAX_TOP_LIMIT
+    static int clampTopLimit(int limit) {
+        return Math.max(1, Math.min(MAX_TOP_LIMIT, limit));
+    }
+
+    // Место игрока и соседи за O(log n): по LeaderboardIndex или индексам базы. null - индекс
+    // ещё строится или хранилище не ответило
+    public StatRank getRank(StatType statType, UUID uuid, int radius) {
+        LeaderboardIndex index = leaderboard;
+        if (index != null) {
+            return index.isReady() ? index.rank(statType, uuid, radius) : null;
+        }
+        return storage.getRank(statType, uuid, radius);
+    }
+
+    public List<PlayerStats> getTopStats(StatType statType, int limit) {
+        limit = clampTopLimit(limit);
+        LeaderboardIndex index = leaderboard;
+        if (index != null && index.isReady()) {
+            return index.top(statType, limit);
+        }
+        return storage.getTopStats(statType, limit);
+    }
+
+    // Индекс строится один раз по всему хранилищу, дальше обновляется из памяти
+    private void rebuildLeaderboard() {
+        IStorage source = storage;
+        if (source.hasFastTopQueries()) {
+            leaderboard = null;
+            return;
+        }
+        leaderboard = new LeaderboardIndex();
+        submitRebuild();
+    }
+
+    // Задача берёт текущие индекс и хранилище в момент выполнения
+    private void submitRebuild() {
+        io.submit(REBUILD_TASK, () -> {
+            LeaderboardIndex index = leaderboard;
+            IStorage source = storage;
+            if (index == null || index.isReady()) {
+                return;
+            }
+            // Неполный индекс не используется: топ так и будет считать хранилище
+            boolean complete = source.forEachPlayer(stats -> {
+                index.update(stats);
+                names.putIfAbsent(stats.getUuid(), stats.getPlayerName());
+            });
+            if (complete) {
+                refreshLeaderboard();
+                index.markReady();
+            }
+        }, () -> rebuildDeferred = true);
+    }
+
+    private void refreshLeaderboard() {
+        LeaderboardIndex index = leaderboard;
+        if (index == null) {
+            return;
+        }
+        for (StatCounters.Slot slot : cache.values()) {
+            if (slot.loaded && slot.isDirty()) {
+                index.update(slot.snapshot());
+            }
+        }
+        for (Departed departed : recent.values()) {
+            if (departed.slot.loaded && departed.slot.isDirty()) {
+                index.update(departed.slot.snapshot());
+            }
+        }
+    }
+
+    private void onPersisted(PlayerStats snapshot, PlayerStats delta) {
+        Set<UUID> migrating = writtenDuringMigration;
+        if (migrating != null) {
+            migrating.add(snapshot.getUuid());
+        }
+        // Изменения после снимка ещё ждут следующей записи
+        pendingEvictions.computeIfPresent(snapshot.getUuid(),
+                (uuid, slot) -> slot.isDirty() ? slot : null);
+        windows.add(snapshot.getUuid(), snapshot.getPlayerName(), StatCounters.fields(delta));
+        LeaderboardIndex index = leaderboard;
+        if (index != null) {
+            index.update(snapshot);
+        }
     }
 
     public PlayerStats getStats(UUID uuid) {
-        return cache.get(uuid);
+        StatCounters.Slot slot = findSlot(uuid);
+        return slot != null ? slot.snapshot() : null;
+    }
+
+    // Только значения счётчиков, без копий разбивок: для вывода по шаблону
+    public PlayerStats getValues(UUID uuid) {
+        StatCounters.Slot slot = findSlot(uuid);
+        return slot != null ? slot.values() : null;
+    }
+
+    // Одно поле без снимка всей строки: плейсхолдеры опрашиваются каждые несколько тиков
+    // для каждого игрока. Long.MIN_VALUE - игрока нет в памяти
+    public long getValue(UUID uuid, int field) {
+        StatCounters.Slot slot = findSlot(uuid);
+        return slot != null ? slot.get(field) : Long.MIN_VALUE;
+    }
+
+    private StatCounters.Slot findSlot(UUID uuid) {
+        StatCounters.Slot slot = cache.get(uuid);
+        if (slot == null) {
+            Departed departed = recent.get(uuid);
+            slot = departed != null ? departed.slot : null;
+        }
+        return slot;
+    }
+
+    // UUID по нику: индекс NameCache, затем поиск в хранилище (индекс по player_name в базе).
+    // Вызывается не в главном потоке; null - игрок не найден
+    public UUID findPlayer(String playerName) {
+        UUID uuid = names.find(playerName);
+        return uuid != null ? uuid : storage.findPlayerByName(playerName);
+    }
+
+    // Статистика игрока не в сети по нику. Вызывается в потоке ввода-вывода (submitIo) и не
+    // сбрасывает writer: незаписанный вытесненный слот читается из памяти. null - не найден
+    public PlayerStats findOfflineStats(String playerName) {
+        UUID uuid = findPlayer(playerName);
+        if (uuid == null) {
+            return null;
+        }
+        PlayerStats inMemory = getStats(uuid);
+        if (inMemory != null) {
+            return inMemory;
+        }
+        // Вытесненный слот, ещё не дошедший до хранилища, свежее хранилища. Освобождённый
+        // после снимка слот уже записан, и тогда читается хранилище
+        StatCounters.Slot evicted = pendingEvictions.get(uuid);
+        PlayerStats unsaved = evicted != null ? evicted.snapshot() : null;
+        if (unsaved != null && evicted.released) {
+            unsaved = null;
+        }
+        if (unsaved != null && evicted.loaded) {
+            return unsaved;
+        }
+        PlayerStats stats = storage.loadPlayerStats(uuid);
+        if (stats != null && unsaved != null) {
+            // Незагруженный слот хранит только счёт своей сессии
+            stats.merge(unsaved);
+        }
+        if (stats != null) {
+            names.putIfAbsent(uuid, stats.getPlayerName());
+            if (stats.getPlayerName() == null) {
+                stats.setPlayerName(names.get(uuid));
+            }
+        }
+        return stats;
+    }
+
+    // Статистика недавно вышедшего игрока по нику, без обращения к хранилищу
+    public PlayerStats getDepartedStats(String playerName) {
+        for (Departed departed : recent.values()) {
+            if (playerName.equalsIgnoreCase(departed.slot.playerName)) {
+                return departed.slot.snapshot();
+            }
+        }
+        return null;
     }
 
     public void createEmptyStats(UUID uuid, String playerName) {
-        PlayerStats stats = new PlayerStats();
-        stats.setUuid(uuid);
-        stats.setPlayerName(playerName);
-        cache.put(uuid, stats);
+        Departed departed = recent.remove(uuid);
+        if (departed != null) {
+            departed.slot.visits++;
+            cache.put(uuid, departed.slot);
+        }
+        StatCounters.Slot slot = cache.computeIfAbsent(uuid, id -> counters.acquire(id, playerName));
+        slot.playerName = playerName;
+        names.put(uuid, playerName);
     }
 
     public void loadStats(UUID uuid) {
-        // Load asynchronously
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            PlayerStats dbStats = storage.loadPlayerStats(uuid);
-            if (dbStats != null) {
-                PlayerStats cached = cache.get(uuid);
-                if (cached != null) {
-                    synchronized (cached) {
-                        cached.merge(dbStats);
-                    }
-                } else {
-                    cache.put(uuid, dbStats);
-                }
+        StatCounters.Slot slot = cache.get(uuid);
+        // Слот из кэша вышедших уже загружен или загружается
+        if (slot == null || slot.loadScheduled) {
+            return;
+        }
+        slot.loadScheduled = true;
+        submitLoad(slot);
+    }
+
+    // Ключ задачи - сам слот: каждый слот загружается ровно один раз
+    private void submitLoad(StatCounters.Slot slot) {
+        io.submit(slot, () -> {
+            // Прошлый слот игрока вытеснен и ещё не записан: загрузка ждёт его записи, иначе
+            // прочитала бы значения без его сессии, а следующая запись их затёрла бы
+            if (pendingEvictions.containsKey(slot.uuid)
+                    && (!writer.flush() || pendingEvictions.containsKey(slot.uuid))) {
+                deferredLoads.add(slot);
+                return;
             }
-        });
+            PlayerStats dbStats = storage.loadPlayerStats(slot.uuid);
+            if (dbStats == null) {
+                // Ошибка чтения: слот остаётся незагруженным, и запись не затрёт сохранённые
+                // значения счётом этой сессии. Загрузка повторится на следующем цикле записи
+                deferredLoads.add(slot);
+                return;
+            }
+            slot.load(dbStats);
+            names.putIfAbsent(slot.uuid, dbStats.getPlayerName());
+            slot.loaded = true;
+        }, () -> deferredLoads.add(slot));
     }
 
+    // Слот переходит в кэш вышедших; в хранилище он попадёт при автосохранении или вытеснении
     public void unloadStats(UUID uuid) {
-        PlayerStats stats = cache.remove(uuid);
-        if (stats != null) {
-            saveStats(stats);
+        StatCounters.Slot slot = cache.remove(uuid);
+        if (slot == null) {
+            return;
+        }
+        if (recentCapacity <= 0) {
+            evict(slot);
+            return;
+        }
+        recent.put(uuid, new Departed(slot, System.currentTimeMillis(), ++departures));
+        while (recent.size() > recentCapacity) {
+            evictLeastValuable();
         }
     }
 
+    // Первым уходит игрок с наименьшим числом заходов, при равенстве - вышедший раньше
+    private void evictLeastValuable() {
+        Departed victim = null;
+        for (Departed departed : recent.values()) {
+            if (victim == null || departed.slot.visits < victim.slot.visits
+                    || (departed.slot.visits == victim.slot.visits
+                            && departed.order < victim.order)) {
+                victim = departed;
+            }
+        }
+        if (victim != null && recent.remove(victim.slot.uuid, victim)) {
+            evict(victim.slot);
+        }
+    }
+
+    private void sweepRecent() {
+        long idleSince = System.currentTimeMillis() - recentIdleMillis;
+        for (Departed departed : recent.values()) {
+            if (departed.departedAt < idleSince && recent.remove(departed.slot.uuid, departed)) {
+                evict(departed.slot);
+            }
+        }
+    }
+
+    // Последняя запись слота; после неё writer освобождает строку
+    private void evict(StatCounters.Slot slot) {
+        if (slot.isDirty()) {
+            pendingEvictions.put(slot.uuid, slot);
+        }
+        slot.departed = true;
+        writer.submit(slot);
+    }
+
     public void saveAllCached() {
-        for (PlayerStats stats : cache.values()) {
-            saveStats(stats);
+        submitDirty();
+    }
+
+    // Автосохранение частями по тикам вместо обхода всех игроков в одном тике
+    public void startAutosave(long intervalTicks, long tickBudgetNanos) {
+        AutosaveScheduler<StatCounters.Slot> autosave = new AutosaveScheduler<>(
+                this::autosaveCandidates, StatCounters.Slot::isDirty, writer::submit,
+                () -> plugin.getServer().getTPS()[0], System::nanoTime,
+                intervalTicks, tickBudgetNanos);
+        Bukkit.getScheduler().runTaskTimer(plugin, autosave, 1, 1);
+    }
+
+    private List<StatCounters.Slot> autosaveCandidates() {
+        List<StatCounters.Slot> slots = new ArrayList<>(cache.size() + recent.size());
+        slots.addAll(cache.values());
+        for (Departed departed : recent.values()) {
+            slots.add(departed.slot);
+        }
+        return slots;
+    }
+
+    private void submitDirty() {
+        for (StatCounters.Slot slot : cache.values()) {
+            if (slot.isDirty()) {
+                writer.submit(slot);
+            }
+        }
+        for (Departed departed : recent.values()) {
+            if (departed.slot.isDirty()) {
+                writer.submit(departed.slot);
+            }
         }
     }
 
@@ -86,125 +645,166 @@ public class StatsManager {
         }
     }
 
-    public void saveAllCachedSync() {
+    // Последняя запись при выключении: новые пачки не начинаются после deadline, всё не
+    // записанное к этому сроку уходит в файл восстановления и пишется при следующем запуске
+    public void saveAllCachedSync(long deadlineNanos) {
         updateSessionStats();
-        for (PlayerStats stats : cache.values()) {
-            final PlayerStats snapshot;
-            synchronized (stats) {
-                snapshot = stats.clone();
+        submitDirty();
+        List<RecoveryFile.Chunk> unsaved;
+        try {
+            unsaved = writer.flushBefore(deadlineNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            unsaved = null;
+        }
+        if (unsaved == null) {
+            unsaved = unsavedWhileStuck();
+        }
+        if (!unsaved.isEmpty()) {
+            int players = 0;
+            for (RecoveryFile.Chunk chunk : unsaved) {
+                players += chunk.stats.size();
+            }
+            if (writeRecovery(unsaved)) {
+                plugin.getLogger().warning("Статистика " + players + " игроков не записана за отведённое"
+                        + " время и сохранена в recovery.json; она будет записана при следующем запуске.");
+            } else {
+                plugin.getLogger().severe("Не удалось сохранить статистику " + players
+                        + " игроков при выключении.");
             }
-            storage.savePlayerStats(snapshot);
         }
+        if (System.nanoTime() - deadlineNanos < 0) {
+            persistWindows();
+        }
+        names.save();
     }
 
-    public void saveStats(PlayerStats stats) {
-        final PlayerStats snapshot;
-        synchronized (stats) {
-            snapshot = stats.clone();
+    // Прошлая запись зависла в хранилище и держит writer. Без него безопасны только
+    // абсолютные значения: приращения могли уже уйти вместе с зависшей пачкой
+    private List<RecoveryFile.Chunk> unsavedWhileStuck() {
+        if (storage.isAdditive()) {
+            plugin.getLogger().severe("Запись в хранилище зависла; приращения "
+                    + writer.pendingCount() + " игроков не сохранены.");
+            return Collections.emptyList();
         }
-
-        // Ensure saving is done asynchronously
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-             storage.savePlayerStats(snapshot);
-        });
+        Set<StatCounters.Slot> slots = Collections.newSetFromMap(new IdentityHashMap<>());
+        slots.addAll(writer.pendingSlots());
+        slots.addAll(autosaveCandidates());
+        List<PlayerStats> snapshots = new ArrayList<>();
+        List<PlayerStats> deltas = new ArrayList<>();
+        for (StatCounters.Slot slot : slots) {
+            if (slot.released) {
+                continue;
+            }
+            PlayerStats snapshot = slot.snapshot();
+            if (snapshot.getChangedFields() == 0) {
+                continue;
+            }
+            if (slot.loaded) {
+                snapshots.add(snapshot);
+            } else {
+                deltas.add(slot.delta(snapshot));
+            }
+        }
+        List<RecoveryFile.Chunk> chunks = new ArrayList<>();
+        if (!snapshots.isEmpty()) {
+            chunks.add(new RecoveryFile.Chunk(RecoveryFile.Kind.SNAPSHOTS, 0, snapshots));
+        }
+        if (!deltas.isEmpty()) {
+            chunks.add(new RecoveryFile.Chunk(RecoveryFile.Kind.DELTAS, 0, deltas));
+        }
+        return chunks;
     }
 
-    public void incrementMobsKilled(UUID uuid) {
-        PlayerStats stats = cache.get(uuid);
-        if (stats != null) {
-            synchronized (stats) {
-                stats.setMobsKilled(stats.getMobsKilled() + 1);
-            }
+    public void incrementMobsKilled(UUID uuid, EntityType type) {
+        StatCounters.Slot slot = cache.get(uuid);
+        if (slot != null) {
+            slot.addBreakdown(BreakdownType.MOBS_KILLED, type.ordinal());
+            slot.add(StatCounters.MOBS_KILLED, 1);
         }
     }
 
     public void incrementItemsEaten(UUID uuid) {
-        PlayerStats stats = cache.get(uuid);
-        if (stats != null) {
-            synchronized (stats) {
-                stats.setItemsEaten(stats.getItemsEaten() + 1);
-            }
+        StatCounters.Slot slot = cache.get(uuid);
+        if (slot != null) {
+            slot.add(StatCounters.ITEMS_EATEN, 1);
         }
     }
 
-    public void incrementBlocksBroken(UUID uuid) {
-        PlayerStats stats = cache.get(uuid);
-        if (stats != null) {
-            synchronized (stats) {
-                stats.setBlocksBroken(stats.getBlocksBroken() + 1);
-            }
+    public void incrementBlocksBroken(UUID uuid, Material block) {
+        StatCounters.Slot slot = cache.get(uuid);
+        if (slot != null) {
+            slot.addBreakdown(BreakdownType.BLOCKS_BROKEN, block.ordinal());
+            slot.add(StatCounters.BLOCKS_BROKEN, 1);
         }
     }
 
     public void incrementDeaths(UUID uuid) {
-        PlayerStats stats = cache.get(uuid);
-        if (stats != null) {
-            synchronized (stats) {
-                stats.setDeaths(stats.getDeaths() + 1);
-            }
+        StatCounters.Slot slot = cache.get(uuid);
+        if (slot != null) {
+            slot.add(StatCounters.DEATHS, 1);
         }
     }
 
-    public void incrementItemsCrafted(UUID uuid) {
-        PlayerStats stats = cache.get(uuid);
-        if (stats != null) {
-            synchronized (stats) {
-                stats.setItemsCrafted(stats.getItemsCrafted() + 1);
-            }
+    public void incrementItemsCrafted(UUID uuid, int amount) {
+        StatCounters.Slot slot = cache.get(uuid);
+        if (slot != null) {
+            slot.add(StatCounters.ITEMS_CRAFTED, amount);
         }
     }
 
     public void incrementItemsUsed(UUID uuid) {
-        PlayerStats stats = cache.get(uuid);
-        if (stats != null) {
-            synchronized (stats) {
-                stats.setItemsUsed(stats.getItemsUsed() + 1);
-            }
+        StatCounters.Slot slot = cache.get(uuid);
+        if (slot != null) {
+            slot.add(StatCounters.ITEMS_USED, 1);
         }
     }
 
     public void incrementChestsOpened(UUID uuid) {
-        PlayerStats stats = cache.get(uuid);
-        if (stats != null) {
-            synchronized (stats) {
-                stats.setChestsOpened(stats.getChestsOpened() + 1);
-            }
+        StatCounters.Slot slot = cache.get(uuid);
+        if (slot != null) {
+            slot.add(StatCounters.CHESTS_OPENED, 1);
         }
     }
 
     public void incrementMessagesSent(UUID uuid) {
-        PlayerStats stats = cache.get(uuid);
-        if (stats != null) {
-            synchronized (stats) {
-                stats.setMessagesSent(stats.getMessagesSent() + 1);
-            }
+        StatCounters.Slot slot = cache.get(uuid);
+        if (slot != null) {
+            slot.add(StatCounters.MESSAGES_SENT, 1);
         }
     }
 
     public void addDistanceTraveled(UUID uuid, double distance) {
-        PlayerStats stats = cache.get(uuid);
-        if (stats != null) {
-            synchronized (stats) {
-                stats.setDistanceTraveled(stats.getDistanceTraveled() + distance);
-            }
+        StatCounters.Slot slot = cache.get(uuid);
+        if (slot != null) {
+            slot.addDistance(distance);
         }
     }
 
     public void addPlayTime(UUID uuid, int minutes) {
-        PlayerStats stats = cache.get(uuid);
-        if (stats != null) {
-            synchronized (stats) {
-                stats.setPlayTime(stats.getPlayTime() + minutes);
-            }
+        StatCounters.Slot slot = cache.get(uuid);
+        if (slot != null) {
+            slot.add(StatCounters.PLAY_TIME, minutes);
         }
     }
 
     public void setPlayerName(UUID uuid, String name) {
-        PlayerStats stats = cache.get(uuid);
-        if (stats != null) {
-            synchronized (stats) {
-                stats.setPlayerName(name);
-            }
+        StatCounters.Slot slot = cache.get(uuid);
+        if (slot != null) {
+            slot.playerName = name;
+        }
+    }
+
+    private static final class Departed {
+        private final StatCounters.Slot slot;
+        private final long departedAt;
+        // Порядок выходов: время в миллисекундах у соседних выходов совпадает
+        private final long order;
+
+        private Departed(StatCounters.Slot slot, long departedAt, long order) {
+            this.slot = slot;
+            this.departedAt = departedAt;
+            this.order = order;
         }
     }
 }
@@ -0,0 +1,195 @@
+package ru.annelo.player2statistic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Метрики плагина: гистограммы задержек в наносекундах и показатели (очередь, пул соединений).
+// Гистограммы создаются заранее, запись в них ничего не выделяет - её можно делать в
+// обработчиках событий. Отдаются командой /stats metrics и в формате Prometheus.
+final class StatsMetrics {
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+    // Порядок вывода - порядок регистрации
+    private final List<Family> order = new CopyOnWriteArrayList<>();
+
+    // Один и тот же набор меток возвращает одну и ту же гистограмму
+    Histogram histogram(String name, String help, String label, String value) {
+        Family family = family(name, help, "histogram");
+        return family.histograms.computeIfAbsent(value, v -> new Histogram(label, v));
+    }
+
+    void gauge(String name, String help, LongSupplier value) {
+        family(name, help, "gauge").gauge = value;
+    }
+
+    private Family family(String name, String help, String type) {
+        return families.computeIfAbsent(name, n -> {
+            Family family = new Family(n, help, type);
+            order.add(family);
+            return family;
+        });
+    }
+
+    // Текстовый формат Prometheus 0.0.4; время в секундах
+    void writePrometheus(StringBuilder out) {
+        for (Family family : order) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            if (family.gauge != null) {
+                out.append(family.name).append(' ').append(family.gauge.getAsLong()).append('\n');
+                continue;
+            }
+            for (Histogram histogram : family.histograms.values()) {
+                histogram.writePrometheus(family.name, out);
+            }
+        }
+    }
+
+    // Строки для чата: число вызовов, среднее, p50, p99 и максимум
+    List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        for (Family family : order) {
+            if (family.gauge != null) {
+                lines.add(family.name + " = " + family.gauge.getAsLong());
+                continue;
+            }
+            for (Histogram histogram : family.histograms.values()) {
+                long count = histogram.count();
+                if (count == 0) {
+                    continue;
+                }
+                lines.add(String.format(Locale.ROOT, "%s{%s}: n=%d avg=%s p50=%s p99=%s max=%s",
+                        family.name, histogram.value, count, formatNanos(histogram.mean()),
+                        formatNanos(histogram.percentile(0.5)), formatNanos(histogram.percentile(0.99)),
+                        formatNanos(histogram.max())));
+            }
+        }
+        return lines;
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 10_000) {
+            return nanos + "ns";
+        }
+        if (nanos < 10_000_000) {
+            return nanos / 1_000 + "µs";
+        }
+        return nanos / 1_000_000 + "ms";
+    }
+
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+        private volatile LongSupplier gauge;
+
+        private Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    // Корзина i считает значения из [2^(i-1), 2^i) наносекунд, последняя - всё, что больше
+    static final class Histogram {
+        private static final int BUCKETS = 40;
+        // В Prometheus отдаются границы от 1 мкс до ~17 с через степень двойки
+        private static final int FIRST_EXPORTED = 10;
+        private static final int LAST_EXPORTED = 34;
+
+        private final String label;
+        private final String value;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram(String label, String value) {
+            this.label = label;
+            this.value = value;
+        }
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+            count.increment();
+            sum.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : sum.sum() / n;
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        // Верхняя граница корзины, в которую попал квантиль
+        long percentile(double quantile) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(max.get(), upperBound(i));
+                }
+            }
+            return max.get();
+        }
+
+        private static long upperBound(int bucket) {
+            return bucket == 0 ? 0 : (1L << bucket) - 1;
+        }
+
+        private void writePrometheus(String name, StringBuilder out) {
+            String labels = label + "=\"" + value + "\"";
+            long cumulative = 0;
+            int bucket = 0;
+            for (int exported = FIRST_EXPORTED; exported <= LAST_EXPORTED; exported += 2) {
+                for (; bucket <= exported; bucket++) {
+                    cumulative += buckets.get(bucket);
+                }
+                out.append(name).append("_bucket{").append(labels).append(",le=\"")
+                        .append(seconds(1L << exported)).append("\"} ").append(cumulative).append('\n');
+            }
+            // Итог по корзинам, а не count: запись могла случиться посреди вывода
+            long total = cumulative;
+            for (; bucket < BUCKETS; bucket++) {
+                total += buckets.get(bucket);
+            }
+            out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ")
+                    .append(total).append('\n');
+            out.append(name).append("_sum{").append(labels).append("} ")
+                    .append(seconds(sum.sum())).append('\n');
+            out.append(name).append("_count{").append(labels).append("} ").append(total).append('\n');
+        }
+
+        private static String seconds(long nanos) {
+            return Double.toString(nanos / 1e9);
+        }
+    }
+}
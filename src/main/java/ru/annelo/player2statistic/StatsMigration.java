@@ -0,0 +1,269 @@
+package ru.annelo.player2statistic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Перенос всех игроков из одного хранилища в другое. Чтение идёт потоком через forEachPlayer
+// в ограниченную очередь, несколько писателей забирают из неё пачки и пишут их
+// savePlayerStatsBatch. UUID записанных пачек вместе с отпечатком записанных значений
+// дописываются в файл контрольной точки, так что прерванная миграция продолжается с того же
+// места. Игрок, чья запись в старом хранилище изменилась после контрольной точки (он играл
+// между попытками), переносится снова. Запись абсолютная, поэтому повтор безопасен.
+final class StatsMigration {
+    private static final int WRITE_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 100;
+    private static final long POLL_MS = 200;
+    // Длина строки контрольной точки: UUID, пробел, отпечаток в hex и перевод строки
+    private static final int CHECKPOINT_LINE = 36 + 1 + 16 + 1;
+
+    private final IStorage source;
+    private final IStorage target;
+    private final File checkpointFile;
+    private final int parallelism;
+    private final int batchSize;
+
+    private final AtomicLong migrated = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private volatile long startedAt;
+    private volatile boolean readerDone;
+    private volatile boolean failed;
+    private FileChannel checkpoint;
+
+    StatsMigration(IStorage source, IStorage target, File checkpointFile, int parallelism,
+            int batchSize) {
+        this.source = source;
+        this.target = target;
+        this.checkpointFile = checkpointFile;
+        this.parallelism = Math.max(1, parallelism);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    // Игроки, перенесённые в прошлых попытках и с тех пор не изменившиеся
+    long skipped() {
+        return skipped.get();
+    }
+
+    long migrated() {
+        return migrated.get();
+    }
+
+    double rowsPerSecond() {
+        long elapsed = System.nanoTime() - startedAt;
+        return elapsed <= 0 ? 0 : migrated.get() * 1e9 / elapsed;
+    }
+
+    // Блокирует вызывающий поток до конца. true - перенесены все игроки и контрольная точка
+    // удалена; false - миграцию можно повторить, она продолжится с контрольной точки
+    boolean run() throws IOException, InterruptedException {
+        Map<UUID, Long> done = readCheckpoint();
+        startedAt = System.nanoTime();
+        BlockingQueue<PlayerStats> queue = new ArrayBlockingQueue<>(batchSize * parallelism * 2);
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService writers = Executors.newFixedThreadPool(parallelism, task -> {
+            Thread thread = new Thread(task, "StatsPlugin-migration-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpoint = FileChannel.open(checkpointFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            List<Future<?>> futures = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                futures.add(writers.submit(() -> {
+                    try {
+                        writeLoop(queue);
+                    } catch (IOException | InterruptedException | RuntimeException e) {
+                        failed = true;
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+
+            boolean readComplete;
+            try {
+                readComplete = source.forEachPlayer(stats -> {
+                    Long written = done.get(stats.getUuid());
+                    if (written != null && written == fingerprint(stats)) {
+                        skipped.incrementAndGet();
+                    } else {
+                        enqueue(queue, stats);
+                    }
+                });
+            } catch (Aborted e) {
+                readComplete = false;
+            } finally {
+                readerDone = true;
+            }
+            if (!readComplete) {
+                failed = true;
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failed = true;
+                    throw new IOException("Migration writer failed", e.getCause());
+                }
+            }
+        } finally {
+            writers.shutdownNow();
+            checkpoint.close();
+        }
+
+        if (failed) {
+            return false;
+        }
+        Files.deleteIfExists(checkpointFile.toPath());
+        return true;
+    }
+
+    // Есть ли в хранилище хоть одна разбивка: обход останавливается на первой. Прерванный
+    // обход тоже даёт true - отсутствие разбивок не подтверждено
+    static boolean hasBreakdowns(IStorage source) {
+        try {
+            return !source.forEachPlayer(stats -> {
+                for (BreakdownType type : BreakdownType.values()) {
+                    StatBreakdown breakdown = stats.getBreakdown(type);
+                    if (breakdown != null && !breakdown.isEmpty()) {
+                        throw new Aborted();
+                    }
+                }
+            });
+        } catch (Aborted e) {
+            return true;
+        }
+    }
+
+    // Писатели встали - чтение прерывается, а не ждёт места в очереди
+    private void enqueue(BlockingQueue<PlayerStats> queue, PlayerStats stats) {
+        try {
+            while (!queue.offer(stats, POLL_MS, TimeUnit.MILLISECONDS)) {
+                if (failed) {
+                    throw new Aborted();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Aborted();
+        }
+    }
+
+    private void writeLoop(BlockingQueue<PlayerStats> queue) throws IOException, InterruptedException {
+        List<PlayerStats> batch = new ArrayList<>(batchSize);
+        while (!failed) {
+            PlayerStats first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                if (readerDone && queue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);
+            if (!writeBatch(batch)) {
+                failed = true;
+                return;
+            }
+            appendCheckpoint(batch);
+            migrated.addAndGet(batch.size());
+            batch.clear();
+        }
+    }
+
+    private boolean writeBatch(List<PlayerStats> batch) throws InterruptedException {
+        for (int attempt = 1; attempt <= WRITE_ATTEMPTS; attempt++) {
+            if (target.savePlayerStatsBatch(batch)) {
+                return true;
+            }
+            Thread.sleep(RETRY_DELAY_MS * attempt);
+        }
+        return false;
+    }
+
+    private synchronized void appendCheckpoint(List<PlayerStats> batch) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(batch.size() * CHECKPOINT_LINE);
+        for (PlayerStats stats : batch) {
+            String line = stats.getUuid() + " " + String.format("%016x", fingerprint(stats)) + "\n";
+            buffer.put(line.getBytes(StandardCharsets.US_ASCII));
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            checkpoint.write(buffer);
+        }
+    }
+
+    // Оборванная последняя строка и строки старого формата без отпечатка не считаются -
+    // такие игроки переносятся снова. Повтор UUID: действует последняя запись
+    private Map<UUID, Long> readCheckpoint() throws IOException {
+        Map<UUID, Long> done = new HashMap<>();
+        if (!checkpointFile.exists()) {
+            return done;
+        }
+        for (String line : Files.readAllLines(checkpointFile.toPath(), StandardCharsets.US_ASCII)) {
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                continue;
+            }
+            try {
+                done.put(UUID.fromString(line.substring(0, space)),
+                        Long.parseUnsignedLong(line.substring(space + 1).trim(), 16));
+            } catch (IllegalArgumentException e) {
+                // неполная запись
+            }
+        }
+        return done;
+    }
+
+    // Отпечаток переносимых значений. Разбивки складываются без учёта порядка обхода
+    static long fingerprint(PlayerStats stats) {
+        long hash = Objects.hashCode(stats.getPlayerName());
+        for (int field = 0; field < StatCounters.FIELD_COUNT; field++) {
+            hash = mix(hash * 31 + stats.getValue(field));
+        }
+        for (BreakdownType type : BreakdownType.values()) {
+            StatBreakdown breakdown = stats.getBreakdown(type);
+            if (breakdown == null) {
+                continue;
+            }
+            long[] sum = new long[1];
+            breakdown.forEach((key, value) -> sum[0] += mix(((long) key << 32) ^ mix(value)));
+            hash = mix(hash * 31 + type.ordinal() + sum[0]);
+        }
+        return hash;
+    }
+
+    // Финальное перемешивание splitmix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final class Aborted extends RuntimeException {
+        private Aborted() {
+            super(null, null, false, false);
+        }
+    }
+}
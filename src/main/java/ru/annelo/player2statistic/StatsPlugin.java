@@ -9,18 +9,27 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.inventory.CraftItemEvent;
 import org.bukkit.event.player.*;
+import org.bukkit.inventory.EquipmentSlot;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.ToIntFunction;
 
 public class StatsPlugin extends JavaPlugin {
     private IStorage storage;
     private Config config;
     private StatsManager statsManager;
+    private final StatsMetrics metrics = new StatsMetrics();
+    private MetricsHttpServer metricsServer;
 
     @Override
     public void onEnable() {
@@ -31,39 +40,100 @@ public class StatsPlugin extends JavaPlugin {
         config = new Config(this);
 
         // Инициализация системы хранения
-        storage =
-                config.isDatabase()
-                        ? new DatabaseStorage(config)
-                        : new FileStorage(this);
+        storage = createStorage(config.getStorageType());
+
+        PersistenceExecutor io = new PersistenceExecutor(config.getIoThreads(),
+                config.getIoQueueSize(), config.getIoOverflowPolicy(), config.isIoVirtualThreads());
+        statsManager = new StatsManager(this, storage, config.getWriteChunkSize(),
+                config.getRecentCacheSize(), config.getRecentCacheIdleSeconds() * 1000L, io, metrics);
+        statsManager.start(Math.max(1, config.getWriteFlushInterval() / 50));
+        registerGauges(io);
 
-        statsManager = new StatsManager(this, storage);
+        // Отслеживание перемещений по таймеру вместо расчёта в каждом PlayerMoveEvent
+        MovementTracker movementTracker = null;
+        int sampleTicks = config.getMovementSampleTicks();
+        if (config.isEnableDistance() && sampleTicks > 0) {
+            movementTracker = new MovementTracker(statsManager);
+            getServer().getScheduler().runTaskTimer(this, movementTracker, sampleTicks, sampleTicks);
+        }
 
         // Регистрация обработчиков событий
-        getServer().getPluginManager().registerEvents(new StatsListener(statsManager, config), this);
+        getServer().getPluginManager().registerEvents(
+                new StatsListener(statsManager, config, movementTracker, metrics), this);
 
         // Регистрация команды
         getCommand("stats").setExecutor(new StatsCommand(this, statsManager, config));
 
-        // Запуск автосохранения
+        // PlaceholderAPI необязателен: класс расширения загружается, только если он установлен
+        if (getServer().getPluginManager().getPlugin("PlaceholderAPI") != null) {
+            new StatsExpansion(statsManager, config, getDescription().getVersion()).register();
+        }
+
+        if (config.isMetricsHttpEnabled()) {
+            try {
+                metricsServer = new MetricsHttpServer(metrics, config.getMetricsHttpPort());
+            } catch (IOException e) {
+                getLogger().severe("Не удалось запустить HTTP-сервер метрик на порту "
+                        + config.getMetricsHttpPort());
+                e.printStackTrace();
+            }
+        }
+
+        // Запуск автосохранения: первый раунд через интервал, игроки распределяются по тикам
         if (config.isAutosaveEnabled()) {
-            getServer().getScheduler().runTaskTimer(this, () -> {
-                statsManager.saveAllCached();
-                getLogger().info("Данные успешно сохранены.");
-            }, 0, config.getAutosaveInterval() * 20 * 60); // Интервал в тиках (20 тиков = 1 сек)
+            statsManager.startAutosave(config.getAutosaveInterval() * 20L * 60, // 20 тиков = 1 сек
+                    config.getAutosaveTickBudgetMicros() * 1000L);
         }
     }
 
+    // Показатели читаются при выводе; пул берётся у текущего хранилища
+    private void registerGauges(PersistenceExecutor io) {
+        metrics.gauge("stats_io_queue_depth", "Storage tasks waiting in the persistence queue",
+                io::queueSize);
+        metrics.gauge("stats_db_pool_active", "Database connections in use",
+                () -> pool(HikariPoolMXBean::getActiveConnections));
+        metrics.gauge("stats_db_pool_idle", "Idle database connections",
+                () -> pool(HikariPoolMXBean::getIdleConnections));
+        metrics.gauge("stats_db_pool_total", "Open database connections",
+                () -> pool(HikariPoolMXBean::getTotalConnections));
+        metrics.gauge("stats_db_pool_pending", "Threads waiting for a database connection",
+                () -> pool(HikariPoolMXBean::getThreadsAwaitingConnection));
+    }
+
+    private long pool(ToIntFunction<HikariPoolMXBean> value) {
+        HikariPoolMXBean pool = storage.connectionPool();
+        return pool != null ? value.applyAsInt(pool) : 0;
+    }
+
     @Override
     public void onDisable() {
-        // Сохранение всех данных при выключении
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+        // Сохранение всех данных при выключении, не дольше storage.shutdownTimeout
         if (statsManager != null) {
-            statsManager.saveAllCachedSync();
+            long deadline = System.nanoTime() + config.getShutdownTimeoutSeconds() * 1_000_000_000L;
+            // Сначала дожидаемся фоновых задач, потом последняя запись в этом потоке
+            statsManager.close(deadline);
+            statsManager.saveAllCachedSync(deadline);
         }
         if (storage != null) {
             storage.close();
         }
     }
     
+    public IStorage createStorage(String type) {
+        switch (type) {
+            case "database":
+                return new MeteredStorage(new DatabaseStorage(config), metrics, "database");
+            case "binary":
+                return new MeteredStorage(new BinaryFileStorage(this), metrics, "binary");
+            default:
+                return new MeteredStorage(new FileStorage(this, config.isFileJournalEnabled(),
+                        config.getJournalCompactInterval() * 20L), metrics, "file");
+        }
+    }
+
     public void setStorage(IStorage storage) {
         this.storage = storage;
         if (statsManager != null) {
@@ -78,6 +148,10 @@ public class StatsPlugin extends JavaPlugin {
     public StatsManager getStatsManager() {
         return statsManager;
     }
+
+    StatsMetrics getMetrics() {
+        return metrics;
+    }
 }
 
 
@@ -85,90 +159,230 @@ public class StatsPlugin extends JavaPlugin {
 class StatsListener implements Listener {
     private final StatsManager statsManager;
     private final Config config;
+    // null when distance is counted per PlayerMoveEvent
+    private final MovementTracker movementTracker;
+    // Время каждого обработчика; гистограммы создаются здесь, чтобы не искать их в событии
+    private final StatsMetrics.Histogram joinTime;
+    private final StatsMetrics.Histogram quitTime;
+    private final StatsMetrics.Histogram deathTime;
+    private final StatsMetrics.Histogram chatTime;
+    private final StatsMetrics.Histogram moveTime;
+    private final StatsMetrics.Histogram teleportTime;
+    private final StatsMetrics.Histogram respawnTime;
+    private final StatsMetrics.Histogram interactTime;
+    private final StatsMetrics.Histogram consumeTime;
+    private final StatsMetrics.Histogram breakTime;
+    private final StatsMetrics.Histogram playerDeathTime;
+    private final StatsMetrics.Histogram craftTime;
 
-    public StatsListener(StatsManager statsManager, Config config) {
+    public StatsListener(StatsManager statsManager, Config config, MovementTracker movementTracker,
+            StatsMetrics metrics) {
         this.statsManager = statsManager;
         this.config = config;
+        this.movementTracker = movementTracker;
+        this.joinTime = handler(metrics, "join");
+        this.quitTime = handler(metrics, "quit");
+        this.deathTime = handler(metrics, "entity_death");
+        this.chatTime = handler(metrics, "chat");
+        this.moveTime = handler(metrics, "move");
+        this.teleportTime = handler(metrics, "teleport");
+        this.respawnTime = handler(metrics, "respawn");
+        this.interactTime = handler(metrics, "interact");
+        this.consumeTime = handler(metrics, "item_consume");
+        this.breakTime = handler(metrics, "block_break");
+        this.playerDeathTime = handler(metrics, "player_death");
+        this.craftTime = handler(metrics, "craft");
+    }
+
+    private static StatsMetrics.Histogram handler(StatsMetrics metrics, String name) {
+        return metrics.histogram("stats_listener_seconds", "Event handler latency", "handler", name);
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerJoin(PlayerJoinEvent event) {
-        UUID uuid = event.getPlayer().getUniqueId();
-        statsManager.createEmptyStats(uuid, event.getPlayer().getName());
-        statsManager.loadStats(uuid);
+        long start = System.nanoTime();
+        try {
+            UUID uuid = event.getPlayer().getUniqueId();
+            statsManager.createEmptyStats(uuid, event.getPlayer().getName());
+            statsManager.loadStats(uuid);
 
-        if (config.isEnablePlayTime()) {
-            statsManager.startSession(uuid);
+            if (config.isEnablePlayTime()) {
+                statsManager.startSession(uuid);
+            }
+        } finally {
+            joinTime.recordSince(start);
         }
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerQuit(PlayerQuitEvent event) {
-        UUID uuid = event.getPlayer().getUniqueId();
-        if (config.isEnablePlayTime()) {
-            statsManager.endSession(uuid);
+        long start = System.nanoTime();
+        try {
+            UUID uuid = event.getPlayer().getUniqueId();
+            if (config.isEnablePlayTime()) {
+                statsManager.endSession(uuid);
+            }
+            if (movementTracker != null) {
+                movementTracker.quit(event.getPlayer());
+            }
+            statsManager.unloadStats(uuid);
+        } finally {
+            quitTime.recordSince(start);
         }
-        statsManager.unloadStats(uuid);
     }
 
     @EventHandler(priority = EventPriority.NORMAL)
     public void onEntityDeath(EntityDeathEvent event) {
-        if (!config.isEnableKills())
-            return;
+        long start = System.nanoTime();
+        try {
+            if (!config.isEnableKills())
+                return;
 
-        if (event.getEntity().getKiller() instanceof Player) {
-            Player killer = (Player) event.getEntity().getKiller();
-            statsManager.incrementMobsKilled(killer.getUniqueId());
+            if (event.getEntity().getKiller() instanceof Player) {
+                Player killer = (Player) event.getEntity().getKiller();
+                statsManager.incrementMobsKilled(killer.getUniqueId(), event.getEntityType());
+            }
+        } finally {
+            deathTime.recordSince(start);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerDeath(PlayerDeathEvent event) {
+        long start = System.nanoTime();
+        try {
+            if (!config.isEnableDeaths())
+                return;
+            statsManager.incrementDeaths(event.getEntity().getUniqueId());
+        } finally {
+            playerDeathTime.recordSince(start);
+        }
+    }
+
+    // Считается результат рецепта; крафт с shift засчитывается как один
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onCraftItem(CraftItemEvent event) {
+        long start = System.nanoTime();
+        try {
+            if (!config.isEnableCrafting())
+                return;
+            ItemStack result = event.getRecipe().getResult();
+            int amount = result != null ? Math.max(result.getAmount(), 1) : 1;
+            statsManager.incrementItemsCrafted(event.getWhoClicked().getUniqueId(), amount);
+        } finally {
+            craftTime.recordSince(start);
         }
     }
 
     @EventHandler(priority = EventPriority.NORMAL)
     public void onPlayerChat(AsyncChatEvent event) {
-        if (!config.isEnableMessagesSent())
-            return;
-        statsManager.incrementMessagesSent(event.getPlayer().getUniqueId());
+        long start = System.nanoTime();
+        try {
+            if (!config.isEnableMessagesSent())
+                return;
+            statsManager.incrementMessagesSent(event.getPlayer().getUniqueId());
+        } finally {
+            chatTime.recordSince(start);
+        }
     }
 
     @EventHandler(priority = EventPriority.NORMAL)
     public void onPlayerMove(PlayerMoveEvent event) {
-        if (!config.isEnableDistance())
-            return;
+        long start = System.nanoTime();
+        try {
+            if (movementTracker != null || !config.isEnableDistance())
+                return;
 
-        if (event.getTo() == null
-                || !event.getFrom().getWorld().equals(event.getTo().getWorld())) {
-            return;
+            // Поворот головы без смещения не считается
+            if (!event.hasChangedPosition())
+                return;
+
+            if (event.getTo() == null
+                    || !event.getFrom().getWorld().equals(event.getTo().getWorld())) {
+                return;
+            }
+
+            double distance = event.getFrom().distance(event.getTo());
+            if (distance > 0) {
+                statsManager.addDistanceTraveled(event.getPlayer().getUniqueId(), distance);
+            }
+        } finally {
+            moveTime.recordSince(start);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event) {
+        long start = System.nanoTime();
+        try {
+            if (movementTracker != null) {
+                movementTracker.teleported(event.getPlayer().getUniqueId(), event.getFrom(), event.getTo());
+            }
+        } finally {
+            teleportTime.recordSince(start);
         }
+    }
 
-        double distance = event.getFrom().distance(event.getTo());
-        if (distance > 0) {
-            statsManager.addDistanceTraveled(event.getPlayer().getUniqueId(), distance);
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(PlayerRespawnEvent event) {
+        long start = System.nanoTime();
+        try {
+            if (movementTracker != null) {
+                movementTracker.teleported(event.getPlayer().getUniqueId(),
+                        event.getPlayer().getLocation(), event.getRespawnLocation());
+            }
+        } finally {
+            respawnTime.recordSince(start);
         }
     }
 
     @EventHandler(priority = EventPriority.NORMAL)
     public void onPlayerInteract(PlayerInteractEvent event) {
-        // Проверка на открытие сундука
-        if (event.getClickedBlock() != null && event.getClickedBlock().getType() == Material.CHEST
-                && config.isEnableChestOpening()) {
-             if (event.getAction().name().contains("RIGHT_CLICK")) {
-                 statsManager.incrementChestsOpened(event.getPlayer().getUniqueId());
-             }
+        long start = System.nanoTime();
+        try {
+            // Проверка на открытие сундука
+            if (event.getClickedBlock() != null && event.getClickedBlock().getType() == Material.CHEST
+                    && config.isEnableChestOpening()) {
+                 if (event.getAction().name().contains("RIGHT_CLICK")) {
+                     statsManager.incrementChestsOpened(event.getPlayer().getUniqueId());
+                 }
+            }
+            // Использование предмета - правый клик с предметом в руке. Событие приходит для
+            // каждой руки, считается только основная
+            if (config.isEnableItemUsage() && event.hasItem()
+                    && event.getHand() == EquipmentSlot.HAND
+                    && event.getAction().name().startsWith("RIGHT_CLICK")) {
+                statsManager.incrementItemsUsed(event.getPlayer().getUniqueId());
+            }
+        } finally {
+            interactTime.recordSince(start);
         }
     }
 
     @EventHandler(priority = EventPriority.NORMAL)
     public void onPlayerItemConsume(PlayerItemConsumeEvent event) {
-        if (!config.isEnableFoodConsumption()) return;
+        long start = System.nanoTime();
+        try {
+            if (!config.isEnableFoodConsumption()) return;
 
-        if (constants.edibleMaterials.contains(event.getItem().getType())) {
-            statsManager.incrementItemsEaten(event.getPlayer().getUniqueId());
+            if (constants.edibleMaterials.contains(event.getItem().getType())) {
+                statsManager.incrementItemsEaten(event.getPlayer().getUniqueId());
+            }
+        } finally {
+            consumeTime.recordSince(start);
         }
     }
 
     @EventHandler(priority = EventPriority.NORMAL)
     public void onPlayerBreakBlock(BlockBreakEvent event) {
-        if (!config.isEnableBlockBreaking())
-            return;
-        statsManager.incrementBlocksBroken(event.getPlayer().getUniqueId());
+        long start = System.nanoTime();
+        try {
+            if (!config.isEnableBlockBreaking())
+                return;
+            statsManager.incrementBlocksBroken(event.getPlayer().getUniqueId(),
+                    event.getBlock().getType());
+        } finally {
+            breakTime.recordSince(start);
+        }
     }
 }
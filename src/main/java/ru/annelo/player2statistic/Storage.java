@@ -2,8 +2,15 @@ package ru.annelo.player2statistic;
 
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -11,28 +18,79 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
 
 // Интерфейс для работы с хранилищем
 interface IStorage {
     void savePlayerStats(PlayerStats stats);
 
+    // Сохраняет пачку снимков; false - пачку нужно повторить позже
+    default boolean savePlayerStatsBatch(List<PlayerStats> batch) {
+        for (PlayerStats stats : batch) {
+            savePlayerStats(stats);
+        }
+        return true;
+    }
+
+    // Аддитивный режим: вместо абсолютных значений записываются приращения
+    default boolean isAdditive() {
+        return false;
+    }
+
+    // Применяет приращения ровно один раз: повтор с тем же номером игнорируется.
+    // Вызывается только при isAdditive(); остальные хранилища ничего не применяют
+    default boolean applyDeltas(long sequence, List<PlayerStats> deltas) {
+        return false;
+    }
+
+    // Последний применённый номер пачки приращений; -1 если узнать не удалось
+    default long lastCommittedSequence() {
+        return 0;
+    }
+
+    // Для нового игрока - пустая статистика; null - ошибка чтения
     PlayerStats loadPlayerStats(UUID uuid);
 
+    // UUID игрока по нику без учёта регистра; null - не найден или хранилище не умеет искать
+    // по нику (тогда поиск идёт только по NameCache)
+    default UUID findPlayerByName(String playerName) {
+        return null;
+    }
+
     List<PlayerStats> loadAllPlayers();
 
+    // Обход всех игроков по одному, без списка всей таблицы в памяти; action вызывается в
+    // потоке вызывающего. false - обход прерван ошибкой чтения
+    default boolean forEachPlayer(Consumer<PlayerStats> action) {
+        loadAllPlayers().forEach(action);
+        return true;
+    }
+
     void saveAllPlayers();
 
     void reloadStorage();
@@ -40,25 +98,179 @@ interface IStorage {
     void close();
 
     List<PlayerStats> getTopStats(StatType statType, int limit);
+
+    // Место игрока и radius соседей с каждой стороны. null - не поддерживается (место считает
+    // LeaderboardIndex) или ошибка чтения
+    default StatRank getRank(StatType statType, UUID uuid, int radius) {
+        return null;
+    }
+
+    // true, если getTopStats дешёвый и общий для всех серверов (топ считает сама база);
+    // иначе топ строится в памяти по LeaderboardIndex
+    default boolean hasFastTopQueries() {
+        return false;
+    }
+
+    // Дневные приращения оконной статистики (WindowedStats) добавляются к уже записанным.
+    // Возвращает незаписанные приращения - только их можно повторить. Хранилище без поддержки
+    // просто их не сохраняет
+    default List<DailyStats> saveDailyStats(List<DailyStats> deltas) {
+        return Collections.emptyList();
+    }
+
+    // Все дневные корзины начиная с fromDay; false - чтение прервано ошибкой
+    default boolean forEachDailyStats(int fromDay, Consumer<DailyStats> action) {
+        return true;
+    }
+
+    // Пул соединений для метрик; null - хранилище без пула
+    default HikariPoolMXBean connectionPool() {
+        return null;
+    }
+
+    // Игроки с ненулевым значением статистики, по убыванию; limit <= 0 - все
+    static List<PlayerStats> selectTop(List<PlayerStats> statsList, StatType statType, int limit) {
+        List<PlayerStats> filteredStats = new ArrayList<>();
+        for (PlayerStats stats : statsList) {
+            if (statType.get(stats) > 0) {
+                filteredStats.add(stats);
+            }
+        }
+        filteredStats.sort(Comparator.comparingLong(statType::get).reversed());
+        if (limit <= 0 || limit > filteredStats.size()) {
+            return filteredStats;
+        }
+        return filteredStats.subList(0, limit);
+    }
 }
 
 
 // Реализация локального хранилища (JSON)
 class FileStorage implements IStorage {
     private final JavaPlugin plugin;
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
     private boolean legacyMigrationAttempted = false;
+    // null, если журнал выключен и каждое сохранение сразу пишет файл игрока
+    private final StatsJournal journal;
+    private BukkitTask compactTask;
+    private static final String PLAYER_FILES = "*.{json,yml}";
+    private final StatsDirectoryScanner scanner =
+            new StatsDirectoryScanner(Runtime.getRuntime().availableProcessors());
+    private final DailyStatsFiles daily;
+    // Файлы игроков независимы: пачка пишется несколькими потоками, а блокировка берётся
+    // на файл игрока (по хэшу UUID), а не на всё хранилище
+    private static final int WRITE_THREADS = 4;
+    private static final int FILE_LOCKS = 64;
+    private final Object[] fileLocks = new Object[FILE_LOCKS];
+    private final ExecutorService writers;
 
     public FileStorage(JavaPlugin plugin2) {
+        this(plugin2, false, 0);
+    }
+
+    public FileStorage(JavaPlugin plugin2, boolean journaled, long compactIntervalTicks) {
         this.plugin = plugin2;
+        this.daily = new DailyStatsFiles(statsDir());
+        for (int i = 0; i < FILE_LOCKS; i++) {
+            fileLocks[i] = new Object();
+        }
+        AtomicInteger threads = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(WRITE_THREADS, task -> {
+            Thread thread = new Thread(task, "StatsPlugin-write-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        StatsJournal opened = null;
+        if (journaled) {
+            try {
+                opened = new StatsJournal(plugin.getDataFolder());
+                compactTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin,
+                        this::compactJournal, compactIntervalTicks, compactIntervalTicks);
+            } catch (IOException e) {
+                Bukkit.getLogger().severe("Error opening stats journal, saving directly to files");
+                e.printStackTrace();
+            }
+        }
+        this.journal = opened;
+    }
+
+    @Override
+    public void savePlayerStats(PlayerStats stats) {
+        if (journal != null) {
+            savePlayerStatsBatch(List.of(stats));
+        } else {
+            writeStatsFile(stats);
+        }
     }
 
     @Override
-    public synchronized void savePlayerStats(PlayerStats stats) {
+    public boolean savePlayerStatsBatch(List<PlayerStats> batch) {
+        if (journal == null) {
+            return writeStatsFiles(batch);
+        }
+        try {
+            journal.append(batch);
+            return true;
+        } catch (IOException e) {
+            Bukkit.getLogger().severe("Error appending " + batch.size() + " player stats to journal");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Пачка делится между потоками записи; false - хотя бы один файл не записан, и пачка
+    // будет повторена целиком (повторная запись файла безвредна)
+    private boolean writeStatsFiles(List<PlayerStats> batch) {
+        if (batch.size() == 1) {
+            return writeStatsFile(batch.get(0));
+        }
+        int step = (batch.size() + WRITE_THREADS - 1) / WRITE_THREADS;
+        List<Future<Boolean>> parts = new ArrayList<>(WRITE_THREADS);
+        for (int from = 0; from < batch.size(); from += step) {
+            List<PlayerStats> part = batch.subList(from, Math.min(batch.size(), from + step));
+            parts.add(writers.submit(() -> {
+                boolean saved = true;
+                for (PlayerStats stats : part) {
+                    saved &= writeStatsFile(stats);
+                }
+                return saved;
+            }));
+        }
+        boolean saved = true;
+        for (Future<Boolean> part : parts) {
+            try {
+                saved &= part.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                Bukkit.getLogger().severe("Error saving player stats batch");
+                e.getCause().printStackTrace();
+                saved = false;
+            }
+        }
+        return saved;
+    }
+
+    // Файл пишется во временный и атомарно подменяет старый: падение посреди записи
+    // не оставляет обрезанный JSON
+    private boolean writeStatsFile(PlayerStats stats) {
+        return writeStatsFile(stats, false);
+    }
+
+    // durable - файл сбрасывается на диск до переименования: компактирование удаляет журнал,
+    // и файл игрока остаётся единственной копией значений
+    private boolean writeStatsFile(PlayerStats stats, boolean durable) {
+        synchronized (fileLocks[stats.getUuid().hashCode() & (FILE_LOCKS - 1)]) {
+            return writeStatsFileLocked(stats, durable);
+        }
+    }
+
+    private boolean writeStatsFileLocked(PlayerStats stats, boolean durable) {
         try {
             File dataFolder = plugin.getDataFolder();
             File statsDir = new File(dataFolder, "stats");
             File statsFile = new File(statsDir, stats.getUuid().toString() + ".json");
+            File tempFile = new File(statsDir, stats.getUuid().toString() + ".json.tmp");
 
             if (!dataFolder.exists()) {
                 dataFolder.mkdirs();
@@ -67,20 +279,45 @@ class FileStorage implements IStorage {
                 statsDir.mkdirs();
             }
 
-            JsonObject json = StatsJsonCodec.toJson(stats);
-
-            try (FileWriter writer = new FileWriter(statsFile)) {
-                GSON.toJson(json, writer);
+            ByteBuffer json = StatsJsonCodec.encode(stats);
+            try (FileChannel channel = FileChannel.open(tempFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (json.hasRemaining()) {
+                    channel.write(json);
+                }
+                if (durable) {
+                    channel.force(true);
+                }
             }
+            Files.move(tempFile.toPath(), statsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return true;
         } catch (IOException e) {
             Bukkit.getLogger().severe("Error saving player stats for " + stats.getUuid());
             e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void compactJournal() {
+        try {
+            journal.compact(stats -> writeStatsFile(withStoredBreakdowns(stats), true), statsDir());
+        } catch (IOException e) {
+            Bukkit.getLogger().severe("Error compacting stats journal");
+            e.printStackTrace();
         }
     }
 
     @Override
     public synchronized PlayerStats loadPlayerStats(UUID uuid) {
         migrateLegacyJsonIfPresent();
+        if (journal != null) {
+            PlayerStats journaled = journal.get(uuid);
+            if (journaled != null) {
+                return withStoredBreakdowns(journaled);
+            }
+        }
         File dataFolder = plugin.getDataFolder();
         File statsFile = new File(dataFolder, "stats/" + uuid.toString() + ".json");
         File legacyStatsFile = new File(dataFolder, "stats/" + uuid.toString() + ".yml");
@@ -93,16 +330,15 @@ class FileStorage implements IStorage {
                     return legacyStats;
                 }
             }
+            // Файл появится при первом сохранении с ненулевой статистикой
             PlayerStats newStats = new PlayerStats();
             newStats.setUuid(uuid);
-            savePlayerStats(newStats);
             return newStats;
         }
 
         try {
-            try (FileReader reader = new FileReader(statsFile)) {
-                JsonObject json = JsonParser.parseReader(reader).getAsJsonObject();
-                return StatsJsonCodec.fromJson(json, uuid);
+            try (FileChannel channel = FileChannel.open(statsFile.toPath(), StandardOpenOption.READ)) {
+                return StatsJsonCodec.decode(channel, uuid);
             }
         } catch (Exception e) {
             Bukkit.getLogger().severe("Error loading player stats for " + uuid);
@@ -111,45 +347,150 @@ class FileStorage implements IStorage {
         }
     }
 
+    // Записи журнала прежнего формата были без разбивок: такая запись берёт их из файла
+    // игрока. Разбивки только растут, так что их отсутствие в записи значит "неизвестно",
+    // а не "обнулено"
+    private PlayerStats withStoredBreakdowns(PlayerStats stats) {
+        boolean complete = true;
+        for (BreakdownType type : BreakdownType.values()) {
+            complete &= stats.getBreakdown(type) != null;
+        }
+        Path file = statsDir().resolve(stats.getUuid() + ".json");
+        if (complete || !Files.exists(file)) {
+            return stats;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            PlayerStats stored = StatsJsonCodec.decode(channel, stats.getUuid());
+            PlayerStats merged = stats.clone();
+            merged.setChangedFields(stats.getChangedFields());
+            for (BreakdownType type : BreakdownType.values()) {
+                if (merged.getBreakdown(type) == null) {
+                    merged.setBreakdown(type, stored.getBreakdown(type));
+                }
+            }
+            return merged;
+        } catch (IOException | RuntimeException e) {
+            Bukkit.getLogger().severe("Error reading breakdowns of " + stats.getUuid());
+            e.printStackTrace();
+            return stats;
+        }
+    }
+
+    // Только чтение и без монитора хранилища: обход не мешает загрузке заходящих игроков.
+    // Старые .yml читаются как есть, перенос в JSON - при загрузке самого игрока
     @Override
-    public synchronized List<PlayerStats> loadAllPlayers() {
+    public List<PlayerStats> loadAllPlayers() {
+        return scan(ArrayList::new, List::add, (left, right) -> {
+            left.addAll(right);
+            return left;
+        });
+    }
+
+    // Файлы читаются лениво, по одному: в памяти только текущий игрок и записи журнала
+    @Override
+    public boolean forEachPlayer(Consumer<PlayerStats> action) {
         migrateLegacyJsonIfPresent();
-        File dataFolder = plugin.getDataFolder();
-        File statsDir = new File(dataFolder, "stats");
+        Path statsDir = statsDir();
+        Map<UUID, PlayerStats> journaled = journalSnapshot();
+        if (Files.isDirectory(statsDir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(statsDir, PLAYER_FILES)) {
+                for (Path file : stream) {
+                    PlayerStats stats = readPlayerFile(file, journaled);
+                    if (stats != null) {
+                        action.accept(stats);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                Bukkit.getLogger().severe("Error reading player stats in " + statsDir);
+                e.printStackTrace();
+                return false;
+            }
+        }
+        journaled.values().forEach(action);
+        return true;
+    }
 
-        List<PlayerStats> statsList = new ArrayList<>();
+    private Path statsDir() {
+        return new File(plugin.getDataFolder(), "stats").toPath();
+    }
 
-        if (!statsDir.exists()) {
-            statsDir.mkdir();
-            return Collections.emptyList();
-        }
+    // Дневные корзины лежат рядом с файлами игроков: <uuid>.daily
+    @Override
+    public List<DailyStats> saveDailyStats(List<DailyStats> deltas) {
+        return daily.add(deltas);
+    }
 
-        File[] files = statsDir.listFiles();
-        if (files == null) {
-            return Collections.emptyList();
-        }
+    @Override
+    public boolean forEachDailyStats(int fromDay, Consumer<DailyStats> action) {
+        return daily.forEach(fromDay, action);
+    }
 
-        for (File file : files) {
-            if (file.getName().endsWith(".json")) {
-                UUID uuid = UUID.fromString(file.getName().replace(".json", ""));
-                PlayerStats stats = loadPlayerStats(uuid);
-                if (stats != null) {
-                    statsList.add(stats);
-                }
+    // Значения из журнала новее файлов; что останется в карте после обхода, есть только в журнале
+    private Map<UUID, PlayerStats> journalSnapshot() {
+        Map<UUID, PlayerStats> journaled = new ConcurrentHashMap<>();
+        if (journal != null) {
+            for (PlayerStats stats : journal.all()) {
+                journaled.put(stats.getUuid(), stats);
             }
-            // Removed legacy yaml loading here to speed up, assuming they are migrated on individual load or separate migration.
-            // Keeping it consistent with previous logic though:
-             if (file.getName().endsWith(".yml")) {
-                UUID uuid = UUID.fromString(file.getName().replace(".yml", ""));
-                PlayerStats stats = loadLegacyYamlStats(file);
-                if (stats != null) {
-                    savePlayerStats(stats);
-                    statsList.add(stats);
-                }
+        }
+        return journaled;
+    }
+
+    private <A> A scan(Supplier<A> newAccumulator, BiConsumer<A, PlayerStats> accumulate,
+            BinaryOperator<A> combine) {
+        migrateLegacyJsonIfPresent();
+        Path statsDir = statsDir();
+        Map<UUID, PlayerStats> journaled = journalSnapshot();
+
+        A result = null;
+        if (Files.isDirectory(statsDir)) {
+            try {
+                result = scanner.scan(statsDir, PLAYER_FILES,
+                        file -> readPlayerFile(file, journaled), newAccumulator, accumulate, combine);
+            } catch (IOException e) {
+                Bukkit.getLogger().severe("Error scanning player stats in " + statsDir);
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
+        if (result == null) {
+            result = newAccumulator.get();
+        }
+        for (PlayerStats stats : journaled.values()) {
+            accumulate.accept(result, stats);
+        }
+        return result;
+    }
 
-        return statsList;
+    // Вызывается параллельно из работников сканера
+    private PlayerStats readPlayerFile(Path file, Map<UUID, PlayerStats> journaled) {
+        String name = file.getFileName().toString();
+        boolean legacy = name.endsWith(".yml");
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(name.substring(0, name.lastIndexOf('.')));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        // Уже перенесённый .yml лежит рядом с .json и не считается второй раз
+        if (legacy && Files.exists(file.resolveSibling(uuid + ".json"))) {
+            return null;
+        }
+        PlayerStats fresh = journaled.remove(uuid);
+        if (fresh != null) {
+            return withStoredBreakdowns(fresh);
+        }
+        if (legacy) {
+            return loadLegacyYamlStats(file.toFile());
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return StatsJsonCodec.decode(channel, uuid);
+        } catch (IOException | RuntimeException e) {
+            Bukkit.getLogger().severe("Error loading player stats for " + uuid);
+            e.printStackTrace();
+            return null;
+        }
     }
 
     @Override
@@ -164,7 +505,18 @@ class FileStorage implements IStorage {
 
     @Override
     public void close() {
-        // Nothing to close
+        scanner.close();
+        writers.shutdown();
+        // Журнал уже на диске: он будет перенесён в файлы при следующем запуске
+        if (journal != null) {
+            compactTask.cancel();
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Bukkit.getLogger().severe("Error closing stats journal");
+                e.printStackTrace();
+            }
+        }
     }
 
     private PlayerStats loadLegacyYamlStats(File statsFile) {
@@ -191,7 +543,7 @@ class FileStorage implements IStorage {
         }
     }
 
-    private void migrateLegacyJsonIfPresent() {
+    private synchronized void migrateLegacyJsonIfPresent() {
         if (legacyMigrationAttempted) {
             return;
         }
@@ -239,66 +591,55 @@ class FileStorage implements IStorage {
         }
     }
 
+    // Каждый работник держит не больше limit игроков, а не весь список
     @Override
     public List<PlayerStats> getTopStats(StatType statType, int limit) {
-        // Warning: Loading all players into memory!
-        List<PlayerStats> statsList = loadAllPlayers();
-
-        if (statsList == null)
-            return Collections.emptyList();
-
-        List<PlayerStats> filteredStats = new ArrayList<>();
-        for (PlayerStats stats : statsList) {
-             boolean add = false;
-             switch (statType) {
-                case PLAY_TIME: add = stats.getPlayTime() > 0; break;
-                case MOBS_KILLED: add = stats.getMobsKilled() > 0; break;
-                case ITEMS_EATEN: add = stats.getItemsEaten() > 0; break;
-                case DISTANCE_TRAVELED: add = stats.getDistanceTraveled() > 0; break;
-                case BLOCKS_BROKEN: add = stats.getBlocksBroken() > 0; break;
-                case CHEST_OPENED: add = stats.getChestsOpened() > 0; break;
-            }
-            if (add) filteredStats.add(stats);
-        }
-
-        switch (statType) {
-            case PLAY_TIME:
-                Collections.sort(filteredStats, Comparator.comparingInt(PlayerStats::getPlayTime).reversed());
-                break;
-            case MOBS_KILLED:
-                Collections.sort(filteredStats, Comparator.comparingInt(PlayerStats::getMobsKilled).reversed());
-                break;
-            case ITEMS_EATEN:
-                Collections.sort(filteredStats, Comparator.comparingInt(PlayerStats::getItemsEaten).reversed());
-                break;
-            case BLOCKS_BROKEN:
-                Collections.sort(filteredStats, Comparator.comparingInt(PlayerStats::getBlocksBroken).reversed());
-                break;
-            case CHEST_OPENED:
-                Collections.sort(filteredStats, Comparator.comparingInt(PlayerStats::getChestsOpened).reversed());
-                break;
-            case DISTANCE_TRAVELED:
-                Collections.sort(filteredStats, Comparator.comparingDouble(PlayerStats::getDistanceTraveled).reversed());
-                break;
-        }
-
-        if (limit > filteredStats.size()) {
-            return filteredStats;
-        }
         if (limit <= 0) {
-            return filteredStats;
+            return IStorage.selectTop(loadAllPlayers(), statType, limit);
         }
-        return filteredStats.subList(0, Math.min(filteredStats.size(), limit));
+        return scan(() -> new TopHeaps(EnumSet.of(statType), limit), TopHeaps::add, TopHeaps::merge)
+                .top(statType);
     }
 }
 
 
 class DatabaseStorage implements IStorage {
+    // Колонки из реестра StatType по индексам полей StatCounters
+    private static final String[] STAT_COLUMNS = statColumns();
+
+    // SQL по маске изменённых полей: новая строка вставляется целиком,
+    // у существующей обновляются только изменившиеся колонки
+    private final Map<Integer, String> upsertSql = new ConcurrentHashMap<>();
+
+    // Сколько последних записей журнала пачек хранить для каждого сервера
+    private static final int COMMIT_LEDGER_KEEP = 1000;
+
+    private static final String ADDITIVE_UPSERT_SQL = buildAdditiveUpsertSql();
+    private static final String DAILY_UPSERT_SQL = buildDailyUpsertSql();
+    // Разбивки: снимок перезаписывает изменившиеся значения, приращение к ним прибавляется
+    private static final String BREAKDOWN_UPSERT_SQL = "INSERT INTO player_stats_breakdown"
+            + " (uuid, kind, name, value) VALUES (?, ?, ?, ?)"
+            + " ON DUPLICATE KEY UPDATE value = VALUES(value)";
+    private static final String BREAKDOWN_ADD_SQL = "INSERT INTO player_stats_breakdown"
+            + " (uuid, kind, name, value) VALUES (?, ?, ?, ?)"
+            + " ON DUPLICATE KEY UPDATE value = value + VALUES(value)";
+
+    private static final int STREAM_FETCH_SIZE = 1000;
+
     private HikariDataSource dataSource;
     private Config config;
+    private final boolean additive;
+    private final String serverId;
+    // Сбрасывается после каждой успешной записи
+    private final TopQueryCache topCache;
+    // Дни раньше этого уже удалены из player_stats_daily
+    private volatile int dailyPrunedBefore = Integer.MIN_VALUE;
 
     public DatabaseStorage(Config config) {
         this.config = config;
+        this.additive = config.isDatabaseAdditive();
+        this.serverId = additive ? config.getServerId() : null;
+        this.topCache = new TopQueryCache(config.getTopCacheMillis());
         initialize();
     }
 
@@ -313,58 +654,424 @@ class DatabaseStorage implements IStorage {
         hikariConfig.setMinimumIdle(2);
         hikariConfig.setIdleTimeout(30000);
         hikariConfig.setConnectionTimeout(10000);
+        // Пачки executeBatch() отправляются драйвером одним bulk-пакетом, а не построчно
+        hikariConfig.addDataSourceProperty("useBulkStmts", "true");
 
         dataSource = new HikariDataSource(hikariConfig);
 
+        StringBuilder table = new StringBuilder("CREATE TABLE IF NOT EXISTS player_stats ("
+                + "uuid CHAR(36) PRIMARY KEY," + "player_name VARCHAR(64)");
+        for (StatType type : StatType.values()) {
+            table.append(", ").append(type.column).append(' ').append(type.sqlType());
+        }
+        table.append(")");
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(table.toString())) {
+                stmt.execute();
+            }
+            // Таблица от старой версии плагина получает колонки новых статистик
+            for (StatType type : StatType.values()) {
+                try (PreparedStatement stmt = connection.prepareStatement(
+                        "ALTER TABLE player_stats ADD COLUMN IF NOT EXISTS " + type.column + " "
+                                + type.sqlType())) {
+                    stmt.execute();
+                }
+            }
+        } catch (SQLException e) {
+            Bukkit.getLogger().severe("Error connecting to database");
+            e.printStackTrace();
+        }
+        createLeaderboardIndexes();
+
+        // Разбивки по виду блока и моба, по строке на ненулевое значение. Имя - имя константы
+        // Material или EntityType
         try (Connection connection = dataSource.getConnection();
              PreparedStatement stmt = connection.prepareStatement(
-                    "CREATE TABLE IF NOT EXISTS player_stats (" + "uuid CHAR(36) PRIMARY KEY,"
-                            + "player_name VARCHAR(64)," + "play_time INT," + "mobs_killed INT,"
-                            + "items_eaten INT," + "distance_traveled DOUBLE,"
-                            + "blocks_broken INT," + "deaths INT," + "items_crafted INT,"
-                            + "items_used INT," + "chests_opened INT," + "messages_sent INT" + ")")) {
+                    "CREATE TABLE IF NOT EXISTS player_stats_breakdown (" + "uuid CHAR(36) NOT NULL,"
+                            + "kind VARCHAR(16) NOT NULL," + "name VARCHAR(64) NOT NULL,"
+                            + "value BIGINT NOT NULL," + "PRIMARY KEY (uuid, kind, name)" + ")")) {
             stmt.execute();
         } catch (SQLException e) {
-            Bukkit.getLogger().severe("Error connecting to database");
+            Bukkit.getLogger().severe("Error creating breakdown table");
+            e.printStackTrace();
+        }
+
+        // Дневные приращения для топов за сутки, неделю и месяц; значения в фиксированной
+        // точке StatCounters (расстояние - тысячные доли блока)
+        StringBuilder daily = new StringBuilder("CREATE TABLE IF NOT EXISTS player_stats_daily ("
+                + "uuid CHAR(36) NOT NULL," + "day INT NOT NULL");
+        for (String column : STAT_COLUMNS) {
+            daily.append(", ").append(column).append(" BIGINT NOT NULL DEFAULT 0");
+        }
+        daily.append(", PRIMARY KEY (uuid, day), INDEX idx_player_stats_daily_day (day))");
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(daily.toString())) {
+            stmt.execute();
+        } catch (SQLException e) {
+            Bukkit.getLogger().severe("Error creating daily stats table");
+            e.printStackTrace();
+        }
+
+        if (!additive) {
+            return;
+        }
+        // Журнал применённых пачек приращений: (сервер, номер пачки)
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                    "CREATE TABLE IF NOT EXISTS player_stats_commits (" + "server_id VARCHAR(64) NOT NULL,"
+                            + "seq BIGINT NOT NULL," + "committed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,"
+                            + "PRIMARY KEY (server_id, seq)" + ")")) {
+            stmt.execute();
+        } catch (SQLException e) {
+            Bukkit.getLogger().severe("Error creating commit ledger table");
+            e.printStackTrace();
+        }
+    }
+
+    // Индексы по убыванию для колонок топа: ORDER BY ... DESC LIMIT читает первые строки
+    // индекса вместо полного прохода по таблице и сортировки. Индекс по нику - для поиска
+    // игроков не в сети
+    private void createLeaderboardIndexes() {
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "CREATE INDEX IF NOT EXISTS idx_player_stats_player_name"
+                            + " ON player_stats (player_name)")) {
+                stmt.execute();
+            }
+            for (StatType statType : StatType.values()) {
+                String column = statType.column;
+                try (PreparedStatement stmt = connection.prepareStatement(
+                        "CREATE INDEX IF NOT EXISTS idx_player_stats_" + column
+                                + " ON player_stats (" + column + " DESC)")) {
+                    stmt.execute();
+                }
+            }
+        } catch (SQLException e) {
+            Bukkit.getLogger().severe("Error creating leaderboard indexes");
             e.printStackTrace();
         }
     }
 
     @Override
     public void savePlayerStats(PlayerStats stats) {
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    upsertSql(stats.getChangedFields()))) {
+                bindUpsert(stmt, stats);
+                stmt.executeUpdate();
+            }
+            saveBreakdowns(connection, List.of(stats), false);
+            topCache.invalidate();
+        } catch (SQLException e) {
+            Bukkit.getLogger().severe("Error saving player stats for " + stats.getUuid());
+            e.printStackTrace();
+        }
+    }
+
+    // Вся пачка уходит в одной транзакции, по одному batch-запросу на набор изменённых колонок
+    @Override
+    public boolean savePlayerStatsBatch(List<PlayerStats> batch) {
+        Map<Integer, List<PlayerStats>> byChangedFields = new LinkedHashMap<>();
+        for (PlayerStats stats : batch) {
+            byChangedFields.computeIfAbsent(stats.getChangedFields(), k -> new ArrayList<>()).add(stats);
+        }
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                for (Map.Entry<Integer, List<PlayerStats>> group : byChangedFields.entrySet()) {
+                    try (PreparedStatement stmt = connection.prepareStatement(upsertSql(group.getKey()))) {
+                        for (PlayerStats stats : group.getValue()) {
+                            bindUpsert(stmt, stats);
+                            stmt.addBatch();
+                        }
+                        stmt.executeBatch();
+                    }
+                }
+                saveBreakdowns(connection, batch, false);
+                connection.commit();
+                topCache.invalidate();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            Bukkit.getLogger().severe("Error saving batch of " + batch.size() + " player stats");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isAdditive() {
+        return additive;
+    }
+
+    @Override
+    public boolean hasFastTopQueries() {
+        return true;
+    }
+
+    @Override
+    public HikariPoolMXBean connectionPool() {
+        HikariDataSource source = dataSource;
+        return source != null && !source.isClosed() ? source.getHikariPoolMXBean() : null;
+    }
+
+    @Override
+    public long lastCommittedSequence() {
         try (Connection connection = dataSource.getConnection();
              PreparedStatement stmt = connection.prepareStatement(
-                "INSERT INTO player_stats (uuid, player_name, play_time, mobs_killed, items_eaten, distance_traveled, blocks_broken, deaths, items_crafted, items_used, chests_opened, messages_sent) "
-                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
-                        + "ON DUPLICATE KEY UPDATE " + "player_name = VALUES(player_name),"
-                        + "play_time = VALUES(play_time),"
-                        + "mobs_killed = VALUES(mobs_killed),"
-                        + "items_eaten = VALUES(items_eaten),"
-                        + "distance_traveled = VALUES(distance_traveled),"
-                        + "blocks_broken = VALUES(blocks_broken),"
-                        + "deaths = VALUES(deaths),"
-                        + "items_crafted = VALUES(items_crafted),"
-                        + "items_used = VALUES(items_used),"
-                        + "chests_opened = VALUES(chests_opened),"
-                        + "messages_sent = VALUES(messages_sent)")) {
+                    "SELECT MAX(seq) FROM player_stats_commits WHERE server_id = ?")) {
+            stmt.setString(1, serverId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            Bukkit.getLogger().severe("Error reading commit ledger for server " + serverId);
+            e.printStackTrace();
+            return -1;
+        }
+    }
 
-            stmt.setString(1, stats.getUuid().toString());
-            stmt.setString(2, stats.getPlayerName());
-            stmt.setInt(3, stats.getPlayTime());
-            stmt.setInt(4, stats.getMobsKilled());
-            stmt.setInt(5, stats.getItemsEaten());
-            stmt.setDouble(6, stats.getDistanceTraveled());
-            stmt.setInt(7, stats.getBlocksBroken());
-            stmt.setInt(8, stats.getDeaths());
-            stmt.setInt(9, stats.getItemsCrafted());
-            stmt.setInt(10, stats.getItemsUsed());
-            stmt.setInt(11, stats.getChestsOpened());
-            stmt.setInt(12, stats.getMessagesSent());
-
-            stmt.executeUpdate();
+    // Номер пачки и приращения пишутся в одной транзакции. Если номер уже есть в журнале,
+    // пачка была применена раньше (например, потерялся ответ на commit) и повторно не пишется
+    @Override
+    public boolean applyDeltas(long sequence, List<PlayerStats> deltas) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement ledger = connection.prepareStatement(
+                        "INSERT IGNORE INTO player_stats_commits (server_id, seq) VALUES (?, ?)")) {
+                    ledger.setString(1, serverId);
+                    ledger.setLong(2, sequence);
+                    if (ledger.executeUpdate() == 0) {
+                        connection.rollback();
+                        return true;
+                    }
+                }
+                try (PreparedStatement stmt = connection.prepareStatement(ADDITIVE_UPSERT_SQL)) {
+                    for (PlayerStats delta : deltas) {
+                        bindUpsert(stmt, delta);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+                saveBreakdowns(connection, deltas, true);
+                if (sequence % 100 == 0) {
+                    try (PreparedStatement prune = connection.prepareStatement(
+                            "DELETE FROM player_stats_commits WHERE server_id = ? AND seq < ?")) {
+                        prune.setString(1, serverId);
+                        prune.setLong(2, sequence - COMMIT_LEDGER_KEEP);
+                        prune.executeUpdate();
+                    }
+                }
+                connection.commit();
+                topCache.invalidate();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
         } catch (SQLException e) {
-            Bukkit.getLogger().severe("Error saving player stats for " + stats.getUuid());
+            Bukkit.getLogger().severe("Error applying stats delta batch " + sequence
+                    + " (" + deltas.size() + " players)");
             e.printStackTrace();
+            return false;
+        }
+    }
+
+    private String upsertSql(int changedFields) {
+        return upsertSql.computeIfAbsent(changedFields, fields -> {
+            StringBuilder sql = new StringBuilder("INSERT INTO player_stats (uuid, player_name");
+            for (String column : STAT_COLUMNS) {
+                sql.append(", ").append(column);
+            }
+            sql.append(") VALUES (?, ?");
+            for (int i = 0; i < STAT_COLUMNS.length; i++) {
+                sql.append(", ?");
+            }
+            sql.append(") ON DUPLICATE KEY UPDATE player_name = VALUES(player_name)");
+            for (int i = 0; i < STAT_COLUMNS.length; i++) {
+                if ((fields & (1 << i)) != 0) {
+                    sql.append(", ").append(STAT_COLUMNS[i])
+                            .append(" = VALUES(").append(STAT_COLUMNS[i]).append(")");
+                }
+            }
+            return sql.toString();
+        });
+    }
+
+    private static String[] statColumns() {
+        String[] columns = new String[StatCounters.FIELD_COUNT];
+        for (StatType type : StatType.values()) {
+            columns[type.field] = type.column;
+        }
+        return columns;
+    }
+
+    // Снимок пишет только изменившиеся с прошлой записи значения, приращение - все свои
+    private static void saveBreakdowns(Connection connection, List<PlayerStats> batch,
+            boolean additive) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                additive ? BREAKDOWN_ADD_SQL : BREAKDOWN_UPSERT_SQL)) {
+            int[] rows = new int[1];
+            SQLException[] failure = new SQLException[1];
+            for (PlayerStats stats : batch) {
+                String uuid = stats.getUuid().toString();
+                for (BreakdownType type : BreakdownType.values()) {
+                    StatBreakdown breakdown = stats.getBreakdown(type);
+                    if (breakdown == null) {
+                        continue;
+                    }
+                    breakdown.forEachChanged((key, value) -> {
+                        if (failure[0] != null) {
+                            return;
+                        }
+                        try {
+                            stmt.setString(1, uuid);
+                            stmt.setString(2, type.key);
+                            stmt.setString(3, type.name(key));
+                            stmt.setLong(4, value);
+                            stmt.addBatch();
+                            rows[0]++;
+                        } catch (SQLException e) {
+                            failure[0] = e;
+                        }
+                    });
+                    if (failure[0] != null) {
+                        throw failure[0];
+                    }
+                }
+            }
+            if (rows[0] > 0) {
+                stmt.executeBatch();
+            }
+        }
+    }
+
+    // Новая строка получает приращения как есть, у существующей они прибавляются к колонкам
+    private static String buildAdditiveUpsertSql() {
+        StringBuilder sql = new StringBuilder("INSERT INTO player_stats (uuid, player_name");
+        for (String column : STAT_COLUMNS) {
+            sql.append(", ").append(column);
+        }
+        sql.append(") VALUES (?, ?");
+        for (int i = 0; i < STAT_COLUMNS.length; i++) {
+            sql.append(", ?");
+        }
+        sql.append(") ON DUPLICATE KEY UPDATE player_name = VALUES(player_name)");
+        for (String column : STAT_COLUMNS) {
+            sql.append(", ").append(column).append(" = COALESCE(").append(column)
+                    .append(", 0) + VALUES(").append(column).append(")");
+        }
+        return sql.toString();
+    }
+
+    // Приращения складываются: несколько серверов могут писать один и тот же день
+    private static String buildDailyUpsertSql() {
+        StringBuilder sql = new StringBuilder("INSERT INTO player_stats_daily (uuid, day");
+        for (String column : STAT_COLUMNS) {
+            sql.append(", ").append(column);
+        }
+        sql.append(") VALUES (?, ?").append(", ?".repeat(STAT_COLUMNS.length))
+                .append(") ON DUPLICATE KEY UPDATE ");
+        for (int i = 0; i < STAT_COLUMNS.length; i++) {
+            String column = STAT_COLUMNS[i];
+            sql.append(i == 0 ? "" : ", ").append(column).append(" = ").append(column)
+                    .append(" + VALUES(").append(column).append(")");
+        }
+        return sql.toString();
+    }
+
+    @Override
+    public List<DailyStats> saveDailyStats(List<DailyStats> deltas) {
+        int newestDay = Integer.MIN_VALUE;
+        for (DailyStats delta : deltas) {
+            newestDay = Math.max(newestDay, delta.day);
+        }
+        int oldestKept = newestDay - WindowedStats.DAYS + 1;
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = connection.prepareStatement(DAILY_UPSERT_SQL)) {
+                    for (DailyStats delta : deltas) {
+                        stmt.setString(1, delta.uuid.toString());
+                        stmt.setInt(2, delta.day);
+                        for (int i = 0; i < STAT_COLUMNS.length; i++) {
+                            stmt.setLong(3 + i, delta.values[i]);
+                        }
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+                // Раз в день удаляются дни, вышедшие из всех окон
+                if (oldestKept > dailyPrunedBefore) {
+                    try (PreparedStatement prune = connection.prepareStatement(
+                            "DELETE FROM player_stats_daily WHERE day < ?")) {
+                        prune.setInt(1, oldestKept);
+                        prune.executeUpdate();
+                    }
+                }
+                connection.commit();
+                dailyPrunedBefore = Math.max(dailyPrunedBefore, oldestKept);
+                return Collections.emptyList();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            Bukkit.getLogger().severe("Error saving daily stats for " + deltas.size() + " players");
+            e.printStackTrace();
+            // Транзакция откатилась целиком
+            return deltas;
+        }
+    }
+
+    @Override
+    public boolean forEachDailyStats(int fromDay, Consumer<DailyStats> action) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                     "SELECT * FROM player_stats_daily WHERE day >= ?",
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setInt(1, fromDay);
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    long[] values = new long[STAT_COLUMNS.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = rs.getLong(STAT_COLUMNS[i]);
+                    }
+                    action.accept(new DailyStats(UUID.fromString(rs.getString("uuid")),
+                            rs.getInt("day"), values));
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            Bukkit.getLogger().severe("Error loading daily stats");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Колонки идут в порядке полей StatCounters, как в upsertSql
+    private void bindUpsert(PreparedStatement stmt, PlayerStats stats) throws SQLException {
+        stmt.setString(1, stats.getUuid().toString());
+        stmt.setString(2, stats.getPlayerName());
+        for (int field = 0; field < STAT_COLUMNS.length; field++) {
+            StatType type = StatType.byField(field);
+            if (type.isDistance()) {
+                stmt.setDouble(3 + field, stats.getDistanceTraveled());
+            } else {
+                stmt.setLong(3 + field, type.get(stats));
+            }
         }
     }
 
@@ -375,11 +1082,13 @@ class DatabaseStorage implements IStorage {
             stmt.setString(1, uuid.toString());
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return mapResultSet(rs);
+                    PlayerStats stats = mapResultSet(rs);
+                    loadBreakdowns(connection, stats);
+                    return stats;
                 } else {
+                    // Пустая строка появится при первом сохранении с ненулевой статистикой
                     PlayerStats newStats = new PlayerStats();
                     newStats.setUuid(uuid);
-                    savePlayerStats(newStats);
                     return newStats;
                 }
             }
@@ -390,24 +1099,100 @@ class DatabaseStorage implements IStorage {
         }
     }
 
+    // Сравнение в колляции таблицы (по умолчанию без учёта регистра) использует индекс по
+    // player_name; при нескольких строках с одним ником берётся игравший больше всех
+    @Override
+    public UUID findPlayerByName(String playerName) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT uuid FROM player_stats WHERE player_name = ?"
+                            + " ORDER BY play_time DESC LIMIT 1")) {
+            stmt.setString(1, playerName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? UUID.fromString(rs.getString(1)) : null;
+            }
+        } catch (SQLException e) {
+            Bukkit.getLogger().severe("Error looking up player " + playerName);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     @Override
     public List<PlayerStats> loadAllPlayers() {
         // This operation is very heavy.
         // But implementation is needed for interface.
-        try (Connection connection = dataSource.getConnection();
-             PreparedStatement stmt = connection.prepareStatement("SELECT * FROM player_stats");
-             ResultSet rs = stmt.executeQuery()) {
+        List<PlayerStats> statsList = new ArrayList<>();
+        return forEachPlayer(statsList::add) ? statsList : Collections.emptyList();
+    }
+
+    private static void loadBreakdowns(Connection connection, PlayerStats stats)
+            throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT kind, name, value FROM player_stats_breakdown WHERE uuid = ?")) {
+            stmt.setString(1, stats.getUuid().toString());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    addBreakdown(stats, rs.getString(1), rs.getString(2), rs.getLong(3));
+                }
+            }
+        }
+    }
+
+    // Неизвестные разбивки и константы, которых нет в этой версии сервера, пропускаются
+    private static void addBreakdown(PlayerStats stats, String kind, String name, long value) {
+        BreakdownType type = BreakdownType.byKey(kind);
+        int ordinal = type != null ? type.ordinal(name) : -1;
+        if (ordinal < 0) {
+            return;
+        }
+        StatBreakdown breakdown = stats.getBreakdown(type);
+        if (breakdown == null) {
+            breakdown = new StatBreakdown();
+            stats.setBreakdown(type, breakdown);
+        }
+        breakdown.add(ordinal, value);
+    }
 
-            List<PlayerStats> statsList = new ArrayList<>();
-            while (rs.next()) {
-                statsList.add(mapResultSet(rs));
+    // Драйвер отдаёт строки порциями по STREAM_FETCH_SIZE, а не всей таблицей сразу. Обе
+    // таблицы читаются по первичному ключу в порядке uuid и сливаются за один проход; потоковый
+    // результат занимает соединение целиком, поэтому у разбивок своё соединение
+    @Override
+    public boolean forEachPlayer(Consumer<PlayerStats> action) {
+        try (Connection connection = dataSource.getConnection();
+             Connection breakdownConnection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                     "SELECT * FROM player_stats ORDER BY uuid",
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+             PreparedStatement breakdownStmt = breakdownConnection.prepareStatement(
+                     "SELECT uuid, kind, name, value FROM player_stats_breakdown ORDER BY uuid",
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            breakdownStmt.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery();
+                 ResultSet breakdowns = breakdownStmt.executeQuery()) {
+                boolean hasBreakdown = breakdowns.next();
+                while (rs.next()) {
+                    PlayerStats stats = mapResultSet(rs);
+                    String uuid = rs.getString("uuid");
+                    // Строки разбивок без строки игрока пропускаются
+                    while (hasBreakdown && breakdowns.getString(1).compareTo(uuid) < 0) {
+                        hasBreakdown = breakdowns.next();
+                    }
+                    while (hasBreakdown && breakdowns.getString(1).equals(uuid)) {
+                        addBreakdown(stats, breakdowns.getString(2), breakdowns.getString(3),
+                                breakdowns.getLong(4));
+                        hasBreakdown = breakdowns.next();
+                    }
+                    action.accept(stats);
+                }
             }
-            return statsList;
+            return true;
         } catch (SQLException e) {
             Bukkit.getLogger().severe("Error loading all player stats");
             e.printStackTrace();
+            return false;
         }
-        return Collections.emptyList();
     }
 
     @Override
@@ -430,48 +1215,148 @@ class DatabaseStorage implements IStorage {
         Bukkit.getLogger().info("Database storage closed successfully.");
     }
 
+    // Повторные и одновременные одинаковые запросы отдаются из TopQueryCache. Лимит ограничен,
+    // чтобы кэш не рос по числу разных лимитов
     @Override
     public List<PlayerStats> getTopStats(StatType statType, int limit) {
-        String column = "";
-        switch (statType) {
-            case PLAY_TIME: column = "play_time"; break;
-            case MOBS_KILLED: column = "mobs_killed"; break;
-            case ITEMS_EATEN: column = "items_eaten"; break;
-            case DISTANCE_TRAVELED: column = "distance_traveled"; break;
-            case BLOCKS_BROKEN: column = "blocks_broken"; break;
-            case CHEST_OPENED: column = "chests_opened"; break;
-            default: return Collections.emptyList();
-        }
+        int bounded = StatsManager.clampTopLimit(limit);
+        return topCache.get(statType, bounded, () -> queryTop(statType, bounded));
+    }
 
+    // Читаются только uuid, ник и колонка топа; нулевые значения в топ не попадают
+    private List<PlayerStats> queryTop(StatType statType, int limit) {
+        String column = statType.column;
         List<PlayerStats> statsList = new ArrayList<>();
         try (Connection connection = dataSource.getConnection();
              PreparedStatement stmt = connection.prepareStatement(
-                "SELECT * FROM player_stats ORDER BY " + column + " DESC LIMIT ?")) {
+                "SELECT uuid, player_name, " + column + " FROM player_stats WHERE " + column
+                        + " > 0 ORDER BY " + column + " DESC LIMIT ?")) {
              stmt.setInt(1, limit);
              try (ResultSet rs = stmt.executeQuery()) {
                  while (rs.next()) {
-                     statsList.add(mapResultSet(rs));
+                     PlayerStats stats = new PlayerStats();
+                     stats.setUuid(UUID.fromString(rs.getString(1)));
+                     stats.setPlayerName(rs.getString(2));
+                     setStat(stats, statType, rs, 3);
+                     statsList.add(stats);
                  }
              }
         } catch (SQLException e) {
+            Bukkit.getLogger().severe("Error loading top " + statType);
             e.printStackTrace();
+            return null;
         }
         return statsList;
     }
 
+    // Порядок как у RankTree: по убыванию значения, при равенстве - по uuid. Все запросы идут
+    // по индексу колонки (в нём есть и первичный ключ), поэтому ни один не сортирует таблицу
+    @Override
+    public StatRank getRank(StatType statType, UUID uuid, int radius) {
+        String column = statType.column;
+        String id = uuid.toString();
+        try (Connection connection = dataSource.getConnection()) {
+            Object value;
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT " + column + " FROM player_stats WHERE uuid = ?")) {
+                stmt.setString(1, id);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    value = rs.next() ? rs.getObject(1) : null;
+                }
+            }
+            if (!(value instanceof Number) || ((Number) value).doubleValue() <= 0) {
+                return StatRank.UNRANKED;
+            }
+
+            int above;
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT (SELECT COUNT(*) FROM player_stats WHERE " + column + " > ?)"
+                            + " + (SELECT COUNT(*) FROM player_stats WHERE " + column
+                            + " = ? AND uuid < ?)")) {
+                stmt.setObject(1, value);
+                stmt.setObject(2, value);
+                stmt.setString(3, id);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    above = rs.getInt(1);
+                }
+            }
+
+            String select = "SELECT uuid, player_name, " + column + " FROM player_stats WHERE ";
+            // Выше игрока: сначала равные значения, затем большие; ближайшие первыми
+            List<PlayerStats> before = queryRows(connection, statType, radius,
+                    select + column + " = ? AND uuid < ? ORDER BY uuid DESC LIMIT ?", value, id);
+            if (before.size() < radius) {
+                before.addAll(queryRows(connection, statType, radius - before.size(),
+                        select + column + " > ? ORDER BY " + column + " ASC, uuid DESC LIMIT ?",
+                        value));
+            }
+            List<PlayerStats> after = queryRows(connection, statType, radius,
+                    select + column + " = ? AND uuid > ? ORDER BY uuid ASC LIMIT ?", value, id);
+            if (after.size() < radius) {
+                after.addAll(queryRows(connection, statType, radius - after.size(),
+                        select + column + " < ? AND " + column + " > 0 ORDER BY " + column
+                                + " DESC, uuid ASC LIMIT ?", value));
+            }
+
+            List<PlayerStats> rows = new ArrayList<>(before.size() + 1 + after.size());
+            Collections.reverse(before);
+            rows.addAll(before);
+            PlayerStats self = new PlayerStats();
+            self.setUuid(uuid);
+            if (statType.isDistance()) {
+                self.setDistanceTraveled(((Number) value).doubleValue());
+            } else {
+                self.setValue(statType.field, ((Number) value).longValue());
+            }
+            rows.add(self);
+            rows.addAll(after);
+            int rank = above + 1;
+            return new StatRank(rank, rank - before.size(), rows);
+        } catch (SQLException e) {
+            Bukkit.getLogger().severe("Error loading rank of " + uuid + " by " + statType);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Параметры запроса, затем LIMIT
+    private static List<PlayerStats> queryRows(Connection connection, StatType statType, int limit,
+            String sql, Object... params) throws SQLException {
+        List<PlayerStats> rows = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            stmt.setInt(params.length + 1, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    PlayerStats stats = new PlayerStats();
+                    stats.setUuid(UUID.fromString(rs.getString(1)));
+                    stats.setPlayerName(rs.getString(2));
+                    setStat(stats, statType, rs, 3);
+                    rows.add(stats);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static void setStat(PlayerStats stats, StatType statType, ResultSet rs, int column)
+            throws SQLException {
+        if (statType.isDistance()) {
+            stats.setDistanceTraveled(rs.getDouble(column));
+        } else {
+            stats.setValue(statType.field, rs.getLong(column));
+        }
+    }
+
     private PlayerStats mapResultSet(ResultSet rs) throws SQLException {
         PlayerStats stats = new PlayerStats();
         stats.setUuid(UUID.fromString(rs.getString("uuid")));
-        stats.setPlayTime(rs.getInt("play_time"));
-        stats.setMobsKilled(rs.getInt("mobs_killed"));
-        stats.setItemsEaten(rs.getInt("items_eaten"));
-        stats.setDistanceTraveled(rs.getDouble("distance_traveled"));
-        stats.setBlocksBroken(rs.getInt("blocks_broken"));
-        stats.setDeaths(rs.getInt("deaths"));
-        stats.setItemsCrafted(rs.getInt("items_crafted"));
-        stats.setItemsUsed(rs.getInt("items_used"));
-        stats.setChestsOpened(rs.getInt("chests_opened"));
-        stats.setMessagesSent(rs.getInt("messages_sent"));
+        for (StatType type : StatType.values()) {
+            setStat(stats, type, rs, rs.findColumn(type.column));
+        }
         stats.setPlayerName(rs.getString("player_name"));
         return stats;
     }
@@ -0,0 +1,66 @@
+package ru.annelo.player2statistic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// Top-K for several StatTypes in one pass: a min-heap of at most K players per type, so a scan
+// over any number of players keeps O(K) of them. Heaps of parallel workers are merged at the end.
+// Not thread-safe; every worker owns its own instance.
+final class TopHeaps {
+    // The heap grows past this on demand instead of being preallocated by every worker
+    private static final int MAX_INITIAL_CAPACITY = 1024;
+
+    private final int limit;
+    private final Map<StatType, PriorityQueue<PlayerStats>> heaps = new EnumMap<>(StatType.class);
+
+    TopHeaps(Collection<StatType> types, int limit) {
+        // limit <= 0 keeps nobody; callers that want everyone do not use the heaps
+        this.limit = Math.max(0, limit);
+        int capacity = Math.min(this.limit, MAX_INITIAL_CAPACITY) + 1;
+        for (StatType type : types) {
+            heaps.put(type, new PriorityQueue<>(capacity, Comparator.comparingLong(type::get)));
+        }
+    }
+
+    void add(PlayerStats stats) {
+        for (Map.Entry<StatType, PriorityQueue<PlayerStats>> entry : heaps.entrySet()) {
+            offer(entry.getKey(), entry.getValue(), stats);
+        }
+    }
+
+    // Only players with a non-zero value are ranked, same as IStorage.selectTop
+    private void offer(StatType type, PriorityQueue<PlayerStats> heap, PlayerStats stats) {
+        long value = type.get(stats);
+        if (value <= 0) {
+            return;
+        }
+        if (heap.size() < limit) {
+            heap.offer(stats);
+        } else if (!heap.isEmpty() && value > type.get(heap.peek())) {
+            heap.poll();
+            heap.offer(stats);
+        }
+    }
+
+    TopHeaps merge(TopHeaps other) {
+        for (Map.Entry<StatType, PriorityQueue<PlayerStats>> entry : other.heaps.entrySet()) {
+            PriorityQueue<PlayerStats> heap = heaps.get(entry.getKey());
+            for (PlayerStats stats : entry.getValue()) {
+                offer(entry.getKey(), heap, stats);
+            }
+        }
+        return this;
+    }
+
+    // Highest value first
+    List<PlayerStats> top(StatType type) {
+        List<PlayerStats> result = new ArrayList<>(heaps.get(type));
+        result.sort(Comparator.comparingLong(type::get).reversed());
+        return result;
+    }
+}
@@ -0,0 +1,126 @@
+package ru.annelo.player2statistic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Кэш результатов топа по (статистика, limit) с ограниченным временем жизни. Одновременные
+// одинаковые запросы ждут одного обращения к базе, а не выполняют его каждый. После записи в
+// хранилище кэш сбрасывается: запрос, начатый до записи, результат уже не кэширует. Каждый
+// вызов получает свои копии строк: вызывающие дописывают в них ники.
+final class TopQueryCache {
+    private final long ttlNanos;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    TopQueryCache(long ttlMillis) {
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    // loader возвращает null при ошибке - такой результат не кэшируется
+    List<PlayerStats> get(StatType statType, int limit, Supplier<List<PlayerStats>> loader) {
+        if (ttlNanos <= 0) {
+            List<PlayerStats> result = loader.get();
+            return result != null ? result : Collections.emptyList();
+        }
+        Key key = new Key(statType, limit);
+        Entry owned = null;
+        Entry entry;
+        while (true) {
+            entry = entries.get(key);
+            if (entry != null && entry.isUsable(generation.get(), ttlNanos)) {
+                break;
+            }
+            evictStale();
+            Entry fresh = new Entry(generation.get());
+            boolean installed = entry == null
+                    ? entries.putIfAbsent(key, fresh) == null
+                    : entries.replace(key, entry, fresh);
+            if (installed) {
+                entry = owned = fresh;
+                break;
+            }
+        }
+
+        if (owned != null) {
+            List<PlayerStats> result = null;
+            try {
+                result = loader.get();
+            } finally {
+                if (result == null) {
+                    entries.remove(key, owned);
+                }
+                owned.result.complete(result != null ? Collections.unmodifiableList(result) : null);
+            }
+        }
+        List<PlayerStats> result = entry.result.join();
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        List<PlayerStats> copies = new ArrayList<>(result.size());
+        for (PlayerStats stats : result) {
+            copies.add(stats.clone());
+        }
+        return copies;
+    }
+
+    // Устаревшие записи удаляются при промахе, а не только заменяются запросом с тем же ключом
+    private void evictStale() {
+        long current = generation.get();
+        entries.values().removeIf(entry -> entry.result.isDone() && !entry.isUsable(current, ttlNanos));
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    private static final class Entry {
+        private final long generation;
+        // Отсчёт TTL идёт от начала запроса
+        private final long startedAt = System.nanoTime();
+        private final CompletableFuture<List<PlayerStats>> result = new CompletableFuture<>();
+
+        private Entry(long generation) {
+            this.generation = generation;
+        }
+
+        // Выполняющийся запрос переиспользуется, только если он начат после последней записи
+        private boolean isUsable(long currentGeneration, long ttlNanos) {
+            return generation == currentGeneration
+                    && (!result.isDone() || System.nanoTime() - startedAt < ttlNanos);
+        }
+    }
+
+    private static final class Key {
+        private final StatType statType;
+        private final int limit;
+
+        private Key(StatType statType, int limit) {
+            this.statType = statType;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return statType == other.statType && limit == other.limit;
+        }
+
+        @Override
+        public int hashCode() {
+            return statType.hashCode() * 31 + limit;
+        }
+    }
+}
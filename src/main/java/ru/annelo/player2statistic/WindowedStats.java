@@ -0,0 +1,264 @@
+package ru.annelo.player2statistic;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.IntSupplier;
+
+// Статистика за последние сутки, неделю и месяц. У каждого игрока кольцо из DAYS дневных
+// корзин и готовые суммы по окнам; для каждого окна и StatType - свой RankTree, так что топ
+// за неделю стоит столько же, сколько топ за всё время. Корзины пополняются приращениями,
+// дошедшими до хранилища; при смене дня суммы пересчитываются и деревья обновляются.
+final class WindowedStats {
+    // Кольцо длиннее самого длинного окна
+    static final int DAYS = 32;
+    private static final StatType[] TYPES = StatType.values();
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    enum Window {
+        DAY(1), WEEK(7), MONTH(30);
+
+        final int days;
+
+        Window(int days) {
+            this.days = days;
+        }
+
+        // null - не окно (статистика за всё время)
+        static Window parse(String value) {
+            switch (value.toLowerCase()) {
+                case "day": return DAY;
+                case "week": return WEEK;
+                case "month": return MONTH;
+                default: return null;
+            }
+        }
+    }
+
+    private static final Window[] WINDOWS = Window.values();
+
+    private final IntSupplier clock;
+    private final Map<Window, RankTree[]> trees = new EnumMap<>(Window.class);
+    private final Map<UUID, Player> players = new HashMap<>();
+    // Ещё не записанные в хранилище приращения: день -> игрок -> значения
+    private final TreeMap<Integer, Map<UUID, long[]>> pending = new TreeMap<>();
+    private int today;
+    private volatile boolean ready;
+
+    WindowedStats() {
+        this(() -> (int) LocalDate.now().toEpochDay());
+    }
+
+    WindowedStats(IntSupplier clock) {
+        this.clock = clock;
+        this.today = clock.getAsInt();
+        for (Window window : WINDOWS) {
+            RankTree[] byType = new RankTree[TYPES.length];
+            for (int t = 0; t < byType.length; t++) {
+                byType[t] = new RankTree();
+            }
+            trees.put(window, byType);
+        }
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    void markReady() {
+        ready = true;
+    }
+
+    // Первый день, который ещё нужен окнам
+    int oldestDay() {
+        return clock.getAsInt() - DAYS + 1;
+    }
+
+    // Приращение, записанное в хранилище; попадает в корзину текущего дня
+    synchronized void add(UUID uuid, String name, long[] delta) {
+        advance();
+        Player player = player(uuid);
+        if (name != null) {
+            player.name = name;
+        }
+        if (isZero(delta)) {
+            return;
+        }
+        long[] queued = pending.computeIfAbsent(today, d -> new HashMap<>())
+                .computeIfAbsent(uuid, id -> new long[StatCounters.FIELD_COUNT]);
+        for (int i = 0; i < delta.length; i++) {
+            queued[i] += delta[i];
+        }
+        apply(uuid, player, today, delta);
+    }
+
+    // Корзина, прочитанная из хранилища при запуске
+    synchronized void load(DailyStats stats) {
+        advance();
+        if (stats.day > today || today - stats.day >= DAYS) {
+            return;
+        }
+        apply(stats.uuid, player(stats.uuid), stats.day, stats.values);
+    }
+
+    synchronized List<PlayerStats> top(Window window, StatType type, int limit) {
+        advance();
+        RankTree tree = trees.get(window)[type.ordinal()];
+        List<RankTree.Entry> entries = tree.top(limit > 0 ? limit : tree.size());
+        List<PlayerStats> result = new ArrayList<>(entries.size());
+        for (RankTree.Entry entry : entries) {
+            long[] values = new long[StatCounters.FIELD_COUNT];
+            values[type.field] = entry.value();
+            PlayerStats stats = StatCounters.fromFields(values);
+            stats.setUuid(entry.uuid());
+            stats.setPlayerName(players.get(entry.uuid()).name);
+            result.add(stats);
+        }
+        return result;
+    }
+
+    synchronized List<DailyStats> drainPending() {
+        List<DailyStats> batch = new ArrayList<>();
+        for (Map.Entry<Integer, Map<UUID, long[]>> day : pending.entrySet()) {
+            for (Map.Entry<UUID, long[]> entry : day.getValue().entrySet()) {
+                batch.add(new DailyStats(entry.getKey(), day.getKey(), entry.getValue()));
+            }
+        }
+        pending.clear();
+        return batch;
+    }
+
+    // Пачка не записалась: она вернётся в следующую вместе с новыми приращениями
+    synchronized void restorePending(List<DailyStats> batch) {
+        for (DailyStats stats : batch) {
+            long[] queued = pending.computeIfAbsent(stats.day, d -> new HashMap<>())
+                    .computeIfAbsent(stats.uuid, id -> new long[StatCounters.FIELD_COUNT]);
+            for (int i = 0; i < queued.length; i++) {
+                queued[i] += stats.values[i];
+            }
+        }
+    }
+
+    // Загрузка из хранилища прервалась на середине: остаются только ещё не записанные
+    // приращения, загрузка повторяется с нуля
+    synchronized void resetToPending() {
+        players.clear();
+        for (RankTree[] byType : trees.values()) {
+            for (int t = 0; t < byType.length; t++) {
+                byType[t] = new RankTree();
+            }
+        }
+        advance();
+        for (Map.Entry<Integer, Map<UUID, long[]>> day : pending.entrySet()) {
+            if (today - day.getKey() >= DAYS) {
+                continue;
+            }
+            for (Map.Entry<UUID, long[]> entry : day.getValue().entrySet()) {
+                apply(entry.getKey(), player(entry.getKey()), day.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private Player player(UUID uuid) {
+        return players.computeIfAbsent(uuid, id -> new Player());
+    }
+
+    private void apply(UUID uuid, Player player, int day, long[] values) {
+        int position = Math.floorMod(day, DAYS);
+        if (player.bucketDay[position] != day) {
+            // Старый день из этой ячейки уже вышел из всех окон
+            Arrays.fill(player.buckets, position * TYPES.length, (position + 1) * TYPES.length, 0);
+            player.bucketDay[position] = day;
+        }
+        for (StatType type : TYPES) {
+            long value = values[type.field];
+            if (value == 0) {
+                continue;
+            }
+            player.buckets[position * TYPES.length + type.ordinal()] += value;
+            for (Window window : WINDOWS) {
+                if (today - day < window.days) {
+                    setSum(uuid, player, window, type, player.sum(window, type) + value);
+                }
+            }
+        }
+    }
+
+    // Новый день: суммы окон пересчитываются по корзинам. Игроки без данных в окнах удаляются
+    private void advance() {
+        int now = clock.getAsInt();
+        if (now <= today) {
+            return;
+        }
+        today = now;
+        Iterator<Map.Entry<UUID, Player>> iterator = players.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, Player> entry = iterator.next();
+            Player player = entry.getValue();
+            boolean active = false;
+            for (Window window : WINDOWS) {
+                for (StatType type : TYPES) {
+                    long sum = 0;
+                    for (int position = 0; position < DAYS; position++) {
+                        int day = player.bucketDay[position];
+                        if (day != EMPTY && today - day < window.days) {
+                            sum += player.buckets[position * TYPES.length + type.ordinal()];
+                        }
+                    }
+                    if (sum != player.sum(window, type)) {
+                        setSum(entry.getKey(), player, window, type, sum);
+                    }
+                    active |= sum != 0;
+                }
+            }
+            if (!active) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void setSum(UUID uuid, Player player, Window window, StatType type, long value) {
+        int index = window.ordinal() * TYPES.length + type.ordinal();
+        long current = player.sums[index];
+        RankTree tree = trees.get(window)[type.ordinal()];
+        if (current > 0) {
+            tree.remove(current, uuid);
+        }
+        if (value > 0) {
+            tree.insert(value, uuid);
+        }
+        player.sums[index] = value;
+    }
+
+    private static boolean isZero(long[] values) {
+        for (long value : values) {
+            if (value != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Player {
+        // Корзина на ячейку кольца и StatType; bucketDay - какой день лежит в ячейке
+        private final long[] buckets = new long[DAYS * TYPES.length];
+        private final int[] bucketDay = new int[DAYS];
+        private final long[] sums = new long[WINDOWS.length * TYPES.length];
+        private String name;
+
+        private Player() {
+            Arrays.fill(bucketDay, EMPTY);
+        }
+
+        private long sum(Window window, StatType type) {
+            return sums[window.ordinal() * TYPES.length + type.ordinal()];
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package ru.annelo.player2statistic;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.bukkit.Bukkit;
+
+// Collects players that need saving and writes them to storage in chunks. A player queued
+// several times between flushes is written once, with the newest values.
+final class WriteBehindWriter {
+    private final StatCounters counters;
+    private final Supplier<IStorage> storage;
+    private final int chunkSize;
+    // Notified with every snapshot that reached storage and its change since the previous write
+    private final BiConsumer<PlayerStats, PlayerStats> persisted;
+    private final Set<StatCounters.Slot> pending = ConcurrentHashMap.newKeySet();
+    // Serializes flushes so two of them never reorder writes of the same player; the shutdown
+    // flush waits for it only until its deadline
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Additive mode: the storage the sequence belongs to, the last used sequence number and the
+    // chunk whose outcome is unknown. That chunk is retried as is, never recomputed, so the
+    // storage can recognise it by its sequence number and apply it at most once
+    private IStorage sequenceOwner;
+    private long sequence;
+    private Chunk inFlight;
+    // Numbers up to this one belong to chunks in the recovery file and are never reused
+    private volatile long reservedSequence;
+
+    WriteBehindWriter(StatCounters counters, Supplier<IStorage> storage, int chunkSize,
+            BiConsumer<PlayerStats, PlayerStats> persisted) {
+        this.counters = counters;
+        this.storage = storage;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.persisted = persisted;
+    }
+
+    void submit(StatCounters.Slot slot) {
+        pending.add(slot);
+    }
+
+    int pendingCount() {
+        return pending.size() + (inFlight != null ? inFlight.slots.size() : 0);
+    }
+
+    boolean flush() {
+        lock.lock();
+        try {
+            return flush(false, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Runs action between two flushes: nothing is written while it runs
+    boolean whilePaused(BooleanSupplier action) {
+        lock.lock();
+        try {
+            return action.getAsBoolean();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Final flush at shutdown: no chunk is started after the deadline; a chunk already sent is
+    // not interrupted. Returns what did not reach storage, as recovery file chunks. null - an
+    // earlier flush is still stuck in storage and holds the writer past the deadline
+    List<RecoveryFile.Chunk> flushBefore(long deadlineNanos) throws InterruptedException {
+        if (!lock.tryLock(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+            return null;
+        }
+        try {
+            flush(true, deadlineNanos);
+            return spill();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void reserveSequence(long sequence) {
+        reservedSequence = Math.max(reservedSequence, sequence);
+    }
+
+    // Slots waiting for the next flush; safe to read while a flush holds the writer
+    Set<StatCounters.Slot> pendingSlots() {
+        return pending;
+    }
+
+    private boolean expired(boolean bounded, long deadlineNanos) {
+        return bounded && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    private boolean flush(boolean bounded, long deadlineNanos) {
+        IStorage target = storage.get();
+        boolean additive = target.isAdditive();
+        if (additive) {
+            if (!prepareSequence(target)) {
+                return false;
+            }
+        } else if (inFlight != null) {
+            // Switched away from an additive storage: the chunk is rewritten as absolute values
+            pending.addAll(inFlight.slots);
+            inFlight = null;
+            sequenceOwner = null;
+        }
+        if (inFlight != null && (expired(bounded, deadlineNanos) || !commit(target, inFlight))) {
+            return false;
+        }
+        if (pending.isEmpty()) {
+            return true;
+        }
+
+        List<StatCounters.Slot> slots = new ArrayList<>(pending.size());
+        Iterator<StatCounters.Slot> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            slots.add(iterator.next());
+            iterator.remove();
+        }
+
+        // Only players with changes since the last write are saved. Rows that are still waiting
+        // for their stored values would overwrite them with this session's counts, so they wait
+        List<StatCounters.Slot> dirty = new ArrayList<>(slots.size());
+        List<PlayerStats> snapshots = new ArrayList<>(slots.size());
+        for (StatCounters.Slot slot : slots) {
+            // Already released by an earlier commit: its row may belong to another player now
+            if (slot.released) {
+                continue;
+            }
+            PlayerStats snapshot = slot.snapshot();
+            if (snapshot.getChangedFields() == 0) {
+                if (slot.departed) {
+                    counters.release(slot);
+                }
+            } else if (!slot.loaded) {
+                pending.add(slot);
+            } else {
+                dirty.add(slot);
+                snapshots.add(snapshot);
+            }
+        }
+
+        for (int from = 0; from < dirty.size(); from += chunkSize) {
+            if (expired(bounded, deadlineNanos)) {
+                pending.addAll(dirty.subList(from, dirty.size()));
+                return false;
+            }
+            int to = Math.min(dirty.size(), from + chunkSize);
+            Chunk chunk = new Chunk(dirty.subList(from, to), snapshots.subList(from, to));
+            if (additive) {
+                chunk.sequence = ++sequence;
+                chunk.deltas = new ArrayList<>(chunk.slots.size());
+                for (int i = 0; i < chunk.slots.size(); i++) {
+                    chunk.deltas.add(chunk.slots.get(i).delta(chunk.snapshots.get(i)));
+                }
+                inFlight = chunk;
+            }
+            if (!commit(target, chunk)) {
+                // Later chunks have not been sent; the failed one stays in flight in additive mode
+                if (!additive) {
+                    pending.addAll(chunk.slots);
+                }
+                pending.addAll(dirty.subList(to, dirty.size()));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean prepareSequence(IStorage target) {
+        if (sequenceOwner == target) {
+            return true;
+        }
+        // Storage was switched: an unfinished chunk belongs to the old one and is recomputed
+        if (inFlight != null) {
+            pending.addAll(inFlight.slots);
+            inFlight = null;
+        }
+        long last = target.lastCommittedSequence();
+        if (last < 0) {
+            return false;
+        }
+        sequence = Math.max(last, reservedSequence);
+        sequenceOwner = target;
+        return true;
+    }
+
+    // Everything not yet in storage, as it has to be replayed. The unfinished additive chunk
+    // keeps its number, so a replay of a chunk that did land is skipped by the storage; the
+    // rest are deltas without a number in additive mode, absolute snapshots otherwise
+    private List<RecoveryFile.Chunk> spill() {
+        List<RecoveryFile.Chunk> spilled = new ArrayList<>();
+        if (inFlight != null) {
+            spilled.add(new RecoveryFile.Chunk(RecoveryFile.Kind.DELTAS, inFlight.sequence,
+                    new ArrayList<>(inFlight.deltas)));
+            // Newer changes of these players become deltas on top of the chunk
+            for (int i = 0; i < inFlight.slots.size(); i++) {
+                inFlight.slots.get(i).markPersisted(inFlight.snapshots.get(i));
+            }
+            inFlight = null;
+        }
+        boolean additive = storage.get().isAdditive();
+        List<PlayerStats> snapshots = new ArrayList<>();
+        List<PlayerStats> deltas = new ArrayList<>();
+        Iterator<StatCounters.Slot> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            StatCounters.Slot slot = iterator.next();
+            iterator.remove();
+            if (slot.released) {
+                continue;
+            }
+            PlayerStats snapshot = slot.snapshot();
+            if (snapshot.getChangedFields() == 0) {
+                continue;
+            }
+            // A row still waiting for its stored values holds only this session's counts
+            if (additive || !slot.loaded) {
+                deltas.add(slot.delta(snapshot));
+            } else {
+                snapshots.add(snapshot);
+            }
+        }
+        if (!snapshots.isEmpty()) {
+            spilled.add(new RecoveryFile.Chunk(RecoveryFile.Kind.SNAPSHOTS, 0, snapshots));
+        }
+        if (!deltas.isEmpty()) {
+            spilled.add(new RecoveryFile.Chunk(RecoveryFile.Kind.DELTAS, 0, deltas));
+        }
+        return spilled;
+    }
+
+    // A storage that throws (e.g. closed by a reload in the middle of a flush) counts as a failed
+    // write: the caller keeps the chunk's slots queued, otherwise departed players would be lost
+    private boolean commit(IStorage target, Chunk chunk) {
+        try {
+            return send(target, chunk);
+        } catch (RuntimeException e) {
+            Bukkit.getLogger().severe("Error writing " + chunk.slots.size() + " player stats");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private boolean send(IStorage target, Chunk chunk) {
+        boolean saved;
+        if (chunk.deltas != null) {
+            // Chunk of deltas left for a storage that is no longer additive: the next flush
+            // rewrites it as absolute values
+            saved = target.isAdditive() && target.applyDeltas(chunk.sequence, chunk.deltas);
+        } else {
+            saved = target.savePlayerStatsBatch(chunk.snapshots);
+        }
+        if (!saved) {
+            return false;
+        }
+        if (chunk == inFlight) {
+            inFlight = null;
+        }
+        for (int i = 0; i < chunk.slots.size(); i++) {
+            StatCounters.Slot slot = chunk.slots.get(i);
+            PlayerStats snapshot = chunk.snapshots.get(i);
+            PlayerStats delta = chunk.deltas != null ? chunk.deltas.get(i) : slot.delta(snapshot);
+            slot.markPersisted(snapshot);
+            persisted.accept(snapshot, delta);
+            // A player who left is kept in memory until the final write lands
+            if (slot.departed && !slot.released) {
+                if (slot.isDirty()) {
+                    pending.add(slot);
+                } else {
+                    counters.release(slot);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static final class Chunk {
+        private final List<StatCounters.Slot> slots;
+        private final List<PlayerStats> snapshots;
+        private long sequence;
+        private List<PlayerStats> deltas;
+
+        private Chunk(List<StatCounters.Slot> slots, List<PlayerStats> snapshots) {
+            this.slots = new ArrayList<>(slots);
+            this.snapshots = new ArrayList<>(snapshots);
+        }
+    }
+}
@@ -5,16 +5,13 @@ import java.util.UUID;
 class PlayerStats {
     private UUID uuid;
     private String playerName;
-    private int playTime; // В минутах
-    private int mobsKilled;
-    private int itemsEaten;
-    private double distanceTraveled; // В блоках
-    private int blocksBroken;
-    private int deaths;
-    private int itemsCrafted;
-    private int itemsUsed;
-    private int chestsOpened;
-    private int messagesSent;
+    // Значения по индексам StatCounters (их описывает StatType): время игры в минутах,
+    // расстояние в блоках в фиксированной точке StatCounters
+    private final long[] values = new long[StatCounters.FIELD_COUNT];
+    // Разбивки по BreakdownType; null - пустая
+    private final StatBreakdown[] breakdowns = new StatBreakdown[BreakdownType.COUNT];
+    // Битовая маска полей (индексы StatCounters), изменённых с последнего сохранения
+    private int changedFields = StatCounters.ALL_FIELDS;
 
     public UUID getUuid() {
         return uuid;
@@ -24,84 +21,110 @@ class PlayerStats {
         this.uuid = uuid;
     }
 
+    long getValue(int field) {
+        return values[field];
+    }
+
+    void setValue(int field, long value) {
+        values[field] = value;
+    }
+
+    // null, если у игрока нет ни одного значения этой разбивки
+    StatBreakdown getBreakdown(BreakdownType type) {
+        return breakdowns[type.ordinal()];
+    }
+
+    void setBreakdown(BreakdownType type, StatBreakdown breakdown) {
+        breakdowns[type.ordinal()] = breakdown;
+    }
+
     public int getPlayTime() {
-        return playTime;
+        return (int) values[StatCounters.PLAY_TIME];
     }
 
     public void setPlayTime(int playTime) {
-        this.playTime = playTime;
+        values[StatCounters.PLAY_TIME] = playTime;
     }
 
     public int getMobsKilled() {
-        return mobsKilled;
+        return (int) values[StatCounters.MOBS_KILLED];
     }
 
     public void setMobsKilled(int mobsKilled) {
-        this.mobsKilled = mobsKilled;
+        values[StatCounters.MOBS_KILLED] = mobsKilled;
     }
 
     public int getItemsEaten() {
-        return itemsEaten;
+        return (int) values[StatCounters.ITEMS_EATEN];
     }
 
     public void setItemsEaten(int itemsEaten) {
-        this.itemsEaten = itemsEaten;
+        values[StatCounters.ITEMS_EATEN] = itemsEaten;
     }
 
     public double getDistanceTraveled() {
-        return distanceTraveled;
+        return values[StatCounters.DISTANCE_TRAVELED] / StatCounters.DISTANCE_SCALE;
     }
 
     public void setDistanceTraveled(double distanceTraveled) {
-        this.distanceTraveled = distanceTraveled;
+        values[StatCounters.DISTANCE_TRAVELED] =
+                Math.round(distanceTraveled * StatCounters.DISTANCE_SCALE);
     }
 
     public int getBlocksBroken() {
-        return blocksBroken;
+        return (int) values[StatCounters.BLOCKS_BROKEN];
     }
 
     public void setBlocksBroken(int blocksBroken) {
-        this.blocksBroken = blocksBroken;
+        values[StatCounters.BLOCKS_BROKEN] = blocksBroken;
     }
 
     public int getDeaths() {
-        return deaths;
+        return (int) values[StatCounters.DEATHS];
     }
 
     public void setDeaths(int deaths) {
-        this.deaths = deaths;
+        values[StatCounters.DEATHS] = deaths;
     }
 
     public int getItemsCrafted() {
-        return itemsCrafted;
+        return (int) values[StatCounters.ITEMS_CRAFTED];
     }
 
     public void setItemsCrafted(int itemsCrafted) {
-        this.itemsCrafted = itemsCrafted;
+        values[StatCounters.ITEMS_CRAFTED] = itemsCrafted;
     }
 
     public int getItemsUsed() {
-        return itemsUsed;
+        return (int) values[StatCounters.ITEMS_USED];
     }
 
     public void setItemsUsed(int itemsUsed) {
-        this.itemsUsed = itemsUsed;
+        values[StatCounters.ITEMS_USED] = itemsUsed;
     }
 
     public int getChestsOpened() {
-        return chestsOpened;
+        return (int) values[StatCounters.CHESTS_OPENED];
     }
 
     public void setChestsOpened(int chestsOpened) {
-        this.chestsOpened = chestsOpened;
+        values[StatCounters.CHESTS_OPENED] = chestsOpened;
     }
 
     public int getMessagesSent() {
-        return messagesSent;
+        return (int) values[StatCounters.MESSAGES_SENT];
     }
 
     public void setMessagesSent(int messagesSent) {
-        this.messagesSent = messagesSent;
+        values[StatCounters.MESSAGES_SENT] = messagesSent;
+    }
+
+    public int getChangedFields() {
+        return changedFields;
+    }
+
+    public void setChangedFields(int changedFields) {
+        this.changedFields = changedFields;
     }
 
     public void setPlayerName(String name) {
@@ -116,31 +139,27 @@ class PlayerStats {
         PlayerStats clone = new PlayerStats();
         clone.setUuid(this.uuid);
         clone.setPlayerName(this.playerName);
-        clone.setPlayTime(this.playTime);
-        clone.setMobsKilled(this.mobsKilled);
-        clone.setItemsEaten(this.itemsEaten);
-        clone.setDistanceTraveled(this.distanceTraveled);
-        clone.setBlocksBroken(this.blocksBroken);
-        clone.setDeaths(this.deaths);
-        clone.setItemsCrafted(this.itemsCrafted);
-        clone.setItemsUsed(this.itemsUsed);
-        clone.setChestsOpened(this.chestsOpened);
-        clone.setMessagesSent(this.messagesSent);
+        System.arraycopy(values, 0, clone.values, 0, values.length);
+        for (int i = 0; i < breakdowns.length; i++) {
+            clone.breakdowns[i] = breakdowns[i] != null ? breakdowns[i].copy() : null;
+        }
         return clone;
     }
 
     public void merge(PlayerStats other) {
         if (other == null) return;
-        this.playTime += other.playTime;
-        this.mobsKilled += other.mobsKilled;
-        this.itemsEaten += other.itemsEaten;
-        this.distanceTraveled += other.distanceTraveled;
-        this.blocksBroken += other.blocksBroken;
-        this.deaths += other.deaths;
-        this.itemsCrafted += other.itemsCrafted;
-        this.itemsUsed += other.itemsUsed;
-        this.chestsOpened += other.chestsOpened;
-        this.messagesSent += other.messagesSent;
+        for (int i = 0; i < values.length; i++) {
+            values[i] += other.values[i];
+        }
+        for (int i = 0; i < breakdowns.length; i++) {
+            if (other.breakdowns[i] == null) {
+                continue;
+            }
+            if (breakdowns[i] == null) {
+                breakdowns[i] = new StatBreakdown();
+            }
+            breakdowns[i].addAll(other.breakdowns[i]);
+        }
         // Player name and UUID should match or be handled separately
     }
 }
@@ -0,0 +1,81 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class AutosaveSchedulerTest {
+    @Test
+    void firstRoundWaitsForIntervalAndSpreadsPlayers() {
+        List<Integer> players = players(100);
+        List<Integer> submitted = new ArrayList<>();
+        AutosaveScheduler<Integer> autosave = new AutosaveScheduler<>(() -> players,
+                player -> true, submitted::add, () -> 20.0, () -> 0, 10, 1_000_000);
+
+        // Сохранения при запуске нет
+        for (int tick = 1; tick < 10; tick++) {
+            autosave.run();
+        }
+        assertTrue(submitted.isEmpty());
+
+        for (int tick = 0; tick < 10; tick++) {
+            int before = submitted.size();
+            autosave.run();
+            assertEquals(10, submitted.size() - before);
+        }
+        assertFalse(autosave.isRoundActive());
+        assertEquals(100, new HashSet<>(submitted).size());
+    }
+
+    @Test
+    void cleanPlayersDoNotUseQuota() {
+        List<Integer> players = players(100);
+        Set<Integer> dirty = Set.of(3, 50, 97);
+        List<Integer> submitted = new ArrayList<>();
+        AutosaveScheduler<Integer> autosave = new AutosaveScheduler<>(() -> players,
+                dirty::contains, submitted::add, () -> 20.0, () -> 0, 1, 1_000_000);
+
+        autosave.run();
+
+        assertEquals(List.of(3, 50, 97), submitted);
+        assertEquals(3, autosave.lastSubmitted());
+        assertEquals(100, autosave.lastScanned());
+    }
+
+    @Test
+    void lowTpsAndBudgetSlowTheRoundDown() {
+        List<Integer> players = players(100);
+        List<Integer> submitted = new ArrayList<>();
+        long[] clock = {0};
+        AutosaveScheduler<Integer> autosave = new AutosaveScheduler<>(() -> players,
+                player -> true, submitted::add, () -> 14.5, () -> clock[0] += 100, 1, 1_000_000);
+
+        autosave.run();
+        // Половина темпа при TPS 14.5
+        assertEquals(50, submitted.size());
+        assertTrue(autosave.isRoundActive());
+
+        // Бюджет в 250 нс пропускает двух игроков за тик
+        AutosaveScheduler<Integer> budgeted = new AutosaveScheduler<>(() -> players,
+                player -> true, player -> { }, () -> 20.0, () -> clock[0] += 100, 1, 250);
+        budgeted.run();
+        budgeted.run();
+        assertTrue(budgeted.isRoundActive());
+        assertEquals(0.1, AutosaveScheduler.pace(5.0));
+    }
+
+    private static List<Integer> players(int count) {
+        List<Integer> players = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            players.add(i);
+        }
+        return players;
+    }
+}
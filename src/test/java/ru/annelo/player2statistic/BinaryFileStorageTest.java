@@ -0,0 +1,57 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+class BinaryFileStorageTest {
+    @Test
+    void recordRoundTripPreservesStats() {
+        PlayerStats stats = new PlayerStats();
+        UUID uuid = UUID.randomUUID();
+        stats.setUuid(uuid);
+        stats.setPlayerName("PlayerOne");
+        stats.setPlayTime(42);
+        stats.setMobsKilled(3);
+        stats.setItemsEaten(5);
+        stats.setDistanceTraveled(12.5);
+        stats.setBlocksBroken(7);
+        stats.setDeaths(2);
+        stats.setItemsCrafted(4);
+        stats.setItemsUsed(6);
+        stats.setChestsOpened(8);
+        stats.setMessagesSent(9);
+
+        ByteBuffer buffer = ByteBuffer.allocate(BinaryFileStorage.RECORD_SIZE * 2);
+        BinaryFileStorage.encode(buffer, BinaryFileStorage.RECORD_SIZE, stats);
+        PlayerStats parsed = BinaryFileStorage.decode(buffer, BinaryFileStorage.RECORD_SIZE);
+
+        assertEquals(uuid, parsed.getUuid());
+        assertEquals("PlayerOne", parsed.getPlayerName());
+        assertEquals(42, parsed.getPlayTime());
+        assertEquals(3, parsed.getMobsKilled());
+        assertEquals(5, parsed.getItemsEaten());
+        assertEquals(12.5, parsed.getDistanceTraveled());
+        assertEquals(7, parsed.getBlocksBroken());
+        assertEquals(2, parsed.getDeaths());
+        assertEquals(4, parsed.getItemsCrafted());
+        assertEquals(6, parsed.getItemsUsed());
+        assertEquals(8, parsed.getChestsOpened());
+        assertEquals(9, parsed.getMessagesSent());
+    }
+
+    @Test
+    void missingNameStaysNull() {
+        PlayerStats stats = new PlayerStats();
+        stats.setUuid(UUID.randomUUID());
+
+        ByteBuffer buffer = ByteBuffer.allocate(BinaryFileStorage.RECORD_SIZE);
+        BinaryFileStorage.encode(buffer, 0, stats);
+
+        assertNull(BinaryFileStorage.decode(buffer, 0).getPlayerName());
+    }
+}
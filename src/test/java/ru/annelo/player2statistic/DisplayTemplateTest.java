@@ -0,0 +1,37 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class DisplayTemplateTest {
+    @Test
+    void rendersEveryStatAndLeavesUnknownPlaceholders() {
+        PlayerStats stats = new PlayerStats();
+        stats.setPlayerName("PlayerOne");
+        stats.setPlayTime(42);
+        stats.setItemsEaten(5);
+        stats.setDistanceTraveled(12.5);
+        stats.setDeaths(3);
+
+        DisplayTemplate template = DisplayTemplate.compile(
+                "{player_name}: {play_time} мин., еда {items_eaten}, путь {distance},"
+                        + " смерти {deaths} {unknown} {");
+
+        assertEquals("PlayerOne: 42 мин., еда 5, путь 12.50, смерти 3 {unknown} {",
+                template.render(stats));
+    }
+
+    @Test
+    void formatsDistanceWithTwoDecimals() {
+        StringBuilder out = new StringBuilder();
+        DisplayTemplate.appendValue(out, StatCounters.DISTANCE_TRAVELED, 3_007);
+        out.append(' ');
+        DisplayTemplate.appendValue(out, StatCounters.DISTANCE_TRAVELED, 999_996);
+        out.append(' ');
+        DisplayTemplate.appendValue(out, StatCounters.BLOCKS_BROKEN, 7);
+
+        assertEquals("3.01 1000.00 7", out.toString());
+        assertEquals("", DisplayTemplate.compile(null).render(new PlayerStats()));
+    }
+}
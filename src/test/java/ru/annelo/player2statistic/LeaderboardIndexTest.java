@@ -0,0 +1,55 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+class LeaderboardIndexTest {
+    @Test
+    void rankReturnsPositionAndNeighbours() {
+        LeaderboardIndex index = new LeaderboardIndex();
+        List<UUID> players = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            UUID uuid = UUID.randomUUID();
+            players.add(uuid);
+            index.update(stats(uuid, "Player" + i, i * 10));
+        }
+
+        // 70 блоков - четвёртое место из десяти
+        StatRank rank = index.rank(StatType.BLOCKS_BROKEN, players.get(6), 2);
+
+        assertEquals(4, rank.rank);
+        assertEquals(2, rank.firstRank);
+        assertEquals(5, rank.rows.size());
+        assertEquals("Player9", rank.rows.get(0).getPlayerName());
+        assertEquals(70, rank.rows.get(2).getBlocksBroken());
+        assertEquals("Player5", rank.rows.get(4).getPlayerName());
+
+        StatRank leader = index.rank(StatType.BLOCKS_BROKEN, players.get(9), 2);
+        assertEquals(1, leader.firstRank);
+        assertEquals(3, leader.rows.size());
+    }
+
+    @Test
+    void playersWithoutValueAreUnranked() {
+        LeaderboardIndex index = new LeaderboardIndex();
+        UUID uuid = UUID.randomUUID();
+        index.update(stats(uuid, "PlayerOne", 5));
+
+        assertSame(StatRank.UNRANKED, index.rank(StatType.DEATHS, uuid, 2));
+        assertSame(StatRank.UNRANKED, index.rank(StatType.BLOCKS_BROKEN, UUID.randomUUID(), 2));
+    }
+
+    private static PlayerStats stats(UUID uuid, String name, int blocksBroken) {
+        PlayerStats stats = new PlayerStats();
+        stats.setUuid(uuid);
+        stats.setPlayerName(name);
+        stats.setBlocksBroken(blocksBroken);
+        return stats;
+    }
+}
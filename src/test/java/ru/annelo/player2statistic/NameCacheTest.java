@@ -0,0 +1,96 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class NameCacheTest {
+    @Test
+    void savedNamesSurviveRestartWithoutOverwritingNewerOnes() throws IOException {
+        Path dir = Files.createTempDirectory("names");
+        Path file = dir.resolve("names.txt");
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        try {
+            NameCache cache = new NameCache(file);
+            assertTrue(cache.load());
+            cache.put(first, "OldName");
+            cache.put(second, "Игрок");
+            assertTrue(cache.save());
+
+            NameCache restarted = new NameCache(file);
+            // Вход до окончания загрузки: ник новее файла
+            restarted.put(first, "NewName");
+            assertTrue(restarted.load());
+
+            assertEquals("NewName", restarted.get(first));
+            assertEquals("Игрок", restarted.get(second));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void fillPrefersIndexThenRowThenFallback() {
+        NameCache cache = new NameCache(null);
+        UUID known = UUID.randomUUID();
+        UUID stored = UUID.randomUUID();
+        UUID missing = UUID.randomUUID();
+        cache.put(known, "Renamed");
+        PlayerStats knownRow = row(known, "OldName");
+        PlayerStats storedRow = row(stored, "Stored");
+        PlayerStats missingRow = row(missing, null);
+        AtomicInteger lookups = new AtomicInteger();
+
+        cache.fill(List.of(knownRow, storedRow, missingRow), uuid -> {
+            lookups.incrementAndGet();
+            return "Looked";
+        });
+        cache.fill(List.of(row(missing, null)), uuid -> {
+            lookups.incrementAndGet();
+            return "Again";
+        });
+
+        assertEquals("Renamed", knownRow.getPlayerName());
+        assertEquals("Stored", storedRow.getPlayerName());
+        assertEquals("Looked", missingRow.getPlayerName());
+        assertEquals("Looked", cache.get(missing));
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    void findsPlayersByNameIgnoringCaseAndFollowsRenames() {
+        NameCache cache = new NameCache(null);
+        UUID uuid = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        cache.put(uuid, "Steve");
+        cache.putIfAbsent(other, "Alex");
+
+        assertEquals(uuid, cache.find("sTeVe"));
+        assertEquals(other, cache.find("ALEX"));
+
+        cache.put(uuid, "Steve2");
+        assertNull(cache.find("steve"));
+        assertEquals(uuid, cache.find("steve2"));
+        // Ник из хранилища не отбирает ник у игрока, заходившего под ним
+        cache.putIfAbsent(UUID.randomUUID(), "steve2");
+        assertEquals(uuid, cache.find("Steve2"));
+    }
+
+    private static PlayerStats row(UUID uuid, String name) {
+        PlayerStats stats = new PlayerStats();
+        stats.setUuid(uuid);
+        stats.setPlayerName(name);
+        return stats;
+    }
+}
@@ -0,0 +1,83 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class PersistenceExecutorTest {
+    @Test
+    void queuedTaskWithSameKeyRunsOnce() throws InterruptedException {
+        PersistenceExecutor io = new PersistenceExecutor(1, 10,
+                PersistenceExecutor.OverflowPolicy.DEFER, false);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+
+        io.submit("block", () -> await(release), null);
+        io.submit("flush", runs::incrementAndGet, null);
+        io.submit("flush", runs::incrementAndGet, null);
+        io.submit("done", done::countDown, null);
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        io.close();
+    }
+
+    @Test
+    void overflowingTaskIsHandedBackForRetry() throws InterruptedException {
+        PersistenceExecutor io = new PersistenceExecutor(1, 1,
+                PersistenceExecutor.OverflowPolicy.DEFER, false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger deferred = new AtomicInteger();
+
+        io.submit("block", () -> {
+            started.countDown();
+            await(release);
+        }, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        io.submit("queued", () -> { }, deferred::incrementAndGet);
+        io.submit("overflow", () -> { }, deferred::incrementAndGet);
+
+        assertEquals(1, deferred.get());
+        release.countDown();
+        io.close();
+    }
+
+    @Test
+    void callerRunsDefersOnMainThread() throws InterruptedException {
+        PersistenceExecutor io = new PersistenceExecutor(1, 1,
+                PersistenceExecutor.OverflowPolicy.CALLER_RUNS, false, () -> true);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ranInline = new AtomicInteger();
+        AtomicInteger deferred = new AtomicInteger();
+
+        io.submit("block", () -> {
+            started.countDown();
+            await(release);
+        }, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        io.submit("queued", () -> { }, null);
+        io.submit("overflow", ranInline::incrementAndGet, deferred::incrementAndGet);
+
+        assertEquals(0, ranInline.get());
+        assertEquals(1, deferred.get());
+        release.countDown();
+        io.close();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
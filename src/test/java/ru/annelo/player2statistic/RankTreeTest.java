@@ -0,0 +1,57 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+class RankTreeTest {
+    private static final Comparator<RankTree.Entry> ORDER =
+            Comparator.comparingLong(RankTree.Entry::value).reversed()
+                    .thenComparing(RankTree.Entry::uuid);
+
+    @Test
+    void topAndRankMatchSortedOrder() {
+        RankTree tree = new RankTree();
+        List<RankTree.Entry> expected = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            RankTree.Entry entry = new RankTree.Entry(UUID.randomUUID(), random.nextInt(50));
+            tree.insert(entry.value(), entry.uuid());
+            expected.add(entry);
+        }
+        expected.sort(ORDER);
+
+        assertEquals(1000, tree.size());
+        assertEquals(expected.subList(0, 10), tree.top(10));
+        for (int i = 0; i < expected.size(); i += 37) {
+            RankTree.Entry entry = expected.get(i);
+            assertEquals(i + 1, tree.rank(entry.value(), entry.uuid()));
+            assertEquals(entry, tree.get(i + 1));
+        }
+        assertNull(tree.get(1001));
+    }
+
+    @Test
+    void removeTakesOutOnlyTheGivenKey() {
+        RankTree tree = new RankTree();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        tree.insert(10, first);
+        tree.insert(10, second);
+        tree.insert(5, first);
+
+        tree.remove(10, first);
+
+        assertEquals(2, tree.size());
+        assertEquals(0, tree.rank(10, first));
+        assertEquals(1, tree.rank(10, second));
+        assertEquals(2, tree.rank(5, first));
+    }
+}
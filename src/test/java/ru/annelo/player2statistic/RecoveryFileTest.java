@@ -0,0 +1,138 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.Material;
+import org.junit.jupiter.api.Test;
+
+class RecoveryFileTest {
+    @Test
+    void chunksSurviveRoundTrip() throws IOException {
+        Path dir = Files.createTempDirectory("recovery");
+        RecoveryFile recovery = new RecoveryFile(dir.resolve("recovery.json"));
+        try {
+            PlayerStats snapshot = stats("PlayerOne", 12);
+            snapshot.setDistanceTraveled(3.5);
+            StatBreakdown blocks = new StatBreakdown();
+            blocks.add(Material.STONE.ordinal(), 12);
+            snapshot.setBreakdown(BreakdownType.BLOCKS_BROKEN, blocks);
+            PlayerStats delta = stats("PlayerTwo", 4);
+
+            recovery.write(List.of(
+                    new RecoveryFile.Chunk(RecoveryFile.Kind.SNAPSHOTS, 0, List.of(snapshot)),
+                    new RecoveryFile.Chunk(RecoveryFile.Kind.DELTAS, 42, List.of(delta))));
+            List<RecoveryFile.Chunk> read = new RecoveryFile(dir.resolve("recovery.json")).read();
+
+            assertEquals(2, read.size());
+            assertEquals(RecoveryFile.Kind.SNAPSHOTS, read.get(0).kind);
+            PlayerStats restored = read.get(0).stats.get(0);
+            assertEquals(snapshot.getUuid(), restored.getUuid());
+            assertEquals(12, restored.getBlocksBroken());
+            assertEquals(3.5, restored.getDistanceTraveled(), 1e-9);
+            assertEquals(12, restored.getBreakdown(BreakdownType.BLOCKS_BROKEN)
+                    .get(Material.STONE.ordinal()));
+            assertEquals(RecoveryFile.Kind.DELTAS, read.get(1).kind);
+            assertEquals(42, read.get(1).sequence);
+            assertEquals(4, read.get(1).stats.get(0).getBlocksBroken());
+
+            recovery.delete();
+            assertFalse(recovery.exists());
+        } finally {
+            recovery.delete();
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void shutdownFlushSpillsWhatMissedTheDeadline() throws InterruptedException {
+        MemoryStorage storage = new MemoryStorage();
+        StatCounters counters = new StatCounters();
+        WriteBehindWriter writer = new WriteBehindWriter(counters, () -> storage, 1,
+                (snapshot, delta) -> { });
+        StatCounters.Slot saved = slot(counters, writer, "Saved", true);
+        writer.flush();
+        saved.add(StatCounters.BLOCKS_BROKEN, 1);
+        writer.submit(saved);
+        StatCounters.Slot unloaded = slot(counters, writer, "Unloaded", false);
+
+        // Срок уже прошёл: ни одна пачка не начинается
+        List<RecoveryFile.Chunk> spilled = writer.flushBefore(System.nanoTime() - 1);
+
+        assertEquals(1, storage.players.size());
+        assertEquals(2, spilled.size());
+        assertEquals(RecoveryFile.Kind.SNAPSHOTS, spilled.get(0).kind);
+        assertEquals(6, spilled.get(0).stats.get(0).getBlocksBroken());
+        assertEquals(RecoveryFile.Kind.DELTAS, spilled.get(1).kind);
+        assertEquals(unloaded.uuid, spilled.get(1).stats.get(0).getUuid());
+        assertEquals(0, writer.pendingCount());
+
+        // С запасом времени всё записывается и в файл ничего не уходит
+        StatCounters.Slot late = slot(counters, writer, "Late", true);
+        assertTrue(writer.flushBefore(System.nanoTime() + 10_000_000_000L).isEmpty());
+        assertEquals(5, storage.players.get(late.uuid).getBlocksBroken());
+    }
+
+    private static StatCounters.Slot slot(StatCounters counters, WriteBehindWriter writer,
+            String name, boolean loaded) {
+        StatCounters.Slot slot = counters.acquire(UUID.randomUUID(), name);
+        slot.add(StatCounters.BLOCKS_BROKEN, 5);
+        slot.loaded = loaded;
+        writer.submit(slot);
+        return slot;
+    }
+
+    private static PlayerStats stats(String name, int blocksBroken) {
+        PlayerStats stats = new PlayerStats();
+        stats.setUuid(UUID.randomUUID());
+        stats.setPlayerName(name);
+        stats.setBlocksBroken(blocksBroken);
+        return stats;
+    }
+
+    private static final class MemoryStorage implements IStorage {
+        private final Map<UUID, PlayerStats> players = new ConcurrentHashMap<>();
+
+        @Override
+        public void savePlayerStats(PlayerStats stats) {
+            players.put(stats.getUuid(), stats);
+        }
+
+        @Override
+        public PlayerStats loadPlayerStats(UUID uuid) {
+            return players.get(uuid);
+        }
+
+        @Override
+        public List<PlayerStats> loadAllPlayers() {
+            return new ArrayList<>(players.values());
+        }
+
+        @Override
+        public void saveAllPlayers() {
+        }
+
+        @Override
+        public void reloadStorage() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public List<PlayerStats> getTopStats(StatType statType, int limit) {
+            return IStorage.selectTop(loadAllPlayers(), statType, limit);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Material;
+import org.junit.jupiter.api.Test;
+
+class StatBreakdownTest {
+    @Test
+    void growsPastInitialCapacityWithoutLosingKeys() {
+        StatBreakdown breakdown = new StatBreakdown();
+        for (int key = 0; key < 1000; key++) {
+            breakdown.add(key, key + 1);
+        }
+        breakdown.add(500, 10);
+
+        assertEquals(1000, breakdown.size());
+        assertEquals(1, breakdown.get(0));
+        assertEquals(511, breakdown.get(500));
+        assertEquals(0, breakdown.get(5000));
+    }
+
+    @Test
+    void liveBreakdownKeepsConcurrentAdds() throws InterruptedException {
+        LiveBreakdown live = new LiveBreakdown(1000);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    live.add(i % 1000, 1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        StatBreakdown copy = live.snapshot(new StatBreakdown());
+        assertEquals(1000, copy.size());
+        assertEquals(40, copy.get(999));
+    }
+
+    @Test
+    void slotWritesOnlyChangedBreakdownEntries() {
+        StatCounters counters = new StatCounters();
+        StatCounters.Slot slot = counters.acquire(UUID.randomUUID(), "PlayerOne");
+        PlayerStats stored = new PlayerStats();
+        StatBreakdown blocks = new StatBreakdown();
+        blocks.add(Material.STONE.ordinal(), 5);
+        blocks.add(Material.CHEST.ordinal(), 2);
+        stored.setBreakdown(BreakdownType.BLOCKS_BROKEN, blocks);
+        slot.load(stored);
+
+        slot.addBreakdown(BreakdownType.BLOCKS_BROKEN, Material.STONE.ordinal());
+        slot.add(StatCounters.BLOCKS_BROKEN, 1);
+        PlayerStats snapshot = slot.snapshot();
+
+        Map<Integer, Long> changed = new HashMap<>();
+        snapshot.getBreakdown(BreakdownType.BLOCKS_BROKEN).forEachChanged(changed::put);
+        assertEquals(Map.of(Material.STONE.ordinal(), 6L), changed);
+
+        PlayerStats delta = slot.delta(snapshot);
+        assertEquals(1, delta.getBreakdown(BreakdownType.BLOCKS_BROKEN).get(Material.STONE.ordinal()));
+        assertEquals(1, delta.getBreakdown(BreakdownType.BLOCKS_BROKEN).size());
+
+        slot.markPersisted(snapshot);
+        assertNull(slot.delta(slot.snapshot()).getBreakdown(BreakdownType.BLOCKS_BROKEN));
+    }
+}
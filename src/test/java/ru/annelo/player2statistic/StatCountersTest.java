@@ -0,0 +1,166 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+class StatCountersTest {
+    @Test
+    void concurrentIncrementsAreNotLost() throws InterruptedException {
+        StatCounters counters = new StatCounters();
+        StatCounters.Slot slot = counters.acquire(UUID.randomUUID(), "PlayerOne");
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    slot.add(StatCounters.MESSAGES_SENT, 1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40_000, slot.snapshot().getMessagesSent());
+    }
+
+    @Test
+    void loadAddsStoredValuesOnTopOfLiveCounters() {
+        StatCounters counters = new StatCounters();
+        UUID uuid = UUID.randomUUID();
+        StatCounters.Slot slot = counters.acquire(uuid, "PlayerOne");
+        slot.add(StatCounters.BLOCKS_BROKEN, 2);
+        slot.addDistance(1.25);
+
+        PlayerStats stored = new PlayerStats();
+        stored.setUuid(uuid);
+        stored.setBlocksBroken(5);
+        stored.setDistanceTraveled(12.5);
+        slot.load(stored);
+
+        PlayerStats snapshot = slot.snapshot();
+        assertEquals(uuid, snapshot.getUuid());
+        assertEquals("PlayerOne", snapshot.getPlayerName());
+        assertEquals(7, snapshot.getBlocksBroken());
+        assertEquals(13.75, snapshot.getDistanceTraveled());
+    }
+
+    @Test
+    void releasedSlotIsReusedClean() {
+        StatCounters counters = new StatCounters();
+        StatCounters.Slot first = counters.acquire(UUID.randomUUID(), "PlayerOne");
+        first.add(StatCounters.MOBS_KILLED, 3);
+        counters.release(first);
+
+        StatCounters.Slot second = counters.acquire(UUID.randomUUID(), "PlayerTwo");
+
+        assertEquals(first.index, second.index);
+        assertEquals(0, second.snapshot().getMobsKilled());
+    }
+
+    @Test
+    void lateAddDoesNotReachNextOwner() {
+        StatCounters counters = new StatCounters();
+        StatCounters.Slot departed = counters.acquire(UUID.randomUUID(), "PlayerOne");
+        counters.release(departed);
+        departed.add(StatCounters.DEATHS, 1);
+
+        StatCounters.Slot next = counters.acquire(UUID.randomUUID(), "PlayerTwo");
+
+        assertEquals(departed.index, next.index);
+        assertEquals(0, next.snapshot().getDeaths());
+    }
+
+    @Test
+    void addsRacingWithReleaseNeverReachNextOwner() throws InterruptedException {
+        StatCounters counters = new StatCounters();
+        for (int round = 0; round < 500; round++) {
+            StatCounters.Slot departed = counters.acquire(UUID.randomUUID(), "PlayerOne");
+            CountDownLatch started = new CountDownLatch(4);
+            List<Thread> late = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Thread thread = new Thread(() -> {
+                    started.countDown();
+                    while (!departed.released) {
+                        departed.add(StatCounters.DEATHS, 1);
+                    }
+                });
+                late.add(thread);
+                thread.start();
+            }
+            started.await();
+            counters.release(departed);
+            StatCounters.Slot next = counters.acquire(UUID.randomUUID(), "PlayerTwo");
+            for (Thread thread : late) {
+                thread.join();
+            }
+
+            assertEquals(departed.index, next.index);
+            assertEquals(0, next.snapshot().getDeaths());
+            counters.release(next);
+        }
+    }
+
+    @Test
+    void secondReleaseDoesNotShareRow() {
+        StatCounters counters = new StatCounters();
+        StatCounters.Slot departed = counters.acquire(UUID.randomUUID(), "PlayerOne");
+        counters.release(departed);
+        counters.release(departed);
+
+        StatCounters.Slot first = counters.acquire(UUID.randomUUID(), "PlayerTwo");
+        StatCounters.Slot second = counters.acquire(UUID.randomUUID(), "PlayerThree");
+
+        assertTrue(departed.released);
+        assertTrue(first.index != second.index);
+    }
+
+    @Test
+    void valuesLeaveBreakdownsOut() {
+        StatCounters counters = new StatCounters();
+        StatCounters.Slot slot = counters.acquire(UUID.randomUUID(), "PlayerOne");
+        slot.addBreakdown(BreakdownType.BLOCKS_BROKEN, 1);
+        slot.add(StatCounters.BLOCKS_BROKEN, 1);
+
+        PlayerStats values = slot.values();
+
+        assertEquals(1, values.getBlocksBroken());
+        assertEquals("PlayerOne", values.getPlayerName());
+        assertNull(values.getBreakdown(BreakdownType.BLOCKS_BROKEN));
+    }
+
+    @Test
+    void onlyFieldsChangedSinceLastWriteAreDirty() {
+        StatCounters counters = new StatCounters();
+        UUID uuid = UUID.randomUUID();
+        StatCounters.Slot slot = counters.acquire(uuid, "PlayerOne");
+
+        PlayerStats stored = new PlayerStats();
+        stored.setUuid(uuid);
+        stored.setMobsKilled(4);
+        slot.load(stored);
+        assertFalse(slot.isDirty());
+
+        slot.add(StatCounters.CHESTS_OPENED, 1);
+        PlayerStats snapshot = slot.snapshot();
+        assertEquals(1 << StatCounters.CHESTS_OPENED, snapshot.getChangedFields());
+
+        slot.markPersisted(snapshot);
+        assertFalse(slot.isDirty());
+        assertEquals(0, slot.snapshot().getChangedFields());
+
+        slot.addDistance(0.5);
+        assertTrue(slot.isDirty());
+    }
+}
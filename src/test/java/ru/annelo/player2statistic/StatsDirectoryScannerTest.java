@@ -0,0 +1,118 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+class StatsDirectoryScannerTest {
+    @Test
+    void parallelTopMatchesFullSort() throws Exception {
+        Path dir = Files.createTempDirectory("stats-scan");
+        try (StatsDirectoryScanner scanner = new StatsDirectoryScanner(4)) {
+            List<PlayerStats> all = writePlayers(dir, 1000);
+            Files.writeString(dir.resolve("not-a-uuid.json"), "{}");
+
+            TopHeaps top = scanner.scan(dir, "*.json", StatsDirectoryScannerTest::read,
+                    () -> new TopHeaps(EnumSet.of(StatType.BLOCKS_BROKEN, StatType.MOBS_KILLED), 10),
+                    TopHeaps::add, TopHeaps::merge);
+
+            for (StatType type : List.of(StatType.BLOCKS_BROKEN, StatType.MOBS_KILLED)) {
+                List<PlayerStats> expected = IStorage.selectTop(all, type, 10);
+                List<PlayerStats> actual = top.top(type);
+                assertEquals(10, actual.size());
+                for (int i = 0; i < 10; i++) {
+                    assertEquals(type.get(expected.get(i)), type.get(actual.get(i)));
+                }
+            }
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    void heapsTolerateOutOfRangeLimits() {
+        PlayerStats stats = new PlayerStats();
+        stats.setUuid(UUID.randomUUID());
+        stats.setBlocksBroken(5);
+        for (int limit : new int[] {0, -1}) {
+            TopHeaps top = new TopHeaps(EnumSet.of(StatType.BLOCKS_BROKEN), limit);
+            top.add(stats);
+            assertEquals(0, top.top(StatType.BLOCKS_BROKEN).size());
+        }
+        TopHeaps huge = new TopHeaps(EnumSet.of(StatType.BLOCKS_BROKEN), Integer.MAX_VALUE);
+        huge.add(stats);
+        assertEquals(1, huge.top(StatType.BLOCKS_BROKEN).size());
+    }
+
+    @Test
+    void scanVisitsEveryFileOnce() throws Exception {
+        Path dir = Files.createTempDirectory("stats-scan");
+        try (StatsDirectoryScanner scanner = new StatsDirectoryScanner(3)) {
+            writePlayers(dir, 700);
+
+            List<PlayerStats> loaded = scanner.scan(dir, "*.json", StatsDirectoryScannerTest::read,
+                    ArrayList::new, List::add, (left, right) -> {
+                        left.addAll(right);
+                        return left;
+                    });
+
+            assertEquals(700, loaded.size());
+            assertEquals(700, loaded.stream().map(PlayerStats::getUuid).distinct().count());
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    private static List<PlayerStats> writePlayers(Path dir, int count) throws IOException {
+        Random random = new Random(7);
+        List<PlayerStats> players = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            PlayerStats stats = new PlayerStats();
+            stats.setUuid(UUID.randomUUID());
+            stats.setBlocksBroken(random.nextInt(100_000));
+            stats.setMobsKilled(random.nextInt(100));
+            players.add(stats);
+            try (FileChannel channel = FileChannel.open(dir.resolve(stats.getUuid() + ".json"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.write(StatsJsonCodec.encode(stats));
+            }
+        }
+        return players;
+    }
+
+    private static PlayerStats read(Path file) {
+        String name = file.getFileName().toString();
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(name.substring(0, name.length() - 5));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return StatsJsonCodec.decode(channel, uuid);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void deleteAll(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,105 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import org.bukkit.Material;
+import org.junit.jupiter.api.Test;
+
+class StatsJournalTest {
+    @Test
+    void appendedStatsSurviveReopen() throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        UUID uuid = UUID.randomUUID();
+
+        StatsJournal journal = new StatsJournal(dir);
+        journal.append(List.of(stats(uuid, 1), stats(UUID.randomUUID(), 5)));
+        journal.append(List.of(stats(uuid, 2)));
+        journal.close();
+
+        StatsJournal reopened = new StatsJournal(dir);
+        assertEquals(2, reopened.get(uuid).getBlocksBroken());
+        assertEquals(2, reopened.all().size());
+        reopened.close();
+    }
+
+    @Test
+    void compactHandsLatestValuesToWriterAndEmptiesJournal() throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        UUID uuid = UUID.randomUUID();
+
+        StatsJournal journal = new StatsJournal(dir);
+        journal.append(List.of(stats(uuid, 1)));
+        journal.append(List.of(stats(uuid, 3)));
+        List<PlayerStats> written = new ArrayList<>();
+        journal.compact(written::add, dir.toPath());
+        journal.close();
+
+        assertEquals(1, written.size());
+        assertEquals(3, written.get(0).getBlocksBroken());
+        StatsJournal reopened = new StatsJournal(dir);
+        assertNull(reopened.get(uuid));
+        assertTrue(reopened.all().isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    void breakdownsSurviveReopen() throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        UUID uuid = UUID.randomUUID();
+        PlayerStats stats = stats(uuid, 7);
+        StatBreakdown blocks = new StatBreakdown();
+        blocks.add(Material.STONE.ordinal(), 7);
+        stats.setBreakdown(BreakdownType.BLOCKS_BROKEN, blocks);
+
+        StatsJournal journal = new StatsJournal(dir);
+        journal.append(List.of(stats));
+        journal.close();
+
+        StatsJournal reopened = new StatsJournal(dir);
+        assertEquals(7, reopened.get(uuid).getBreakdown(BreakdownType.BLOCKS_BROKEN)
+                .get(Material.STONE.ordinal()));
+        assertNull(reopened.get(uuid).getBreakdown(BreakdownType.MOBS_KILLED));
+        reopened.close();
+    }
+
+    @Test
+    void legacyJournalIsReadAndRewritten() throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        UUID uuid = UUID.randomUUID();
+        // Запись первой версии: CRC32 и запись BinaryFileStorage, без заголовка файла
+        ByteBuffer entry = ByteBuffer.allocate(4 + BinaryFileStorage.RECORD_SIZE);
+        BinaryFileStorage.encode(entry, 4, stats(uuid, 9));
+        CRC32 crc = new CRC32();
+        crc.update(entry.slice(4, BinaryFileStorage.RECORD_SIZE));
+        entry.putInt(0, (int) crc.getValue());
+        Files.write(new File(dir, "journal.log").toPath(), entry.array());
+
+        StatsJournal journal = new StatsJournal(dir);
+        journal.append(List.of(stats(UUID.randomUUID(), 1)));
+        journal.close();
+
+        StatsJournal reopened = new StatsJournal(dir);
+        assertEquals(9, reopened.get(uuid).getBlocksBroken());
+        assertEquals(2, reopened.all().size());
+        reopened.close();
+    }
+
+    private static PlayerStats stats(UUID uuid, int blocksBroken) {
+        PlayerStats stats = new PlayerStats();
+        stats.setUuid(uuid);
+        stats.setPlayerName("PlayerOne");
+        stats.setBlocksBroken(blocksBroken);
+        return stats;
+    }
+}
@@ -2,10 +2,21 @@ package ru.annelo.player2statistic;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.UUID;
 
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import org.bukkit.entity.EntityType;
 import org.junit.jupiter.api.Test;
 
 class StatsJsonCodecTest {
@@ -68,4 +79,78 @@ class StatsJsonCodecTest {
         assertNotNull(json.get("uuid"));
         assertEquals(uuid.toString(), json.get("uuid").getAsString());
     }
+
+    @Test
+    void streamingRoundTripThroughFile() throws IOException {
+        PlayerStats stats = new PlayerStats();
+        UUID uuid = UUID.randomUUID();
+        stats.setUuid(uuid);
+        stats.setPlayerName("Игрок");
+        stats.setBlocksBroken(7);
+        stats.setDistanceTraveled(12.5);
+        stats.setMessagesSent(9);
+
+        Path file = Files.createTempFile("stats", ".json");
+        try {
+            ByteBuffer encoded = StatsJsonCodec.encode(stats);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(encoded);
+            }
+            // Файл читается и старым путём через дерево
+            JsonObject tree = JsonParser.parseString(Files.readString(file)).getAsJsonObject();
+            assertEquals(7, StatsJsonCodec.fromJson(tree, uuid).getBlocksBroken());
+
+            PlayerStats parsed;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                parsed = StatsJsonCodec.decode(channel, UUID.randomUUID());
+            }
+            assertEquals(uuid, parsed.getUuid());
+            assertEquals("Игрок", parsed.getPlayerName());
+            assertEquals(7, parsed.getBlocksBroken());
+            assertEquals(12.5, parsed.getDistanceTraveled());
+            assertEquals(9, parsed.getMessagesSent());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void streamingReadKeepsLegacyFallbacks() throws IOException {
+        UUID fallback = UUID.randomUUID();
+        String legacy = "{\"player_name\": \"FallbackPlayer\", \"playTime\": \"10\","
+                + " \"extra\": {\"nested\": [1, 2]}, \"deaths\": null}";
+
+        PlayerStats parsed = StatsJsonCodec.read(new JsonReader(new StringReader(legacy)), fallback);
+
+        assertEquals(fallback, parsed.getUuid());
+        assertEquals("FallbackPlayer", parsed.getPlayerName());
+        assertEquals(10, parsed.getPlayTime());
+        assertEquals(0, parsed.getDeaths());
+    }
+
+    @Test
+    void breakdownsRoundTripByConstantName() throws IOException {
+        PlayerStats stats = new PlayerStats();
+        UUID uuid = UUID.randomUUID();
+        stats.setUuid(uuid);
+        stats.setPlayerName("PlayerOne");
+        StatBreakdown kills = new StatBreakdown();
+        kills.add(EntityType.ZOMBIE.ordinal(), 3);
+        stats.setBreakdown(BreakdownType.MOBS_KILLED, kills);
+
+        JsonObject tree = StatsJsonCodec.toJson(stats);
+        assertEquals(3, tree.getAsJsonObject("breakdowns").getAsJsonObject("kills")
+                .get("ZOMBIE").getAsLong());
+        assertEquals(3, StatsJsonCodec.fromJson(tree, uuid)
+                .getBreakdown(BreakdownType.MOBS_KILLED).get(EntityType.ZOMBIE.ordinal()));
+
+        // Неизвестные имена (например, моб из более новой версии) пропускаются
+        String json = "{\"breakdowns\": {\"kills\": {\"ZOMBIE\": 3, \"NEW_MOB\": 1},"
+                + " \"unknown\": {\"A\": 1}}}";
+        PlayerStats parsed = StatsJsonCodec.read(new JsonReader(new StringReader(json)), uuid);
+        StatBreakdown parsedKills = parsed.getBreakdown(BreakdownType.MOBS_KILLED);
+        assertEquals(1, parsedKills.size());
+        assertEquals(3, parsedKills.get(EntityType.ZOMBIE.ordinal()));
+        assertNull(parsed.getBreakdown(BreakdownType.BLOCKS_BROKEN));
+    }
 }
@@ -0,0 +1,175 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.Material;
+import org.junit.jupiter.api.Test;
+
+class StatsManagerTest {
+    @Test
+    void rejoinRevivesDepartedSlot() {
+        StatsManager statsManager = new StatsManager(null, null, 200, 10, 60_000, null,
+                new StatsMetrics());
+        UUID uuid = UUID.randomUUID();
+        statsManager.createEmptyStats(uuid, "PlayerOne");
+        statsManager.incrementBlocksBroken(uuid, Material.STONE);
+        statsManager.unloadStats(uuid);
+
+        assertEquals(1, statsManager.getDepartedStats("playerone").getBlocksBroken());
+
+        statsManager.createEmptyStats(uuid, "PlayerOne");
+        statsManager.incrementBlocksBroken(uuid, Material.STONE);
+
+        assertEquals(2, statsManager.getStats(uuid).getBlocksBroken());
+        assertNull(statsManager.getDepartedStats("PlayerOne"));
+    }
+
+    @Test
+    void frequentVisitorOutlivesOneTimeVisitors() {
+        StatsManager statsManager = new StatsManager(null, null, 200, 2, 60_000, null,
+                new StatsMetrics());
+        UUID regular = UUID.randomUUID();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        // regular заходит второй раз, остальные по одному
+        statsManager.createEmptyStats(regular, "Regular");
+        statsManager.unloadStats(regular);
+        statsManager.createEmptyStats(regular, "Regular");
+        statsManager.createEmptyStats(first, "First");
+        statsManager.unloadStats(first);
+        statsManager.createEmptyStats(second, "Second");
+        statsManager.unloadStats(second);
+        statsManager.unloadStats(regular);
+
+        assertNotNull(statsManager.getStats(regular));
+        assertNull(statsManager.getStats(first));
+        assertNotNull(statsManager.getStats(second));
+    }
+
+    @Test
+    void loadWaitsForUnwrittenEvictedSlot() throws InterruptedException {
+        MapStorage storage = new MapStorage();
+        storage.failSaves = true;
+        PersistenceExecutor io = new PersistenceExecutor(1, 10,
+                PersistenceExecutor.OverflowPolicy.DEFER, false, () -> false);
+        StatsManager statsManager = new StatsManager(null, storage, 200, 0, 60_000, io,
+                new StatsMetrics());
+        UUID uuid = UUID.randomUUID();
+        statsManager.createEmptyStats(uuid, "PlayerOne");
+        statsManager.loadStats(uuid);
+        drain(io);
+        statsManager.incrementBlocksBroken(uuid, Material.STONE);
+        // Без кэша вышедших слот сразу вытесняется, а его запись не проходит
+        statsManager.unloadStats(uuid);
+
+        statsManager.createEmptyStats(uuid, "PlayerOne");
+        statsManager.loadStats(uuid);
+        drain(io);
+        io.close();
+
+        assertEquals(1, storage.loads.get());
+    }
+
+    @Test
+    void switchCopiesPlayersWrittenDuringMigration() throws InterruptedException {
+        MapStorage source = new MapStorage();
+        MapStorage target = new MapStorage();
+        PersistenceExecutor io = new PersistenceExecutor(1, 10,
+                PersistenceExecutor.OverflowPolicy.DEFER, false, () -> false);
+        StatsManager statsManager = new StatsManager(null, source, 200, 10, 60_000, io,
+                new StatsMetrics());
+        UUID uuid = UUID.randomUUID();
+        statsManager.createEmptyStats(uuid, "PlayerOne");
+        statsManager.loadStats(uuid);
+        drain(io);
+
+        statsManager.beginMigration();
+        // Строка уже перенесена, а игрок продолжает играть на старом хранилище
+        target.savePlayerStats(source.loadPlayerStats(uuid));
+        statsManager.incrementBlocksBroken(uuid, Material.STONE);
+        statsManager.saveAllCachedSync(System.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+
+        assertTrue(statsManager.switchStorage(source, target));
+        assertEquals(1, target.players.get(uuid).getBlocksBroken());
+
+        statsManager.incrementBlocksBroken(uuid, Material.STONE);
+        statsManager.saveAllCachedSync(System.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+        io.close();
+
+        assertEquals(2, target.players.get(uuid).getBlocksBroken());
+        assertEquals(1, source.players.get(uuid).getBlocksBroken());
+    }
+
+    // Один поток: задача после drain выполняется, когда предыдущие закончены
+    private static void drain(PersistenceExecutor io) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        io.submit(new Object(), done::countDown, null);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static final class MapStorage implements IStorage {
+        private final Map<UUID, PlayerStats> players = new ConcurrentHashMap<>();
+        private final AtomicInteger loads = new AtomicInteger();
+        private volatile boolean failSaves;
+
+        @Override
+        public void savePlayerStats(PlayerStats stats) {
+            players.put(stats.getUuid(), stats.clone());
+        }
+
+        @Override
+        public boolean savePlayerStatsBatch(List<PlayerStats> batch) {
+            if (failSaves) {
+                return false;
+            }
+            return IStorage.super.savePlayerStatsBatch(batch);
+        }
+
+        @Override
+        public PlayerStats loadPlayerStats(UUID uuid) {
+            loads.incrementAndGet();
+            PlayerStats stats = players.get(uuid);
+            if (stats != null) {
+                return stats.clone();
+            }
+            stats = new PlayerStats();
+            stats.setUuid(uuid);
+            return stats;
+        }
+
+        @Override
+        public List<PlayerStats> loadAllPlayers() {
+            return new ArrayList<>(players.values());
+        }
+
+        @Override
+        public void saveAllPlayers() {
+        }
+
+        @Override
+        public void reloadStorage() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public List<PlayerStats> getTopStats(StatType statType, int limit) {
+            return IStorage.selectTop(loadAllPlayers(), statType, limit);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class StatsMetricsTest {
+    @Test
+    void histogramTracksCountAndPercentiles() {
+        StatsMetrics metrics = new StatsMetrics();
+        StatsMetrics.Histogram histogram = metrics.histogram("stats_test_seconds", "Test", "handler", "a");
+        assertSame(histogram, metrics.histogram("stats_test_seconds", "Test", "handler", "a"));
+
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1_000);
+        }
+        histogram.record(1_000_000);
+
+        assertEquals(100, histogram.count());
+        assertEquals(1_000_000, histogram.max());
+        // 1000 нс попадает в корзину [512, 1024)
+        assertEquals(1_023, histogram.percentile(0.5));
+        assertEquals(1_023, histogram.percentile(0.99));
+        assertEquals(1_000_000, histogram.percentile(1.0));
+    }
+
+    @Test
+    void prometheusOutputHasCumulativeBuckets() {
+        StatsMetrics metrics = new StatsMetrics();
+        StatsMetrics.Histogram histogram = metrics.histogram("stats_test_seconds", "Test", "handler", "a");
+        histogram.record(500);
+        histogram.record(2_000_000_000L);
+        metrics.gauge("stats_test_queue", "Queue", () -> 7);
+
+        StringBuilder out = new StringBuilder();
+        metrics.writePrometheus(out);
+        String text = out.toString();
+
+        assertTrue(text.contains("# TYPE stats_test_seconds histogram\n"));
+        assertTrue(text.contains("stats_test_seconds_bucket{handler=\"a\",le=\"1.024E-6\"} 1\n"));
+        assertTrue(text.contains("stats_test_seconds_bucket{handler=\"a\",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("stats_test_seconds_count{handler=\"a\"} 2\n"));
+        assertTrue(text.contains("stats_test_queue 7\n"));
+    }
+}
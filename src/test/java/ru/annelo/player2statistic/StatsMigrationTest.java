@@ -0,0 +1,158 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class StatsMigrationTest {
+    @Test
+    void migratesEveryPlayerAndRemovesCheckpoint() throws Exception {
+        MemoryStorage source = new MemoryStorage(Integer.MAX_VALUE);
+        for (int i = 0; i < 1000; i++) {
+            source.savePlayerStats(player(i));
+        }
+        MemoryStorage target = new MemoryStorage(Integer.MAX_VALUE);
+        File checkpoint = Files.createTempFile("migration", ".checkpoint").toFile();
+
+        StatsMigration migration = new StatsMigration(source, target, checkpoint, 3, 50);
+
+        assertTrue(migration.run());
+        assertEquals(1000, migration.migrated());
+        assertEquals(source.players.keySet(), target.players.keySet());
+        assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    void interruptedMigrationResumesFromCheckpoint() throws Exception {
+        MemoryStorage source = new MemoryStorage(Integer.MAX_VALUE);
+        for (int i = 0; i < 1000; i++) {
+            source.savePlayerStats(player(i));
+        }
+        File checkpoint = Files.createTempFile("migration", ".checkpoint").toFile();
+        try {
+            // Хранилище отказывает после четырёх пачек
+            MemoryStorage broken = new MemoryStorage(4);
+            assertFalse(new StatsMigration(source, broken, checkpoint, 1, 100).run());
+            int written = broken.players.size();
+            assertTrue(written > 0 && written < 1000);
+
+            MemoryStorage target = new MemoryStorage(Integer.MAX_VALUE);
+            StatsMigration resumed = new StatsMigration(source, target, checkpoint, 2, 100);
+            assertTrue(resumed.run());
+            assertEquals(written, resumed.skipped());
+            assertEquals(1000 - written, resumed.migrated());
+            assertEquals(1000 - written, target.players.size());
+        } finally {
+            checkpoint.delete();
+        }
+    }
+
+    @Test
+    void playerChangedAfterCheckpointIsCopiedAgain() throws Exception {
+        MemoryStorage source = new MemoryStorage(Integer.MAX_VALUE);
+        for (int i = 0; i < 1000; i++) {
+            source.savePlayerStats(player(i));
+        }
+        File checkpoint = Files.createTempFile("migration", ".checkpoint").toFile();
+        try {
+            MemoryStorage target = new MemoryStorage(4);
+            assertFalse(new StatsMigration(source, target, checkpoint, 1, 100).run());
+            PlayerStats played = target.players.values().iterator().next().clone();
+            played.setBlocksBroken(played.getBlocksBroken() + 5);
+            source.savePlayerStats(played);
+
+            target.batchesLeft.set(Integer.MAX_VALUE);
+            StatsMigration resumed = new StatsMigration(source, target, checkpoint, 2, 100);
+            assertTrue(resumed.run());
+            assertEquals(1000, resumed.skipped() + resumed.migrated());
+            assertEquals(played.getBlocksBroken(),
+                    target.players.get(played.getUuid()).getBlocksBroken());
+        } finally {
+            checkpoint.delete();
+        }
+    }
+
+    @Test
+    void breakdownsInSourceAreDetected() {
+        MemoryStorage source = new MemoryStorage(Integer.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            source.savePlayerStats(player(i));
+        }
+        assertFalse(StatsMigration.hasBreakdowns(source));
+
+        PlayerStats miner = player(10);
+        StatBreakdown blocks = new StatBreakdown();
+        blocks.add(1, 3);
+        miner.setBreakdown(BreakdownType.BLOCKS_BROKEN, blocks);
+        source.savePlayerStats(miner);
+        assertTrue(StatsMigration.hasBreakdowns(source));
+    }
+
+    private static PlayerStats player(int number) {
+        PlayerStats stats = new PlayerStats();
+        stats.setUuid(UUID.randomUUID());
+        stats.setPlayerName("Player" + number);
+        stats.setBlocksBroken(number);
+        return stats;
+    }
+
+    private static final class MemoryStorage implements IStorage {
+        private final Map<UUID, PlayerStats> players = new ConcurrentHashMap<>();
+        private final AtomicInteger batchesLeft;
+
+        MemoryStorage(int batches) {
+            this.batchesLeft = new AtomicInteger(batches);
+        }
+
+        @Override
+        public void savePlayerStats(PlayerStats stats) {
+            players.put(stats.getUuid(), stats);
+        }
+
+        @Override
+        public boolean savePlayerStatsBatch(List<PlayerStats> batch) {
+            if (batchesLeft.getAndDecrement() <= 0) {
+                return false;
+            }
+            return IStorage.super.savePlayerStatsBatch(batch);
+        }
+
+        @Override
+        public PlayerStats loadPlayerStats(UUID uuid) {
+            return players.get(uuid);
+        }
+
+        @Override
+        public List<PlayerStats> loadAllPlayers() {
+            return new ArrayList<>(players.values());
+        }
+
+        @Override
+        public void saveAllPlayers() {
+        }
+
+        @Override
+        public void reloadStorage() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public List<PlayerStats> getTopStats(StatType statType, int limit) {
+            return IStorage.selectTop(loadAllPlayers(), statType, limit);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class TopQueryCacheTest {
+    @Test
+    void concurrentRequestsShareOneQuery() throws Exception {
+        TopQueryCache cache = new TopQueryCache(60_000);
+        AtomicInteger queries = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<List<PlayerStats>>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(pool.submit(() -> cache.get(StatType.BLOCKS_BROKEN, 10, () -> {
+                queries.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new ArrayList<>(List.of(new PlayerStats()));
+            })));
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Future<List<PlayerStats>> result : results) {
+            assertEquals(1, result.get(5, TimeUnit.SECONDS).size());
+        }
+        pool.shutdown();
+        assertEquals(1, queries.get());
+    }
+
+    @Test
+    void invalidateAndFailuresForceNewQuery() {
+        TopQueryCache cache = new TopQueryCache(60_000);
+        AtomicInteger queries = new AtomicInteger();
+
+        assertTrue(cache.get(StatType.PLAY_TIME, 5, () -> {
+            queries.incrementAndGet();
+            return null;
+        }).isEmpty());
+        cache.get(StatType.PLAY_TIME, 5, () -> {
+            queries.incrementAndGet();
+            return new ArrayList<>();
+        });
+        cache.get(StatType.PLAY_TIME, 5, () -> {
+            queries.incrementAndGet();
+            return new ArrayList<>();
+        });
+        assertEquals(2, queries.get());
+
+        cache.invalidate();
+        cache.get(StatType.PLAY_TIME, 5, () -> {
+            queries.incrementAndGet();
+            return new ArrayList<>();
+        });
+        // Другой limit - другой ключ
+        cache.get(StatType.PLAY_TIME, 6, () -> {
+            queries.incrementAndGet();
+            return new ArrayList<>();
+        });
+        assertEquals(4, queries.get());
+    }
+
+    @Test
+    void staleEntriesAreDroppedAndRowsAreCopies() {
+        TopQueryCache cache = new TopQueryCache(60_000);
+        PlayerStats row = new PlayerStats();
+        for (int limit = 1; limit <= 3; limit++) {
+            cache.get(StatType.DEATHS, limit, () -> new ArrayList<>(List.of(row)));
+        }
+        assertEquals(3, cache.size());
+
+        List<PlayerStats> first = cache.get(StatType.DEATHS, 1, () -> null);
+        first.get(0).setPlayerName("Renamed");
+        assertNull(cache.get(StatType.DEATHS, 1, () -> null).get(0).getPlayerName());
+
+        cache.invalidate();
+        cache.get(StatType.DEATHS, 4, ArrayList::new);
+        assertEquals(1, cache.size());
+    }
+}
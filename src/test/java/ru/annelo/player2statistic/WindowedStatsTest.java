@@ -0,0 +1,78 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class WindowedStatsTest {
+    @Test
+    void daysLeaveWindowsAsTheyRoll() {
+        AtomicInteger day = new AtomicInteger(20_000);
+        WindowedStats windows = new WindowedStats(day::get);
+        UUID miner = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+
+        windows.add(miner, "miner", blocks(10));
+        day.addAndGet(3);
+        windows.add(other, "other", blocks(4));
+
+        assertEquals(4, top(windows, WindowedStats.Window.DAY).get(0).getBlocksBroken());
+        List<PlayerStats> week = top(windows, WindowedStats.Window.WEEK);
+        assertEquals("miner", week.get(0).getPlayerName());
+        assertEquals(10, week.get(0).getBlocksBroken());
+        assertEquals(2, week.size());
+
+        // Через неделю после первой корзины в недельном окне остаётся только второй игрок
+        day.addAndGet(4);
+        week = top(windows, WindowedStats.Window.WEEK);
+        assertEquals(1, week.size());
+        assertEquals("other", week.get(0).getPlayerName());
+        assertEquals(2, top(windows, WindowedStats.Window.MONTH).size());
+        assertTrue(top(windows, WindowedStats.Window.DAY).isEmpty());
+    }
+
+    @Test
+    void loadedBucketsAndPendingDeltasRoundTripThroughFiles() throws IOException {
+        Path dir = Files.createTempDirectory("daily");
+        AtomicInteger day = new AtomicInteger(20_000);
+        WindowedStats windows = new WindowedStats(day::get);
+        UUID uuid = UUID.randomUUID();
+        DailyStatsFiles files = new DailyStatsFiles(dir);
+
+        windows.add(uuid, "p", blocks(5));
+        windows.add(uuid, "p", blocks(2));
+        day.incrementAndGet();
+        windows.add(uuid, "p", blocks(1));
+        List<DailyStats> pending = windows.drainPending();
+        assertEquals(2, pending.size());
+        assertTrue(files.add(pending).isEmpty());
+        assertTrue(files.add(List.of(new DailyStats(uuid, day.get(), blocks(3)))).isEmpty());
+        assertTrue(windows.drainPending().isEmpty());
+
+        WindowedStats reloaded = new WindowedStats(day::get);
+        List<DailyStats> read = new ArrayList<>();
+        assertTrue(files.forEach(reloaded.oldestDay(), read::add));
+        read.forEach(reloaded::load);
+        assertEquals(4, top(reloaded, WindowedStats.Window.DAY).get(0).getBlocksBroken());
+        assertEquals(11, top(reloaded, WindowedStats.Window.WEEK).get(0).getBlocksBroken());
+    }
+
+    private static List<PlayerStats> top(WindowedStats windows, WindowedStats.Window window) {
+        return windows.top(window, StatType.BLOCKS_BROKEN, 10);
+    }
+
+    private static long[] blocks(long count) {
+        long[] values = new long[StatCounters.FIELD_COUNT];
+        values[StatCounters.BLOCKS_BROKEN] = count;
+        return values;
+    }
+}
@@ -0,0 +1,185 @@
+package ru.annelo.player2statistic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class WriteBehindWriterTest {
+    @Test
+    void failedChunkIsRetriedWithSameSequence() {
+        StatCounters counters = new StatCounters();
+        AdditiveStorage storage = new AdditiveStorage();
+        WriteBehindWriter writer = new WriteBehindWriter(counters, () -> storage, 200, (s, d) -> { });
+        StatCounters.Slot slot = loadedSlot(counters);
+
+        slot.add(StatCounters.BLOCKS_BROKEN, 3);
+        writer.submit(slot);
+        storage.failNext = true;
+        assertFalse(writer.flush());
+
+        // Новые изменения идут следующей пачкой, а не пересчитывают ту, что в полёте
+        slot.add(StatCounters.BLOCKS_BROKEN, 2);
+        writer.submit(slot);
+        assertTrue(writer.flush());
+
+        assertEquals(List.of(1L, 1L, 2L), storage.attempts);
+        assertEquals(5, storage.blocksBroken(slot.uuid));
+    }
+
+    @Test
+    void chunkThatLandedIsNotAppliedTwice() {
+        StatCounters counters = new StatCounters();
+        AdditiveStorage storage = new AdditiveStorage();
+        WriteBehindWriter writer = new WriteBehindWriter(counters, () -> storage, 200, (s, d) -> { });
+        StatCounters.Slot slot = loadedSlot(counters);
+
+        slot.add(StatCounters.BLOCKS_BROKEN, 4);
+        writer.submit(slot);
+        // Хранилище применило пачку, но ответ потерялся
+        storage.loseNextReply = true;
+        assertFalse(writer.flush());
+        assertTrue(writer.flush());
+
+        assertEquals(List.of(1L, 1L), storage.attempts);
+        assertEquals(4, storage.blocksBroken(slot.uuid));
+        assertFalse(slot.isDirty());
+    }
+
+    @Test
+    void chunkInFlightIsRewrittenAfterSwitchToAbsolute() {
+        StatCounters counters = new StatCounters();
+        AdditiveStorage storage = new AdditiveStorage();
+        WriteBehindWriter writer = new WriteBehindWriter(counters, () -> storage, 200, (s, d) -> { });
+        StatCounters.Slot slot = loadedSlot(counters);
+
+        slot.add(StatCounters.BLOCKS_BROKEN, 6);
+        writer.submit(slot);
+        storage.failNext = true;
+        assertFalse(writer.flush());
+
+        storage.additive = false;
+        assertTrue(writer.flush());
+
+        assertEquals(List.of(1L), storage.attempts);
+        assertEquals(6, storage.snapshots.get(slot.uuid).getBlocksBroken());
+        assertFalse(slot.isDirty());
+    }
+
+    @Test
+    void sequenceStartsOverForNewStorage() {
+        StatCounters counters = new StatCounters();
+        AdditiveStorage first = new AdditiveStorage();
+        AdditiveStorage second = new AdditiveStorage();
+        second.lastApplied = 40;
+        AtomicReference<IStorage> current = new AtomicReference<>(first);
+        WriteBehindWriter writer = new WriteBehindWriter(counters, current::get, 200, (s, d) -> { });
+        StatCounters.Slot slot = loadedSlot(counters);
+
+        slot.add(StatCounters.BLOCKS_BROKEN, 6);
+        writer.submit(slot);
+        first.failNext = true;
+        assertFalse(writer.flush());
+
+        // Номер пачки принадлежит старому хранилищу: в новом она пересчитывается под его номером
+        current.set(second);
+        assertTrue(writer.flush());
+
+        assertEquals(List.of(1L), first.attempts);
+        assertEquals(List.of(41L), second.attempts);
+        assertEquals(6, second.blocksBroken(slot.uuid));
+        assertFalse(slot.isDirty());
+    }
+
+    private static StatCounters.Slot loadedSlot(StatCounters counters) {
+        StatCounters.Slot slot = counters.acquire(UUID.randomUUID(), "PlayerOne");
+        slot.loaded = true;
+        return slot;
+    }
+
+    // Прибавляет приращения и помнит последний применённый номер пачки, как DatabaseStorage
+    private static final class AdditiveStorage implements IStorage {
+        private final List<Long> attempts = new ArrayList<>();
+        private final Map<UUID, PlayerStats> totals = new HashMap<>();
+        private final Map<UUID, PlayerStats> snapshots = new HashMap<>();
+        private long lastApplied;
+        private boolean additive = true;
+        private boolean failNext;
+        private boolean loseNextReply;
+
+        @Override
+        public boolean isAdditive() {
+            return additive;
+        }
+
+        @Override
+        public long lastCommittedSequence() {
+            return lastApplied;
+        }
+
+        @Override
+        public boolean applyDeltas(long sequence, List<PlayerStats> deltas) {
+            attempts.add(sequence);
+            if (failNext) {
+                failNext = false;
+                return false;
+            }
+            if (sequence > lastApplied) {
+                for (PlayerStats delta : deltas) {
+                    totals.computeIfAbsent(delta.getUuid(), id -> new PlayerStats()).merge(delta);
+                }
+                lastApplied = sequence;
+            }
+            if (loseNextReply) {
+                loseNextReply = false;
+                return false;
+            }
+            return true;
+        }
+
+        long blocksBroken(UUID uuid) {
+            PlayerStats total = totals.get(uuid);
+            return total != null ? total.getBlocksBroken() : 0;
+        }
+
+        @Override
+        public void savePlayerStats(PlayerStats stats) {
+            snapshots.put(stats.getUuid(), stats);
+        }
+
+        @Override
+        public PlayerStats loadPlayerStats(UUID uuid) {
+            return null;
+        }
+
+        @Override
+        public List<PlayerStats> loadAllPlayers() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public void saveAllPlayers() {
+        }
+
+        @Override
+        public void reloadStorage() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public List<PlayerStats> getTopStats(StatType statType, int limit) {
+            return new ArrayList<>();
+        }
+    }
+}